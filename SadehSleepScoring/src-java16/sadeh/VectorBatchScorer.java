@@ -0,0 +1,162 @@
+package sadeh;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scores a whole series with the (incubator) JDK Vector API, several epochs at a time. It is only compiled on JDK
+ * 16 or later and only used when the jdk.incubator.vector module has been added (java --add-modules
+ * jdk.incubator.vector); otherwise {@link SleepAnalysis#sadehBatch(ScoringProfile, int[])} uses the scalar kernel.
+ *
+ * The window sums are differences of prefix sums of the activity (padded with the zeros before the start and after
+ * the end of the data set), its squares and its NATS, so each lane is independent of the others. Every value is
+ * calculated with the same operations in the same order as the scalar kernel (the integer sums wrap the same way,
+ * and none of the floating point operations are fused), so the scores are identical; scores too close to 0 are
+ * recalculated by the scalar code, as the scalar kernel does.
+ *
+ * @author kyle_
+ *
+ */
+class VectorBatchScorer implements SleepAnalysis.BatchScorer {
+	static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+	VectorBatchScorer(){
+		//One lane at a time would only be slower than the scalar kernel
+		if (DOUBLES.length() < 2 || DOUBLES.length() != LONGS.length())
+			throw new UnsupportedOperationException("No vector shape with more than one lane of longs and doubles");
+	}
+
+	@Override
+	public long[] score(ScoringProfile profile, int[] activity){
+		int n = activity.length;
+		long[] asleep = new long[(n + 63) >>> 6];
+		if (n == 0)
+			return asleep;
+
+		Prefixes prefixes = new Prefixes(profile, activity);
+		int window = profile.getWindow();
+		int six = profile.getWindowBefore() + 1;
+		int lanes = DOUBLES.length();
+
+		DoubleVector intercept = DoubleVector.broadcast(DOUBLES, profile.intercept);
+		double sixDivisor = (double)(six * (six - 1));
+
+		int i = 0;
+		for (; i <= n - lanes; i += lanes){
+			LongVector windowTotal = LongVector.fromArray(LONGS, prefixes.total, i + window)
+					.sub(LongVector.fromArray(LONGS, prefixes.total, i));
+			//The scalar window total is an int
+			windowTotal = windowTotal.lanewise(VectorOperators.LSHL, 32).lanewise(VectorOperators.ASHR, 32);
+			LongVector nats = LongVector.fromArray(LONGS, prefixes.nats, i + window)
+					.sub(LongVector.fromArray(LONGS, prefixes.nats, i));
+			LongVector sixTotal = LongVector.fromArray(LONGS, prefixes.total, i + six)
+					.sub(LongVector.fromArray(LONGS, prefixes.total, i));
+			LongVector sixSquares = LongVector.fromArray(LONGS, prefixes.squares, i + six)
+					.sub(LongVector.fromArray(LONGS, prefixes.squares, i));
+
+			DoubleVector AVG = ((DoubleVector) windowTotal.convert(VectorOperators.L2D, 0)).div((double) window);
+			DoubleVector NATS = (DoubleVector) nats.convert(VectorOperators.L2D, 0);
+			LongVector variance = sixSquares.mul(six).sub(sixTotal.mul(sixTotal));
+			DoubleVector SD = ((DoubleVector) variance.convert(VectorOperators.L2D, 0)).div(sixDivisor)
+					.lanewise(VectorOperators.SQRT);
+			DoubleVector LG = DoubleVector.fromArray(DOUBLES, prefixes.log, i);
+
+			DoubleVector sadeh = intercept.sub(AVG.mul(profile.meanCoefficient)).sub(NATS.mul(profile.natsCoefficient))
+					.sub(SD.mul(profile.sdCoefficient)).sub(LG.mul(profile.logCoefficient));
+
+			long bits = sadeh.compare(VectorOperators.GE, 0.0).toLong();
+			VectorMask<Double> nearZero = sadeh.abs().compare(VectorOperators.LT, SleepAnalysis.SCORE_TOLERANCE);
+			if (nearZero.anyTrue()){
+				for (int lane = 0; lane < lanes; lane++){
+					if (nearZero.laneIsSet(lane)){
+						long bit = 1L << lane;
+						bits = (prefixes.score(i + lane) >= 0) ? (bits | bit) : (bits & ~bit);
+					}
+				}
+			}
+
+			int word = i >>> 6;
+			int shift = i & 63;
+			asleep[word] |= bits << shift;
+			if (shift + lanes > 64)
+				asleep[word + 1] |= bits >>> (64 - shift);
+		}
+
+		for (; i < n; i++){
+			if (prefixes.score(i) >= 0)
+				asleep[i >>> 6] |= 1L << i;
+		}
+
+		return asleep;
+	}
+
+	/*
+	 * Prefix sums of the padded activity, its squares and its NATS, and the natural log of each epoch. Element k of
+	 * a prefix sum is the sum of the first k padded epochs; epoch i is padded epoch i + WINDOW_BEFORE.
+	 */
+	static class Prefixes{
+		final ScoringProfile profile;
+		final int[] activity;
+		final long[] total;
+		final long[] squares;
+		final long[] nats;
+		final double[] log;
+
+		Prefixes(ScoringProfile profile, int[] activity){
+			this.profile = profile;
+			this.activity = activity;
+			int n = activity.length;
+			int before = profile.getWindowBefore();
+			int padded = n + profile.getWindow();
+			total = new long[padded + 1];
+			squares = new long[padded + 1];
+			nats = new long[padded + 1];
+			log = new double[n];
+
+			for (int k = 0; k < padded; k++){
+				//The padding counts as 0 activity, and is never a NAT (as in the scalar kernel)
+				int i = k - before;
+				boolean epoch = i >= 0 && i < n;
+				int level = epoch ? activity[i] : 0;
+				total[k+1] = total[k] + level;
+				squares[k+1] = squares[k] + (long) level * level;
+				nats[k+1] = nats[k] + ((epoch && profile.isNat(level)) ? 1 : 0);
+			}
+
+			for (int i = 0; i < n; i++)
+				log[i] = SleepAnalysis.naturalLog(activity[i]);
+		}
+
+		/*
+		 * The score of epoch i, calculated as the scalar kernel calculates it.
+		 */
+		double score(int i){
+			int window = profile.getWindow();
+			int six = profile.getWindowBefore() + 1;
+			int windowTotal = (int) (total[i + window] - total[i]);
+			int NATS = (int) (nats[i + window] - nats[i]);
+			long sixTotal = total[i + six] - total[i];
+			long sixSquares = squares[i + six] - squares[i];
+
+			double AVG = ((double) windowTotal)/((double) window);
+			double SD = Math.sqrt(((double)(six * sixSquares - sixTotal * sixTotal)) / ((double)(six * (six - 1))));
+			double sadeh = profile.score(AVG, NATS, SD, log[i]);
+
+			if (Math.abs(sadeh) < SleepAnalysis.SCORE_TOLERANCE){
+				int[] firstSixEpochs = new int[six];
+				for (int j = 0; j < six; j++){
+					int epochIndex = i - (six - 1) + j;
+					firstSixEpochs[j] = (epochIndex >= 0) ? activity[epochIndex] : 0;
+				}
+
+				sadeh = profile.score(AVG, NATS, SleepAnalysis.standardDeviation(firstSixEpochs), log[i]);
+			}
+
+			return sadeh;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package analysis;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import sadeh.EpochSeries;
+import sadeh.EpochTimeIndex;
+import sadeh.SleepAnalysis.ACTIVITY_LEVEL;
+
+/**
+ * Counts of a participant's scored epochs, gathered in one pass over a sorted {@link EpochSeries} so that the
+ * daily {@link SleepStats} can be calculated for every date without going through the whole series again.
+ *
+ * The number of epochs asleep between any two times comes from an {@link EpochTimeIndex} of the series. Epochs
+ * per date are counted in total, asleep and by activity threshold.
+ *
+ * @author kyle_
+ *
+ */
+public class DailyEpochCounts {
+	final EpochSeries epochs;
+	final EpochTimeIndex timeIndex;
+	//The following are indexed by the day index of the date (days since the date of the first epoch)
+	final int[] epochsOnDay;
+	final int[] asleepOnDay;
+	final int[][] thresholdOnDay;
+
+	public DailyEpochCounts(EpochSeries epochs){
+		this(new EpochTimeIndex(epochs));
+	}
+
+	public DailyEpochCounts(EpochTimeIndex timeIndex){
+		EpochSeries epochs = timeIndex.getEpochs();
+		this.epochs = epochs;
+		this.timeIndex = timeIndex;
+		int size = epochs.size();
+		int days = (size == 0) ? 0 : epochs.getDayIndex(size - 1) + 1;
+
+		epochsOnDay = new int[days];
+		asleepOnDay = new int[days];
+		thresholdOnDay = new int[ACTIVITY_LEVEL.values().length][days];
+
+		for (int i = 0; i < size; i++){
+			int day = epochs.getDayIndex(i);
+			boolean asleep = epochs.isAsleep(i);
+			epochsOnDay[day]++;
+
+			if (asleep)
+				asleepOnDay[day]++;
+
+			ACTIVITY_LEVEL threshold = epochs.getActivityThreshold(i);
+			if (threshold != null)
+				thresholdOnDay[threshold.ordinal()][day]++;
+		}
+	}
+
+	/**
+	 * Number of epochs asleep from start to end (inclusive).
+	 */
+	public int countAsleep(LocalDateTime start, LocalDateTime end){
+		return timeIndex.countAsleep(start, end);
+	}
+
+	public int countEpochs(LocalDate date){
+		return onDay(epochsOnDay, date);
+	}
+
+	public int countAsleep(LocalDate date){
+		return onDay(asleepOnDay, date);
+	}
+
+	public int countByActivityLevel(LocalDate date, ACTIVITY_LEVEL lvl){
+		return onDay(thresholdOnDay[lvl.ordinal()], date);
+	}
+
+	private int onDay(int[] counts, LocalDate date){
+		long day = epochs.getDayIndex(date);
+		return (day >= 0 && day < counts.length) ? counts[(int) day] : 0;
+	}
+}
@@ -0,0 +1,295 @@
+package analysis;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import sadeh.ActicalEpoch;
+
+/**
+ * Finds a participant's sleep periods and each night's sleep onset and offset while the scored epochs arrive, e.g.
+ * from an {@link sadeh.OnlineSadehScorer}, instead of after the whole recording is scored. The sleep periods are
+ * those of {@link sadeh.SadehMain#getSleepPeriods(sadeh.EpochSeries, sadeh.ScoringProfile)}, found with a
+ * {@link SleepPeriodDetector} for each run of consecutive minutes, and the onset and offset of each date are those
+ * of {@link SleepStats#findSleepOnset(LocalDate, SleepPeriodIndex)} and
+ * {@link SleepStats#findSleepOffset(LocalDate, SleepPeriodIndex, SleepPeriod)}.
+ *
+ * Each event is reported as soon as it is final. Sleep periods end in the order they start, so once the epochs
+ * show that no sleep period still to be found can start inside one of the onset (or offset) time windows of a
+ * night, the night's onset (or offset) cannot change; the offset of a night is usually known a little after 10AM
+ * the next morning, rather than at the end of the recording. Only the sleep periods that can still be the onset or
+ * offset of a night waiting for them are kept.
+ *
+ * The epochs must be given in chronological order. An instance belongs to one participant and is not thread safe.
+ *
+ * @author kyle_
+ *
+ */
+public class SleepEventDetector {
+	/**
+	 * Receives the events of a participant in the order they become final.
+	 */
+	public interface Listener{
+		/**
+		 * A run of asleep epochs preceded by enough awake epochs is long enough to be a sleep period; it becomes
+		 * one once it is followed by enough awake epochs.
+		 */
+		default void periodOpened(LocalDateTime start){
+		}
+
+		/**
+		 * An opened sleep period was followed by enough awake epochs.
+		 */
+		default void periodClosed(SleepPeriod period){
+		}
+
+		/**
+		 * The data (or the run of consecutive minutes) ended before the opened sleep period was followed by
+		 * enough awake epochs, so it is not a sleep period.
+		 */
+		default void periodDiscarded(LocalDateTime start){
+		}
+
+		/**
+		 * The sleep onset of the date, or null if it was not found.
+		 */
+		default void sleepOnset(LocalDate date, SleepPeriod onset){
+		}
+
+		/**
+		 * The sleep offset of the date, or null if it (or the onset) was not found.
+		 */
+		default void sleepOffset(LocalDate date, SleepPeriod onset, SleepPeriod offset){
+		}
+	}
+
+	/*
+	 * A date of the data that is waiting for its sleep onset or offset.
+	 */
+	static class Night{
+		LocalDate date;
+		boolean onsetFound = false;
+		SleepPeriod onset;
+
+		Night(LocalDate date){
+			this.date = date;
+		}
+	}
+
+	final int minSleepEpochs;
+	final int successiveAwakeEpochs;
+	final int precedingAwakeEpochs;
+	final Listener listener;
+	SleepPeriodDetector detector;
+	//The first epoch of the current run of consecutive minutes and the last epoch given
+	LocalDateTime segmentStart;
+	LocalDateTime last;
+	//Sleep periods that can still be the onset or offset of a night, by start time
+	List<SleepPeriod> periods = new ArrayList<>();
+	Deque<Night> nights = new ArrayDeque<>();
+
+	public SleepEventDetector(int minSleepEpochs, int successiveAwakeEpochs, int precedingAwakeEpochs, Listener listener){
+		this.minSleepEpochs = minSleepEpochs;
+		this.successiveAwakeEpochs = successiveAwakeEpochs;
+		this.precedingAwakeEpochs = precedingAwakeEpochs;
+		this.listener = listener;
+	}
+
+	public void next(ActicalEpoch epoch){
+		next(epoch.getDateTime(), epoch.isAsleep());
+	}
+
+	public void next(LocalDateTime dateTime, boolean asleep){
+		if (last != null && !dateTime.isAfter(last))
+			throw new IllegalArgumentException("The epoch " + ActicalEpoch.asEpochDateTime(dateTime)
+					+ " is not after the previous epoch " + ActicalEpoch.asEpochDateTime(last));
+
+		//Sleep periods never span a gap in the data
+		if (detector != null && !dateTime.equals(last.plusMinutes(1)))
+			endSegment();
+
+		if (detector == null){
+			segmentStart = dateTime;
+			detector = new SleepPeriodDetector(minSleepEpochs, successiveAwakeEpochs, precedingAwakeEpochs,
+					new SegmentListener(dateTime));
+		}
+
+		if (last == null || !dateTime.toLocalDate().equals(last.toLocalDate()))
+			nights.add(new Night(dateTime.toLocalDate()));
+
+		last = dateTime;
+		detector.next(asleep);
+		resolve(horizon());
+	}
+
+	/**
+	 * Ends the data: possible sleep periods still waiting for their awake epochs are discarded, and the onset
+	 * and offset of every remaining night are reported with the sleep periods found.
+	 */
+	public void finish(){
+		if (detector != null)
+			endSegment();
+
+		resolve(LocalDateTime.MAX);
+	}
+
+	private void endSegment(){
+		detector.finish();
+		detector = null;
+	}
+
+	/*
+	 * Every sleep period that starts before the horizon has been found: no run of asleep epochs that has not been
+	 * resolved started before it.
+	 */
+	private LocalDateTime horizon(){
+		if (detector.pending > 0)
+			return segmentStart.plusMinutes(detector.pendingStarts[0]);
+
+		if (detector.runStart >= 0)
+			return segmentStart.plusMinutes(detector.runStart);
+
+		return last.plusMinutes(1);
+	}
+
+	private void resolve(LocalDateTime horizon){
+		while (!nights.isEmpty()){
+			Night night = nights.peek();
+			if (!night.onsetFound){
+				if (!findOnset(night, horizon))
+					return;
+
+				night.onsetFound = true;
+				listener.sleepOnset(night.date, night.onset);
+			}
+
+			if (night.onset != null && !findOffset(night, horizon))
+				return;
+
+			nights.remove();
+			listener.sleepOffset(night.date, night.onset, (night.onset == null) ? null : offset(night));
+
+			//The periods before the onset windows of the next night cannot be used again
+			if (!nights.isEmpty()){
+				LocalDateTime earliest = nights.peek().date.atTime(17, 29, 0);
+				int keep = 0;
+				while (keep < periods.size() && periods.get(keep).getStart().isBefore(earliest))
+					keep++;
+
+				periods.subList(0, keep).clear();
+			}
+		}
+	}
+
+	/*
+	 * Sets the night's onset and returns true once it is final, with the same windows as SleepStats.findSleepOnset.
+	 */
+	private boolean findOnset(Night night, LocalDateTime horizon){
+		LocalDateTime eveningStart = night.date.atTime(19, 29, 0);
+		LocalDateTime earlyStart = night.date.atTime(17, 29, 0);
+		LocalDateTime eveningEnd = night.date.atTime(23, 30, 1);
+		LocalDateTime morningEnd = night.date.plusDays(1).atTime(8, 0, 1);
+
+		//The earliest found period in the 7:30PM-11:30PM window cannot be preceded by one still to be found
+		SleepPeriod sp = firstStartingBetween(eveningStart, eveningEnd);
+		if (sp == null){
+			if (!horizon.isAfter(eveningEnd))
+				return false;
+
+			sp = firstStartingBetween(earlyStart, morningEnd);
+			if (sp == null && !horizon.isAfter(morningEnd))
+				return false;
+		}
+
+		night.onset = sp;
+		return true;
+	}
+
+	/*
+	 * Returns true once the night's offset is final, with the same windows as SleepStats.findSleepOffset.
+	 */
+	private boolean findOffset(Night night, LocalDateTime horizon){
+		LocalDateTime morningEnd = night.date.plusDays(1).atTime(9, 0, 1);
+		LocalDateTime lateMorningEnd = night.date.plusDays(1).atTime(10, 0, 1);
+
+		if (!horizon.isAfter(morningEnd))
+			return false;
+
+		return morningOffset(night, morningEnd) != null || horizon.isAfter(lateMorningEnd);
+	}
+
+	private SleepPeriod offset(Night night){
+		SleepPeriod sp = morningOffset(night, night.date.plusDays(1).atTime(9, 0, 1));
+		return (sp != null) ? sp : morningOffset(night, night.date.plusDays(1).atTime(10, 0, 1));
+	}
+
+	/*
+	 * The latest period starting by end, if it starts from 4AM and is not before the onset.
+	 */
+	private SleepPeriod morningOffset(Night night, LocalDateTime end){
+		LocalDateTime start = night.date.plusDays(1).atTime(3, 59, 59);
+		for (int i = periods.size() - 1; i >= 0; i--){
+			SleepPeriod sp = periods.get(i);
+			if (sp.getStart().isAfter(end))
+				continue;
+
+			return (!sp.getStart().isBefore(start) && !sp.getStart().isBefore(night.onset.getStart())) ? sp : null;
+		}
+
+		return null;
+	}
+
+	private SleepPeriod firstStartingBetween(LocalDateTime start, LocalDateTime end){
+		for (SleepPeriod sp : periods){
+			if (!sp.getStart().isBefore(start))
+				return sp.getStart().isAfter(end) ? null : sp;
+		}
+
+		return null;
+	}
+
+	/*
+	 * Turns the epoch indices of one run of consecutive minutes into times.
+	 */
+	class SegmentListener implements SleepPeriodDetector.Listener{
+		final LocalDateTime start;
+		//Start indices of the opened runs still waiting for their awake epochs
+		final Set<Integer> opened = new HashSet<>();
+
+		SegmentListener(LocalDateTime start){
+			this.start = start;
+		}
+
+		@Override
+		public void opened(int startIndex, boolean preceded){
+			if (!preceded)
+				return;
+
+			opened.add(startIndex);
+			listener.periodOpened(start.plusMinutes(startIndex));
+		}
+
+		@Override
+		public void ended(int startIndex, int endIndex, boolean preceded){
+			if (!preceded)
+				return;
+
+			opened.remove(startIndex);
+			SleepPeriod sp = new SleepPeriod(start.plusMinutes(startIndex), start.plusMinutes(endIndex));
+			periods.add(sp);
+			listener.periodClosed(sp);
+		}
+
+		@Override
+		public void notEnded(int startIndex){
+			//Runs that were not preceded by enough awake epochs were never opened
+			if (opened.remove(startIndex))
+				listener.periodDiscarded(start.plusMinutes(startIndex));
+		}
+	}
+}
@@ -6,11 +6,15 @@ import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import sadeh.ActicalEpoch;
+import sadeh.EpochSeries;
 
 public class SleepPeriod {
 	LocalDateTime start;
 	LocalDateTime end;
 	SortedSet<ActicalEpoch> epochs = null;
+	//Index of the first and last epoch of the period in the participant's epoch series (-1 if not known)
+	int startIndex = -1;
+	int endIndex = -1;
 	
 	public LocalDateTime getStart() {
 		return start;
@@ -35,6 +39,33 @@ public class SleepPeriod {
 		this.end = epochs.last().getDateTime();
 	}
 	
+	/**
+	 * A sleep period covering the epochs from startIndex to endIndex (inclusive) of a sorted series. 
+	 * The epochs are not copied.
+	 */
+	public SleepPeriod(EpochSeries series, int startIndex, int endIndex){
+		this.startIndex = startIndex;
+		this.endIndex = endIndex;
+		this.start = series.getDateTime(startIndex);
+		this.end = series.getDateTime(endIndex);
+	}
+	
+	/**
+	 * A sleep period from start to end (inclusive) whose epochs are not kept.
+	 */
+	public SleepPeriod(LocalDateTime start, LocalDateTime end){
+		this.start = start;
+		this.end = end;
+	}
+	
+	public int getStartIndex() {
+		return startIndex;
+	}
+
+	public int getEndIndex() {
+		return endIndex;
+	}
+	
 	class EpochSorter implements Comparator<ActicalEpoch>{
 		@Override
 		public int compare(ActicalEpoch epoch1, ActicalEpoch epoch2) {
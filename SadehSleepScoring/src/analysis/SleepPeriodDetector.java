@@ -0,0 +1,118 @@
+package analysis;
+
+import java.util.Arrays;
+
+/**
+ * Finds sleep periods in a single pass over the asleep/awake state of a participant's sorted epochs. Epochs are
+ * given one at a time with {@link #next(boolean)}, and {@link #finish()} is called after the last one.
+ *
+ * A run of at least minSleepEpochs consecutive asleep epochs is a possible sleep period. It becomes a sleep period
+ * once it is followed by successiveAwakeEpochs consecutive awake epochs; the period then ends at the last asleep
+ * epoch before them, so it also includes any later runs of sleep (and the awake epochs between them) that come
+ * before those awake epochs. It is only a sleep period if it is also preceded by precedingAwakeEpochs consecutive
+ * awake epochs. Possible sleep periods still waiting for their awake epochs when the data ends are not sleep periods.
+ *
+ * Only the possible sleep periods waiting for their end are stored, as epoch indices.
+ *
+ * @author kyle_
+ *
+ */
+public class SleepPeriodDetector {
+	/**
+	 * Receives the result for each possible sleep period, in the order the possible periods started.
+	 */
+	public interface Listener{
+		/**
+		 * The run of asleep epochs starting at startIndex has just reached minSleepEpochs epochs, so it is a
+		 * possible sleep period; preceded is whether it was preceded by enough awake epochs.
+		 */
+		default void opened(int startIndex, boolean preceded){
+		}
+
+		/**
+		 * A possible sleep period from startIndex ended at endIndex (inclusive); it is a sleep period
+		 * if it was preceded by enough awake epochs.
+		 */
+		void ended(int startIndex, int endIndex, boolean preceded);
+
+		/**
+		 * The data ended before the possible sleep period starting at startIndex was followed by enough awake epochs.
+		 */
+		void notEnded(int startIndex);
+	}
+
+	final int minSleepEpochs;
+	final int successiveAwakeEpochs;
+	final int precedingAwakeEpochs;
+	final Listener listener;
+	int index = 0; //index of the next epoch
+	int runStart = -1; //start of the current run of asleep epochs
+	boolean runPreceded = false;
+	int awakeStreak = 0; //consecutive awake epochs ending at the previous epoch
+	int lastAsleep = -1;
+	int[] pendingStarts = new int[4];
+	boolean[] pendingPreceded = new boolean[4];
+	int pending = 0;
+
+	public SleepPeriodDetector(int minSleepEpochs, int successiveAwakeEpochs, int precedingAwakeEpochs, Listener listener){
+		this.minSleepEpochs = minSleepEpochs;
+		this.successiveAwakeEpochs = successiveAwakeEpochs;
+		this.precedingAwakeEpochs = precedingAwakeEpochs;
+		this.listener = listener;
+	}
+
+	public void next(boolean asleep){
+		int i = index++;
+
+		if (asleep){
+			if (runStart < 0){
+				runStart = i;
+				//There has to be at least one awake epoch before the run (i.e. it is not the start of the data)
+				runPreceded = awakeStreak >= Math.max(precedingAwakeEpochs, 1);
+			}
+
+			awakeStreak = 0;
+			lastAsleep = i;
+
+			if (i - runStart + 1 == minSleepEpochs)
+				listener.opened(runStart, runPreceded);
+		} else{
+			endRun(i - 1);
+			awakeStreak++;
+
+			if (awakeStreak >= successiveAwakeEpochs && pending > 0){
+				for (int p = 0; p < pending; p++)
+					listener.ended(pendingStarts[p], lastAsleep, pendingPreceded[p]);
+
+				pending = 0;
+			}
+		}
+	}
+
+	public void finish(){
+		endRun(index - 1);
+
+		for (int p = 0; p < pending; p++)
+			listener.notEnded(pendingStarts[p]);
+
+		pending = 0;
+	}
+
+	private void endRun(int runEnd){
+		if (runStart < 0)
+			return;
+
+		if (runEnd - runStart + 1 >= minSleepEpochs){
+			if (pending == pendingStarts.length){
+				pendingStarts = Arrays.copyOf(pendingStarts, pending * 2);
+				pendingPreceded = Arrays.copyOf(pendingPreceded, pending * 2);
+			}
+
+			pendingStarts[pending] = runStart;
+			pendingPreceded[pending] = runPreceded;
+			pending++;
+		}
+
+		runStart = -1;
+	}
+}
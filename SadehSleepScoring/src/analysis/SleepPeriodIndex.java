@@ -0,0 +1,100 @@
+package analysis;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A participant's sleep periods sorted by start time, built once and then searched by start time with a binary
+ * search. Like the TreeSet previously used for the sleep onset/offset search, only the first of several periods
+ * with the same start time is kept.
+ *
+ * @author kyle_
+ *
+ */
+public class SleepPeriodIndex {
+	final SleepPeriod[] periods;
+	final LocalDateTime[] starts;
+
+	public SleepPeriodIndex(List<SleepPeriod> sleepPeriods){
+		List<SleepPeriod> sorted = new ArrayList<>(sleepPeriods);
+		Collections.sort(sorted, new SleepStats.SleepPeriodSorter()); //stable, so the first of equal starts stays first
+
+		List<SleepPeriod> unique = new ArrayList<>(sorted.size());
+		for (SleepPeriod sp : sorted){
+			if (unique.isEmpty() || !unique.get(unique.size()-1).getStart().isEqual(sp.getStart()))
+				unique.add(sp);
+		}
+
+		periods = unique.toArray(new SleepPeriod[unique.size()]);
+		starts = new LocalDateTime[periods.length];
+		for (int i = 0; i < periods.length; i++)
+			starts[i] = periods[i].getStart();
+	}
+
+	public int size(){
+		return periods.length;
+	}
+
+	public SleepPeriod get(int index){
+		return periods[index];
+	}
+
+	/**
+	 * Position of the sleep period in the index, or -1 if it is not in the index.
+	 */
+	public int indexOf(SleepPeriod sp){
+		if (sp == null)
+			return -1;
+
+		int i = firstStartingAtOrAfter(sp.getStart());
+		return (i < periods.length && periods[i] == sp) ? i : -1;
+	}
+
+	/**
+	 * The earliest sleep period that starts between start and end (inclusive), or null.
+	 */
+	public SleepPeriod firstStartingBetween(LocalDateTime start, LocalDateTime end){
+		int i = firstStartingAtOrAfter(start);
+		return (i < periods.length && !starts[i].isAfter(end)) ? periods[i] : null;
+	}
+
+	/**
+	 * The latest sleep period at or after position fromIndex that starts between start and end (inclusive), or null.
+	 */
+	public SleepPeriod lastStartingBetween(LocalDateTime start, LocalDateTime end, int fromIndex){
+		int i = firstStartingAfter(end) - 1;
+		return (i >= 0 && i >= fromIndex && !starts[i].isBefore(start)) ? periods[i] : null;
+	}
+
+	private int firstStartingAtOrAfter(LocalDateTime ldt){
+		int low = 0;
+		int high = starts.length;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (starts[mid].isBefore(ldt)){
+				low = mid + 1;
+			} else{
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	private int firstStartingAfter(LocalDateTime ldt){
+		int low = 0;
+		int high = starts.length;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (!starts[mid].isAfter(ldt)){
+				low = mid + 1;
+			} else{
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+}
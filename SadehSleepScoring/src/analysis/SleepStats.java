@@ -5,10 +5,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -161,6 +158,48 @@ public class SleepStats {
 		return ((double)results.size()/(double)allEpsForDate.size());
 	}
 	
+	/*
+	 * The following versions use the counts of a participant's epochs gathered in one pass over its EpochSeries,
+	 * which are shared by every date.
+	 */
+	
+	public long calculateTotalSleepTime(DailyEpochCounts counts){
+		return counts.countAsleep(sleepOnset, sleepOffset);
+	}
+	
+	public long calculateTotalTimeBasedNightSleep(DailyEpochCounts counts){
+		LocalDateTime ldtStartInterval = localDate.atTime(20, 0, 0);
+		LocalDateTime ldtEndInterval = localDate.plusDays(1).atTime(8,0,0);
+		return counts.countAsleep(ldtStartInterval, ldtEndInterval);
+	}
+	
+	public int calculateByActivityLevel(DailyEpochCounts counts, ACTIVITY_LEVEL lvl){
+		return counts.countByActivityLevel(localDate, lvl);
+	}
+	
+	public double calculatePercentDailySleep(DailyEpochCounts counts){
+		return ((double)counts.countAsleep(localDate)/(double)counts.countEpochs(localDate));
+	}
+	
+	/**
+	 * Calculates and sets every statistic for this date. The statistics that need the sleep onset and offset
+	 * are left at -1 unless both were found.
+	 */
+	public void calculate(DailyEpochCounts counts){
+		if (sleepOnset != null && sleepOffset != null){
+			nightSleepPeriod = calculateNightSleepPeriod();
+			totalSleepTime = calculateTotalSleepTime(counts);
+			totalWakeTime = calculateTotalWakeTime(totalSleepTime);
+			sleepEfficiency = calculateSleepEfficiency(totalSleepTime, nightSleepPeriod);
+		}
+		
+		percentDailySleep = calculatePercentDailySleep(counts);
+		eightToEight = calculateTotalTimeBasedNightSleep(counts);
+		sedentary = calculateByActivityLevel(counts, ACTIVITY_LEVEL.SEDENTARY);
+		light = calculateByActivityLevel(counts, ACTIVITY_LEVEL.LIGHT);
+		mvpa = calculateByActivityLevel(counts, ACTIVITY_LEVEL.MVPA);
+	}
+	
 	public long calculateTotalWakeTime(long totalSleepTime){
 		return Math.abs(calculateNightSleepPeriod() - totalSleepTime);
 	}
@@ -183,95 +222,69 @@ public class SleepStats {
 	 * @return
 	 */
 	public static SleepPeriod findSleepOnset(LocalDate forDate, List<SleepPeriod> sleepPeriods){
+		return findSleepOnset(forDate, new SleepPeriodIndex(sleepPeriods));
+	}
+	
+	/**
+	 * Same as {@link #findSleepOnset(LocalDate, List)}, using an index of the participant's sleep periods
+	 * that can be reused for every date.
+	 */
+	public static SleepPeriod findSleepOnset(LocalDate forDate, SleepPeriodIndex sleepPeriods){
 		LocalDateTime ldtStartInterval = forDate.atTime(19, 29, 0);
 		LocalDateTime ldtEndInterval = forDate.atTime(23,30,1);
-		SortedSet<SleepPeriod> spSet = new TreeSet<>(new SleepPeriodSorter());
-		spSet.addAll(sleepPeriods);
 		
 		//Check to find the first sleep period that started between the date at 7:30PM-11:30PM
-		for (SleepPeriod sp : spSet){
-			if (between(ldtStartInterval, ldtEndInterval, sp.getStart())){
-				return sp;
-			}
-		}
+		SleepPeriod sp = sleepPeriods.firstStartingBetween(ldtStartInterval, ldtEndInterval);
+		if (sp != null)
+			return sp;
 		
 		ldtStartInterval = forDate.atTime(17, 29, 0);
 		
 		//Check to find the first sleep period that started between the date at 5:30PM-11:30PM
-		for (SleepPeriod sp : spSet){
-			if (between(ldtStartInterval, ldtEndInterval, sp.getStart())){
-				return sp;
-			}
-		}
+		sp = sleepPeriods.firstStartingBetween(ldtStartInterval, ldtEndInterval);
+		if (sp != null)
+			return sp;
 		
 		ldtEndInterval = forDate.plusDays(1).atTime(8,0,1);
 		
 		//Check to find the first sleep period that started between the date at 5:30PM and the next morning at 8AM
-		for (SleepPeriod sp : spSet){
-			if (between(ldtStartInterval, ldtEndInterval, sp.getStart())){
-				return sp;
-			}
-		}
-		
-		return null;
+		return sleepPeriods.firstStartingBetween(ldtStartInterval, ldtEndInterval);
 	}
 	
 	public static SleepPeriod findSleepOffset(LocalDate forDate, List<SleepPeriod> sleepPeriods, SleepPeriod onset){
+		return findSleepOffset(forDate, new SleepPeriodIndex(sleepPeriods), onset);
+	}
+	
+	/**
+	 * Same as {@link #findSleepOffset(LocalDate, List, SleepPeriod)}, using an index of the participant's 
+	 * sleep periods that can be reused for every date.
+	 */
+	public static SleepPeriod findSleepOffset(LocalDate forDate, SleepPeriodIndex sleepPeriods, SleepPeriod onset){
 		if (onset == null)
 			return null;
 		
 		LocalDateTime ldtStartInterval = forDate.plusDays(1).atTime(5, 59, 59);
 		LocalDateTime ldtEndInterval = forDate.plusDays(1).atTime(9,0,1);
-		TreeSet<SleepPeriod> spSet = new TreeSet<>(new SleepPeriodSorter());
-		spSet.addAll(sleepPeriods);
-		
-		//A person cannot fall asleep after they wake up so we filter impossible times from the search set
-		Iterator<SleepPeriod> matchIt = spSet.descendingIterator();
-		boolean foundOnset = false;
-		while (matchIt.hasNext()){
-			SleepPeriod sp = matchIt.next();
-			
-			if (foundOnset)
-				matchIt.remove();
-			
-			//The person fell asleep during this interval
-			if (sp.equals(onset))
-				foundOnset = true;
-		}
 		
-		Iterator<SleepPeriod> reverseIt = spSet.descendingIterator();
+		//A person cannot fall asleep after they wake up so sleep periods before the onset are not searched
+		int onsetIndex = Math.max(sleepPeriods.indexOf(onset), 0);
 		
 		//See if the person woke up the next day from 6AM to 9AM
-		while (reverseIt.hasNext()){
-			SleepPeriod sp = reverseIt.next();
-			if (between(ldtStartInterval, ldtEndInterval, sp.getStart())){ //these used to be sp.getEnd()
-				return sp;
-			}
-		}
+		SleepPeriod sp = sleepPeriods.lastStartingBetween(ldtStartInterval, ldtEndInterval, onsetIndex);
+		if (sp != null)
+			return sp;
 		
-		reverseIt = spSet.descendingIterator();
 		ldtStartInterval = forDate.plusDays(1).atTime(3, 59, 59);
 		
 		//See if the person woke up the next day from 4AM to 9AM
-		while (reverseIt.hasNext()){
-			SleepPeriod sp = reverseIt.next();
-			if (between(ldtStartInterval, ldtEndInterval, sp.getStart())){
-				return sp;
-			}
-		}
+		sp = sleepPeriods.lastStartingBetween(ldtStartInterval, ldtEndInterval, onsetIndex);
+		if (sp != null)
+			return sp;
 		
-		reverseIt = spSet.descendingIterator();
 		ldtEndInterval = forDate.plusDays(1).atTime(10,0,1);
 		
 		//See if the person woke up the next day from 4AM to 10AM
-		while (reverseIt.hasNext()){
-			SleepPeriod sp = reverseIt.next();
-			if (between(ldtStartInterval, ldtEndInterval, sp.getStart())){
-				return sp;
-			}
-		}
-		
-		return null;
+		return sleepPeriods.lastStartingBetween(ldtStartInterval, ldtEndInterval, onsetIndex);
 	}
 	
 	public static boolean between(LocalDateTime start, LocalDateTime end, LocalDateTime sp){
@@ -0,0 +1,73 @@
+package ema;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The EMA prompts of every participant, kept in one bucket per participant so that the prompts of an Actical
+ * participant are found with a single hash lookup. Prompts are added in the order they were read; since an EMA
+ * export is usually ordered by participant and time, a bucket is only sorted by {@link #sort()} when a prompt was
+ * added to it out of order.
+ *
+ * @author kyle_
+ *
+ */
+public class EMAPromptIndex {
+	protected Map<String, List<EMAPrompt>> participants = new HashMap<>();
+	//Participants with a prompt that was added before an earlier one
+	protected Set<String> unsorted = new HashSet<>();
+	protected int size = 0;
+
+	public static EMAPromptIndex of(List<EMAPrompt> prompts){
+		EMAPromptIndex index = new EMAPromptIndex();
+		for (EMAPrompt prompt : prompts)
+			index.add(prompt);
+
+		index.sort();
+		return index;
+	}
+
+	public void add(EMAPrompt prompt){
+		List<EMAPrompt> prompts = participants.get(prompt.getParticipant());
+		if (prompts == null){
+			prompts = new ArrayList<>();
+			participants.put(prompt.getParticipant(), prompts);
+		} else if (prompts.get(prompts.size() - 1).getDateTime().isAfter(prompt.getDateTime())){
+			unsorted.add(prompt.getParticipant());
+		}
+
+		prompts.add(prompt);
+		size++;
+	}
+
+	/**
+	 * Sorts the prompts of each participant by time, earlier times first; prompts with the same time stay in the
+	 * order they were added.
+	 */
+	public void sort(){
+		for (String participant : unsorted)
+			participants.get(participant).sort(Comparator.comparing(EMAPrompt::getDateTime));
+
+		unsorted.clear();
+	}
+
+	/**
+	 * The participant's prompts sorted by time, or null if the participant has none.
+	 */
+	public List<EMAPrompt> get(String participant){
+		return participants.get(participant);
+	}
+
+	public Set<String> getParticipants(){
+		return participants.keySet();
+	}
+
+	public int size(){
+		return size;
+	}
+}
@@ -43,6 +43,13 @@ public class EMAResult {
 			if (epoch.isAsleep())
 				countAsleep++;
 		
+		process(countAsleep);
+	}
+	
+	/**
+	 * Sets the proportion asleep when the number of epochs asleep is already known.
+	 */
+	public void process(int countAsleep){
 		this.proportionAsleep = ((double)countAsleep/this.previousEpochsInclusive.size());
 	}
 	
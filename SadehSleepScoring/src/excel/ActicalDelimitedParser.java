@@ -0,0 +1,467 @@
+package excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import sadeh.EpochSeries;
+import sadeh.Diagnostics;
+
+/**
+ * Reads Actical data exported as plain text, comma separated (.csv) or tab separated (.tsv), laid out like the
+ * "Data from ActiCal" sheet: the day of week headers are on line 3, the data starts on line 16 with the time in the
+ * first column, and the date of each day is on the first data line, two columns to the left of its header. The
+ * epochs are the same as {@link ActicalExcelParser#parseSadehExcelDocument(File)} produces for the same sheet.
+ *
+ * The file is read through a memory mapped buffer. The header and date lines are decoded into strings, but the
+ * times and activity levels of the data lines are parsed straight from the bytes, so reading them creates no
+ * objects other than the epochs.
+ *
+ * Times may be written as H:mm, H:mm:ss (optionally followed by AM or PM) or as a fraction of a day, as Excel
+ * stores them. Dates may be written as 2016-03-07, 3/7/2016, 3/7/16, 07-Mar-16, 7 Mar 2016 or as an Excel serial
+ * number.
+ *
+ * @author kyle_
+ *
+ */
+public class ActicalDelimitedParser {
+	// Excel's day 0 in the 1900 date system
+	static final LocalDate EXCEL_EPOCH = LocalDate.of(1899, 12, 30);
+	static final String[] DATE_PATTERNS =
+		{"yyyy-MM-dd", "M/d/yyyy", "M/d/yy", "d-MMM-yyyy", "d-MMM-yy", "d MMM yyyy", "MMM d, yyyy"};
+	static final List<DateTimeFormatter> DATE_FORMATS = new ArrayList<>();
+
+	static {
+		for (String pattern : DATE_PATTERNS)
+			DATE_FORMATS.add(new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern(pattern)
+					.toFormatter(Locale.ENGLISH));
+	}
+
+	/**
+	 * Whether the file is one this parser reads (by its extension).
+	 */
+	public static boolean isDelimited(File file){
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".csv") || name.endsWith(".tsv");
+	}
+
+	/**
+	 * Parses a .csv or .tsv file containing Actigraph data, producing the same epochs as
+	 * {@link ActicalExcelParser#parseSadehExcelDocument(File)} for a workbook with the same rows.
+	 *
+	 * @param file
+	 *            The text document
+	 * @return
+	 * @throws ParticipantDataParseException
+	 */
+	public static EpochSeries parseSadehDelimitedDocument(File file) throws ParticipantDataParseException {
+		byte delimiter = file.getName().toLowerCase().endsWith(".tsv") ? (byte) '\t' : (byte) ',';
+		EpochSeries epochs = new EpochSeries();
+		int totalEpochs = 0;
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			LineScanner scanner = new LineScanner(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+					delimiter);
+			String[] headerNames = new String[0];
+			List<ActicalExcelParser.ActigraphDataHeader> headers = null;
+
+			while (scanner.nextLine()) {
+				int row = scanner.getLine() - 1;
+				if (row == ActicalExcelParser.HEADER_ROW_INDEX) {
+					headerNames = scanner.strings();
+					continue;
+				} else if (row < ActicalExcelParser.BEGIN_DATA_ROW_INDEX) {
+					continue;
+				}
+
+				if (headers == null)
+					headers = parseHeader(headerNames, scanner);
+
+				// Like the workbook parser, stop at the first line without a time
+				if (scanner.isEmpty(ActicalExcelParser.EPOCH_TIME_INDEX))
+					break;
+
+				int secondOfDay = scanner.secondOfDay(ActicalExcelParser.EPOCH_TIME_INDEX);
+				for (ActicalExcelParser.ActigraphDataHeader header : headers) {
+					if (!scanner.isEmpty(header.getColumnIndex())) {
+						epochs.add(header.getDate(), secondOfDay, scanner.intValue(header.getColumnIndex()),
+								header.getDayOfWeek());
+						totalEpochs++;
+					}
+				}
+			}
+		} catch (NoSuchFileException ex) {
+			throw new ParticipantDataParseException("File " + file.getAbsolutePath()
+			+ " cannot be opened, it must be manually processed.");
+		} catch (IOException io) {
+			throw new ParticipantDataParseException("IO error occurred processing the file " + file.getAbsolutePath()
+			+ ", it must be manually processed.");
+		}
+
+		final int total = totalEpochs;
+		Diagnostics.summary(() -> "Total epochs in document: " + total);
+		return epochs;
+	}
+
+	/*
+	 * Same rules as ActicalExcelParser.parseHeader: the column header must name a day of the week and the date for
+	 * that day is found two columns to the left, in the first data line (the scanner's current line). Columns
+	 * without a readable date are skipped.
+	 */
+	private static List<ActicalExcelParser.ActigraphDataHeader> parseHeader(String[] headerNames, LineScanner dateRow) {
+		List<ActicalExcelParser.ActigraphDataHeader> headers = new ArrayList<>(8);
+
+		for (int i = 0; i < headerNames.length; i++) {
+			String value = headerNames[i];
+			if (!value.isEmpty() && ActicalExcelParser.getHeaderName(value) != null && i - 2 >= 1) {
+				LocalDate date = parseDate(dateRow.string(i - 2));
+				if (date == null)
+					continue;
+
+				ActicalExcelParser.ActigraphDataHeader header = new ActicalExcelParser.ActigraphDataHeader();
+				header.setDate(date);
+				header.setColumnIndex(i);
+				header.setHeader(value);
+				header.setDayOfWeek(ActicalExcelParser.getHeaderName(value));
+				headers.add(header);
+			}
+		}
+
+		return headers;
+	}
+
+	/**
+	 * Parses a date in one of the supported formats (or an Excel serial date), ignoring any time after it. Returns
+	 * null if the value is not a date.
+	 */
+	static LocalDate parseDate(String value) {
+		value = value.trim();
+		if (value.isEmpty())
+			return null;
+
+		try {
+			return EXCEL_EPOCH.plusDays((long) Math.floor(Double.parseDouble(value)));
+		} catch (NumberFormatException e) {
+		}
+
+		LocalDate date = parseDate(value, DATE_FORMATS);
+		int end = value.indexOf(' ');
+		if (date == null && end > 0)
+			date = parseDate(value.substring(0, end), DATE_FORMATS);
+
+		return date;
+	}
+
+	private static LocalDate parseDate(String value, List<DateTimeFormatter> formats) {
+		for (DateTimeFormatter format : formats) {
+			try {
+				return LocalDate.parse(value, format);
+			} catch (DateTimeParseException e) {
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Splits the lines of the mapped file into fields without copying them: for the current line it records where
+	 * each of the first MAX_HEADER_COLUMN_INDEX fields starts and ends in the buffer. Fields may be quoted, in which
+	 * case they can contain the delimiter and line breaks; the quotes (and any spaces around the field) are not
+	 * part of its value.
+	 */
+	static class LineScanner {
+		final File file;
+		final ByteBuffer buffer;
+		final byte delimiter;
+		final int limit;
+		final int[] fieldStart = new int[ActicalExcelParser.MAX_HEADER_COLUMN_INDEX];
+		final int[] fieldEnd = new int[ActicalExcelParser.MAX_HEADER_COLUMN_INDEX];
+		int fields = 0;
+		int position = 0;
+		int line = 0;
+		int number; // Set by digits()
+
+		LineScanner(File file, ByteBuffer buffer, byte delimiter) {
+			this.file = file;
+			this.buffer = buffer;
+			this.delimiter = delimiter;
+			this.limit = buffer.limit();
+
+			// Skip a UTF-8 byte order mark
+			if (limit >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF)
+				position = 3;
+		}
+
+		/**
+		 * Moves to the next line, returning false at the end of the file.
+		 */
+		boolean nextLine() {
+			if (position >= limit)
+				return false;
+
+			fields = 0;
+			boolean quoted = false;
+			int start = position;
+			int p = position;
+
+			for (; p < limit; p++) {
+				byte b = buffer.get(p);
+				if (b == '"') {
+					quoted = !quoted;
+				} else if (!quoted) {
+					if (b == delimiter) {
+						endField(start, p);
+						start = p + 1;
+					} else if (b == '\n' || b == '\r') {
+						break;
+					}
+				}
+			}
+
+			endField(start, p);
+			if (p < limit && buffer.get(p) == '\r')
+				p++;
+			if (p < limit && buffer.get(p) == '\n')
+				p++;
+
+			position = p;
+			line++;
+			return true;
+		}
+
+		private void endField(int start, int end) {
+			if (fields < fieldStart.length) {
+				while (start < end && buffer.get(start) == ' ')
+					start++;
+				while (end > start && buffer.get(end - 1) == ' ')
+					end--;
+				if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+					start++;
+					end--;
+				}
+
+				fieldStart[fields] = start;
+				fieldEnd[fields] = end;
+			}
+
+			fields++;
+		}
+
+		/**
+		 * The number of the current line, starting from 1.
+		 */
+		int getLine() {
+			return line;
+		}
+
+		boolean isEmpty(int column) {
+			return column >= Math.min(fields, fieldStart.length) || fieldStart[column] == fieldEnd[column];
+		}
+
+		String string(int column) {
+			if (isEmpty(column))
+				return "";
+
+			byte[] bytes = new byte[fieldEnd[column] - fieldStart[column]];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = buffer.get(fieldStart[column] + i);
+
+			// A quote inside a quoted field is written twice
+			return new String(bytes, StandardCharsets.UTF_8).replace("\"\"", "\"");
+		}
+
+		/**
+		 * The fields of the current line (up to MAX_HEADER_COLUMN_INDEX of them) as strings.
+		 */
+		String[] strings() {
+			String[] values = new String[Math.min(fields, fieldStart.length)];
+			for (int i = 0; i < values.length; i++)
+				values[i] = string(i);
+
+			return values;
+		}
+
+		/**
+		 * Parses the time in the column as the second of the day it was recorded. A fraction of a day is converted
+		 * by {@link ExcelTime#secondOfDay(double)}.
+		 */
+		int secondOfDay(int column) throws ParticipantDataParseException {
+			int p = fieldStart[column];
+			int end = fieldEnd[column];
+			int colon = p;
+			while (colon < end && buffer.get(colon) != ':')
+				colon++;
+
+			if (colon == end) {
+				int secondOfDay = ExcelTime.secondOfDay(decimal(column));
+				if (secondOfDay == ExcelTime.NO_TIME)
+					throw invalid("time", column);
+
+				return secondOfDay;
+			}
+
+			p = digits(p, end);
+			int hour = number;
+			if (p != colon || hour > 23)
+				throw invalid("time", column);
+
+			p = digits(p + 1, end);
+			int minute = number;
+			int second = 0;
+			if (p == colon + 1 || minute > 59)
+				throw invalid("time", column);
+
+			if (p < end && buffer.get(p) == ':') {
+				int secondStart = p + 1;
+				p = digits(secondStart, end);
+				second = number;
+				if (p == secondStart || second > 59)
+					throw invalid("time", column);
+			}
+
+			// Fractions of a second are ignored
+			if (p < end && buffer.get(p) == '.') {
+				p = digits(p + 1, end);
+			}
+
+			while (p < end && buffer.get(p) == ' ')
+				p++;
+
+			if (p < end) {
+				if (end - p != 2 || (buffer.get(p + 1) | 0x20) != 'm' || hour < 1 || hour > 12)
+					throw invalid("time", column);
+
+				int meridiem = buffer.get(p) | 0x20;
+				if (meridiem == 'a')
+					hour = hour % 12;
+				else if (meridiem == 'p')
+					hour = hour % 12 + 12;
+				else
+					throw invalid("time", column);
+			}
+
+			return hour * 3600 + minute * 60 + second;
+		}
+
+		/**
+		 * Parses the number in the column, dropping any fraction (as the workbook parser's cast to int does).
+		 */
+		int intValue(int column) throws ParticipantDataParseException {
+			int p = fieldStart[column];
+			int end = fieldEnd[column];
+			boolean negative = false;
+			if (buffer.get(p) == '-' || buffer.get(p) == '+') {
+				negative = buffer.get(p) == '-';
+				p++;
+			}
+
+			long value = 0;
+			int start = p;
+			for (; p < end; p++) {
+				int digit = buffer.get(p) - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				if (value <= Integer.MAX_VALUE)
+					value = value * 10 + digit;
+			}
+
+			boolean hasDigits = p > start;
+			if (p < end && buffer.get(p) == '.') {
+				int fractionStart = ++p;
+				while (p < end && buffer.get(p) >= '0' && buffer.get(p) <= '9')
+					p++;
+				hasDigits |= p > fractionStart;
+			}
+
+			if (!hasDigits || p != end)
+				throw invalid("activity level", column);
+
+			value = negative ? -value : value;
+			return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+		}
+
+		/*
+		 * A non-negative decimal number (digits with an optional fraction and exponent, e.g. 6.9444E-4), or NaN if
+		 * the column is not one. Digits past the 17th significant one are ignored.
+		 */
+		private double decimal(int column) {
+			int p = fieldStart[column];
+			int end = fieldEnd[column];
+			long mantissa = 0;
+			int scale = 0;
+			int significant = 0;
+			boolean fraction = false;
+			boolean hasDigits = false;
+
+			for (; p < end; p++) {
+				byte b = buffer.get(p);
+				if (b == '.' && !fraction) {
+					fraction = true;
+				} else if (b >= '0' && b <= '9') {
+					hasDigits = true;
+					if (significant < 17) {
+						mantissa = mantissa * 10 + (b - '0');
+						if (mantissa > 0)
+							significant++;
+						if (fraction)
+							scale++;
+					} else if (!fraction) {
+						scale--;
+					}
+				} else {
+					break;
+				}
+			}
+
+			if (p < end && (buffer.get(p) | 0x20) == 'e') {
+				boolean negative = ++p < end && buffer.get(p) == '-';
+				if (p < end && (buffer.get(p) == '-' || buffer.get(p) == '+'))
+					p++;
+
+				int exponentStart = p;
+				int exponent = 0;
+				for (; p < end && buffer.get(p) >= '0' && buffer.get(p) <= '9' && exponent < 1000; p++)
+					exponent = exponent * 10 + (buffer.get(p) - '0');
+
+				hasDigits &= p > exponentStart;
+				scale += negative ? exponent : -exponent;
+			}
+
+			if (!hasDigits || p != end)
+				return Double.NaN;
+
+			return (scale >= 0) ? mantissa / Math.pow(10, scale) : mantissa * Math.pow(10, -scale);
+		}
+
+		/*
+		 * Reads the digits from p into number (up to three of them), returning the position after them.
+		 */
+		private int digits(int p, int end) {
+			number = 0;
+			for (int read = 0; p < end && read < 3; p++, read++) {
+				int digit = buffer.get(p) - '0';
+				if (digit < 0 || digit > 9)
+					break;
+				number = number * 10 + digit;
+			}
+
+			return p;
+		}
+
+		private ParticipantDataParseException invalid(String what, int column) {
+			return new ParticipantDataParseException("Invalid " + what + " at line " + line + ", column " + (column + 1)
+					+ " of the file " + file.getAbsolutePath() + ", it must be manually processed.");
+		}
+	}
+}
@@ -4,9 +4,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Date;
@@ -15,19 +13,20 @@ import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.EncryptedDocumentException;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 
-import sadeh.ActicalEpoch;
+import sadeh.EpochSeries;
+import sadeh.Diagnostics;
 
 public class ActicalExcelParser {
 	// The index of the row with the time when the data point was recorded
-	private static final int EPOCH_TIME_INDEX = 0;
+	static final int EPOCH_TIME_INDEX = 0;
 	// Index of the header row containing the data column headers
-	private static final int HEADER_ROW_INDEX = 2;
+	static final int HEADER_ROW_INDEX = 2;
 	// The data doesn't start immediately after the header row
-	private static final int BEGIN_DATA_ROW_INDEX = 15;
-	// Times are formatted similarly to military time e.g. 23:59:00
-	private static final SimpleDateFormat acticalTimeFormat = new SimpleDateFormat("HH:mm:ss");
+	static final int BEGIN_DATA_ROW_INDEX = 15;
+	// There cannot be headers past this column
+	static final int MAX_HEADER_COLUMN_INDEX = 26;
 	// Workbook name where the data is stored
-	private static final String actigraphWorkbook = "Data from ActiCal";
+	static final String actigraphWorkbook = "Data from ActiCal";
 
 	/**
 	 * Parses an excel document containing Actigraph data representing sleep
@@ -43,14 +42,14 @@ public class ActicalExcelParser {
 	 * @throws IOException
 	 * @throws Exception
 	 */
-	public static List<ActicalEpoch> parseSadehExcelDocument(File excel)
+	public static EpochSeries parseSadehExcelDocument(File excel)
 			throws ParticipantDataParseException {
-		List<ActicalEpoch> epochs = new ArrayList<>();
+		EpochSeries epochs = new EpochSeries();
 		Workbook wb = null;
 		
 		// Parse the sleep data from the body rows of the excel document
 		Row row = null;
-		String time = null; // the time an epoch of activity data was collected
+		int secondOfDay = ExcelTime.NO_TIME; // the time an epoch of activity data was collected
 		int rowIdx = BEGIN_DATA_ROW_INDEX;
 		int totalEpochs = 0;
 
@@ -66,31 +65,23 @@ public class ActicalExcelParser {
 				row = ws.getRow(rowIdx);
 
 				if (row != null) {
-					time = parseTimeActivityRecorded(row);
+					secondOfDay = parseTimeActivityRecorded(row);
 
-					if (time != null) {
+					if (secondOfDay != ExcelTime.NO_TIME) {
 
 						for (ActigraphDataHeader header : headers) {
 							Cell cell = row.getCell(header.getColumnIndex());
 							if (!isCellEmpty(cell)) {
 								String dataCollectionDay = header.getDayOfWeek();
 								int activityLevel = (int) cell.getNumericCellValue();
-								ActicalEpoch epoch = new ActicalEpoch();
-								epoch.setActivityLevel(activityLevel);
-								epoch.setDayOfWeek(dataCollectionDay);
-
-								LocalDate ld = header.getDate();
-								LocalDateTime epochTime = getLocalDateTime(ld, time);
-								epoch.setDateTime(epochTime);
-								epoch.setDate(ld);
-								epochs.add(epoch);
+								epochs.add(header.getDate(), secondOfDay, activityLevel, dataCollectionDay);
 								totalEpochs++;
 							}
 						}
 					}
 				}
 				rowIdx++;
-			} while (row != null && time != null);
+			} while (row != null && secondOfDay != ExcelTime.NO_TIME);
 
 		} catch (FileNotFoundException ex) {
 			throw new ParticipantDataParseException("File " + excel.getAbsolutePath()
@@ -114,23 +105,11 @@ public class ActicalExcelParser {
 				}
 		}
 
-		System.out.println("Total epochs in document: " + totalEpochs);
+		final int total = totalEpochs;
+		Diagnostics.summary(() -> "Total epochs in document: " + total);
 		return epochs;
 	}
 
-	private static LocalDateTime getLocalDateTime(LocalDate ld, String actigraphTime) {
-		try {
-			String[] ata = actigraphTime.split(":");
-			int hour = Integer.parseInt(ata[0]);
-			int minute = Integer.parseInt(ata[1]);
-			int second = Integer.parseInt(ata[2]);
-			return ld.atTime(hour, minute, second);
-		} catch (Exception e) {
-		}
-
-		return null;
-	}
-
 	@SuppressWarnings("deprecation")
 	public static boolean isCellEmpty(final Cell cell) {
 		if (cell == null || cell.getCellType() == Cell.CELL_TYPE_BLANK) {
@@ -145,22 +124,19 @@ public class ActicalExcelParser {
 	}
 
 	/**
-	 * Each row contains a time in the format HH:mm:ss (participant data is
-	 * collected once per minute). This parses the value from the Excel
-	 * document.
+	 * Each row contains a time (participant data is collected once per
+	 * minute). This returns it as the second of the day, or
+	 * ExcelTime.NO_TIME if the row has no time.
 	 * 
 	 * @param row
 	 * @return
 	 */
-	private static String parseTimeActivityRecorded(Row row) {
+	private static int parseTimeActivityRecorded(Row row) {
 		Cell cell = row.getCell(EPOCH_TIME_INDEX);
-		Date date = parseDate(cell);
+		if (isCellEmpty(cell))
+			return ExcelTime.NO_TIME;
 
-		if (date != null) {
-			return acticalTimeFormat.format(date);
-		} else {
-			return null;
-		}
+		return ExcelTime.secondOfDay(cell.getNumericCellValue());
 	}
 
 	private static Date parseDate(Cell cell) {
@@ -179,7 +155,7 @@ public class ActicalExcelParser {
 		Row row = ws.getRow(HEADER_ROW_INDEX);
 		Row dateRow = ws.getRow(BEGIN_DATA_ROW_INDEX);
 
-		int maxColIdx = 26; // There cannot be headers past this column
+		int maxColIdx = MAX_HEADER_COLUMN_INDEX;
 
 		for (int i = 0; i < maxColIdx; i++) {
 			Cell cell = row.getCell(i);
@@ -0,0 +1,485 @@
+package excel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.DateWindow1904Record;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.xmlbeans.XmlException;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.WorkbookDocument;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import sadeh.EpochSeries;
+import sadeh.Diagnostics;
+
+/**
+ * Event based alternative to {@link ActicalExcelParser}. Instead of loading the whole workbook into memory, the
+ * "Data from ActiCal" sheet is read row by row (SAX for .xlsx, the HSSF event API for .xls) and epochs are created
+ * as soon as each row has been read. Only the header row and the row currently being read are held in memory, and
+ * reading stops at the first row without a time, exactly as the workbook based parser does.
+ *
+ * @author kyle_
+ *
+ */
+public class ActicalStreamingParser {
+
+	/**
+	 * Parses an excel document containing Actigraph data, producing the same epochs as
+	 * {@link ActicalExcelParser#parseSadehExcelDocument(File)}.
+	 *
+	 * @param excel
+	 *            The Excel document (.xls or .xlsx)
+	 * @return
+	 * @throws ParticipantDataParseException
+	 */
+	public static EpochSeries parseSadehExcelDocument(File excel) throws ParticipantDataParseException {
+		ActicalRowHandler handler = new ActicalRowHandler(excel);
+
+		if (excel.getName().toLowerCase().endsWith(".xls")) {
+			parseHssf(excel, handler);
+		} else {
+			parseXssf(excel, handler);
+		}
+
+		if (!handler.foundSheet) {
+			throw new ParticipantDataParseException("The worksheet '" + ActicalExcelParser.actigraphWorkbook
+					+ "' was not found in the file " + excel.getAbsolutePath() + ", it must be manually processed.");
+		}
+
+		Diagnostics.summary(() -> "Total epochs in document: " + handler.epochs.size());
+		return handler.epochs;
+	}
+
+	private static void parseXssf(File excel, ActicalRowHandler handler) throws ParticipantDataParseException {
+		OPCPackage pkg = null;
+
+		try {
+			pkg = OPCPackage.open(excel, PackageAccess.READ);
+			XSSFReader reader = new XSSFReader(pkg);
+			handler.date1904 = isDate1904(reader);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+
+			while (sheets.hasNext()) {
+				try (InputStream sheet = sheets.next()) {
+					if (sheets.getSheetName().equalsIgnoreCase(ActicalExcelParser.actigraphWorkbook)) {
+						handler.foundSheet = true;
+						XMLReader parser = SAXHelper.newXMLReader();
+						parser.setContentHandler(new SheetXmlHandler(strings, handler));
+						parser.parse(new InputSource(sheet));
+						handler.endSheet();
+						break;
+					}
+				}
+			}
+		} catch (StopParsingException stop) {
+			// The end of the epoch data was reached before the end of the worksheet
+		} catch (SAXException ex) {
+			if (ex.getException() instanceof ParticipantDataParseException)
+				throw (ParticipantDataParseException) ex.getException();
+
+			throw new ParticipantDataParseException("Invalid format processing the file " + excel.getAbsolutePath()
+					+ ", it must be manually processed.", ex);
+		} catch (FileNotFoundException ex) {
+			throw new ParticipantDataParseException("File " + excel.getAbsolutePath()
+					+ " cannot be opened, it must be manually processed.");
+		} catch (IOException io) {
+			throw new ParticipantDataParseException("IO error occurred processing the file " + excel.getAbsolutePath()
+					+ ", it must be manually processed.");
+		} catch (OpenXML4JException | XmlException | javax.xml.parsers.ParserConfigurationException ex) {
+			throw new ParticipantDataParseException("Invalid format processing the file " + excel.getAbsolutePath()
+					+ ", it must be manually processed.");
+		} finally {
+			if (pkg != null)
+				pkg.revert();
+		}
+	}
+
+	static boolean isDate1904(XSSFReader reader)
+			throws IOException, XmlException, OpenXML4JException {
+		try (InputStream wb = reader.getWorkbookData()) {
+			CTWorkbook workbook = WorkbookDocument.Factory.parse(wb).getWorkbook();
+			return workbook.isSetWorkbookPr() && workbook.getWorkbookPr().getDate1904();
+		}
+	}
+
+	private static void parseHssf(File excel, ActicalRowHandler handler) throws ParticipantDataParseException {
+		NPOIFSFileSystem fs = null;
+
+		try {
+			fs = new NPOIFSFileSystem(excel, true);
+			HSSFRequest request = new HSSFRequest();
+			HssfRecordListener listener = new HssfRecordListener(handler);
+			request.addListenerForAllRecords(listener);
+			new HSSFEventFactory().abortableProcessWorkbookEvents(request, fs.getRoot());
+
+			if (listener.error != null)
+				throw listener.error;
+		} catch (FileNotFoundException ex) {
+			throw new ParticipantDataParseException("File " + excel.getAbsolutePath()
+					+ " cannot be opened, it must be manually processed.");
+		} catch (IOException | HSSFUserException io) {
+			throw new ParticipantDataParseException("IO error occurred processing the file " + excel.getAbsolutePath()
+					+ ", it must be manually processed.");
+		} finally {
+			if (fs != null)
+				try {
+					fs.close();
+				} catch (IOException e) {
+					throw new ParticipantDataParseException("IO error occurred processing the file " + excel.getAbsolutePath()
+							+ ", it must be manually processed.");
+				}
+		}
+	}
+
+	/**
+	 * Receives the cells of a worksheet one at a time, in row order. Cell values are either a Double (numeric
+	 * cells) or a String; any other cell is given as Boolean.FALSE so that it is treated as non-empty but
+	 * non-numeric.
+	 */
+	interface CellHandler {
+		void cell(int row, int column, Object value) throws ParticipantDataParseException;
+
+		/**
+		 * Whether the rest of the worksheet is not needed.
+		 */
+		boolean isFinished();
+	}
+
+	/**
+	 * Receives the cells of the Actical worksheet and turns each completed data row into epochs.
+	 */
+	static class ActicalRowHandler implements CellHandler {
+		File excel;
+		boolean foundSheet = false;
+		boolean date1904 = false;
+		boolean finished = false;
+		EpochSeries epochs = new EpochSeries();
+		Object[] headerNames = new Object[ActicalExcelParser.MAX_HEADER_COLUMN_INDEX];
+		Object[] cells = new Object[ActicalExcelParser.MAX_HEADER_COLUMN_INDEX];
+		List<ActicalExcelParser.ActigraphDataHeader> headers = null;
+		int currentRow = -1;
+		int expectedRow = ActicalExcelParser.BEGIN_DATA_ROW_INDEX;
+
+		ActicalRowHandler(File excel) {
+			this.excel = excel;
+		}
+
+		@Override
+		public boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public void cell(int row, int column, Object value) throws ParticipantDataParseException {
+			if (finished)
+				return;
+
+			if (row != currentRow) {
+				endRow();
+				currentRow = row;
+			}
+
+			if (!finished && column < cells.length)
+				cells[column] = value;
+		}
+
+		void endSheet() throws ParticipantDataParseException {
+			endRow();
+			finished = true;
+		}
+
+		private void endRow() throws ParticipantDataParseException {
+			if (currentRow >= 0 && !finished)
+				processRow(currentRow);
+
+			currentRow = -1;
+			for (int i = 0; i < cells.length; i++)
+				cells[i] = null;
+		}
+
+		private void processRow(int row) throws ParticipantDataParseException {
+			if (row == ActicalExcelParser.HEADER_ROW_INDEX) {
+				System.arraycopy(cells, 0, headerNames, 0, cells.length);
+				return;
+			} else if (row < ActicalExcelParser.BEGIN_DATA_ROW_INDEX) {
+				return;
+			} else if (row != expectedRow) { // The workbook parser stops at the first missing row
+				finished = true;
+				return;
+			}
+
+			if (headers == null)
+				headers = parseHeader();
+
+			int secondOfDay = asSecondOfDay(cells[ActicalExcelParser.EPOCH_TIME_INDEX]);
+			if (secondOfDay == ExcelTime.NO_TIME) {
+				finished = true;
+				return;
+			}
+
+			for (ActicalExcelParser.ActigraphDataHeader header : headers) {
+				Object value = cells[header.getColumnIndex()];
+				if (!isEmpty(value)) {
+					epochs.add(header.getDate(), secondOfDay, (int) asNumber(value), header.getDayOfWeek());
+				}
+			}
+
+			expectedRow++;
+		}
+
+		/*
+		 * Same rules as ActicalExcelParser.parseHeader: the column header must name a day of the week and the
+		 * date for that day is found two columns to the left, in the first data row (which is the current row).
+		 */
+		private List<ActicalExcelParser.ActigraphDataHeader> parseHeader() {
+			List<ActicalExcelParser.ActigraphDataHeader> headers = new ArrayList<>(8);
+
+			for (int i = 0; i < headerNames.length; i++) {
+				if (!(headerNames[i] instanceof String))
+					continue;
+
+				String value = (String) headerNames[i];
+				if (!value.equalsIgnoreCase("") && ActicalExcelParser.getHeaderName(value) != null && i - 2 >= 1
+						&& cells[i - 2] instanceof Double) {
+					ActicalExcelParser.ActigraphDataHeader header = new ActicalExcelParser.ActigraphDataHeader();
+					Date date = DateUtil.getJavaDate((Double) cells[i - 2], date1904);
+					header.setDate(date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
+					header.setColumnIndex(i);
+					header.setHeader(value);
+					header.setDayOfWeek(ActicalExcelParser.getHeaderName(value));
+					headers.add(header);
+				}
+			}
+
+			return headers;
+		}
+
+		private int asSecondOfDay(Object value) throws ParticipantDataParseException {
+			if (isEmpty(value))
+				return ExcelTime.NO_TIME;
+
+			return ExcelTime.secondOfDay(asNumber(value));
+		}
+
+		private double asNumber(Object value) throws ParticipantDataParseException {
+			if (value instanceof Double)
+				return (Double) value;
+
+			throw new ParticipantDataParseException("Non-numeric value at row " + (currentRow + 1) + " of the file "
+					+ excel.getAbsolutePath() + ", it must be manually processed.");
+		}
+
+		private static boolean isEmpty(Object value) {
+			return value == null || (value instanceof String && ((String) value).isEmpty());
+		}
+	}
+
+	/**
+	 * Thrown from the SAX handler to stop reading the worksheet once all of the epoch data has been read.
+	 */
+	static class StopParsingException extends SAXException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Reads the cells of an .xlsx worksheet (sheetN.xml) and passes their raw values to the cell handler.
+	 */
+	static class SheetXmlHandler extends DefaultHandler {
+		ReadOnlySharedStringsTable strings;
+		CellHandler rows;
+		StringBuilder value = new StringBuilder();
+		boolean inValue = false;
+		String cellType = null;
+		int row = -1;
+		int column = -1;
+
+		SheetXmlHandler(ReadOnlySharedStringsTable strings, CellHandler rows) {
+			this.strings = strings;
+			this.rows = rows;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			if ("row".equals(localName)) {
+				String r = attributes.getValue("r");
+				row = (r != null) ? Integer.parseInt(r) - 1 : row + 1;
+				column = -1;
+			} else if ("c".equals(localName)) {
+				String r = attributes.getValue("r");
+				column = (r != null) ? new CellReference(r).getCol() : column + 1;
+				cellType = attributes.getValue("t");
+				value.setLength(0);
+			} else if ("v".equals(localName) || ("t".equals(localName) && "inlineStr".equals(cellType))) {
+				inValue = true;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (inValue)
+				value.append(ch, start, length);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			if ("v".equals(localName) || "t".equals(localName)) {
+				inValue = false;
+			} else if ("c".equals(localName)) {
+				try {
+					rows.cell(row, column, cellValue());
+				} catch (ParticipantDataParseException e) {
+					throw new SAXException(e);
+				}
+			} else if ("row".equals(localName) && rows.isFinished()) {
+				throw new StopParsingException();
+			}
+		}
+
+		private Object cellValue() {
+			if (value.length() == 0)
+				return null;
+
+			String text = value.toString();
+			if (cellType == null || "n".equals(cellType)) {
+				return Double.valueOf(text);
+			} else if ("s".equals(cellType)) {
+				return strings.getEntryAt(Integer.parseInt(text));
+			} else if ("inlineStr".equals(cellType) || "str".equals(cellType)) {
+				return text;
+			}
+
+			return Boolean.FALSE;
+		}
+	}
+
+	/**
+	 * Reads the cells of an .xls worksheet from the HSSF record stream. The worksheet records follow the workbook
+	 * records in the same order as their BoundSheetRecords, sorted by the position of their BOF record.
+	 */
+	static class HssfRecordListener extends AbortableHSSFListener {
+		ActicalRowHandler rows;
+		List<BoundSheetRecord> boundSheets = new ArrayList<>();
+		SSTRecord sst = null;
+		int actigraphSheetIndex = -1;
+		int sheetIndex = -1;
+		boolean inActigraphSheet = false;
+		ParticipantDataParseException error = null;
+
+		HssfRecordListener(ActicalRowHandler rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public short abortableProcessRecord(Record record) {
+			try {
+				return process(record);
+			} catch (ParticipantDataParseException e) {
+				error = e;
+				return 1;
+			}
+		}
+
+		private short process(Record record) throws ParticipantDataParseException {
+			switch (record.getSid()) {
+			case BoundSheetRecord.sid:
+				boundSheets.add((BoundSheetRecord) record);
+				break;
+			case DateWindow1904Record.sid:
+				rows.date1904 = ((DateWindow1904Record) record).getWindowing() == 1;
+				break;
+			case SSTRecord.sid:
+				sst = (SSTRecord) record;
+				break;
+			case BOFRecord.sid:
+				if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+					if (actigraphSheetIndex < 0)
+						actigraphSheetIndex = findActigraphSheet();
+
+					sheetIndex++;
+					inActigraphSheet = (sheetIndex == actigraphSheetIndex);
+					rows.foundSheet |= inActigraphSheet;
+				}
+				break;
+			case EOFRecord.sid:
+				if (inActigraphSheet) {
+					rows.endSheet();
+					return 1;
+				}
+				break;
+			case NumberRecord.sid:
+				NumberRecord number = (NumberRecord) record;
+				cell(number.getRow(), number.getColumn(), number.getValue());
+				break;
+			case FormulaRecord.sid:
+				FormulaRecord formula = (FormulaRecord) record;
+				cell(formula.getRow(), formula.getColumn(),
+						formula.hasCachedResultString() ? Boolean.FALSE : (Object) formula.getValue());
+				break;
+			case LabelSSTRecord.sid:
+				LabelSSTRecord label = (LabelSSTRecord) record;
+				cell(label.getRow(), label.getColumn(), sst.getString(label.getSSTIndex()).getString());
+				break;
+			case LabelRecord.sid:
+				LabelRecord text = (LabelRecord) record;
+				cell(text.getRow(), text.getColumn(), text.getValue());
+				break;
+			case BoolErrRecord.sid:
+				BoolErrRecord boolErr = (BoolErrRecord) record;
+				cell(boolErr.getRow(), boolErr.getColumn(), Boolean.FALSE);
+				break;
+			}
+
+			return (short) (rows.finished ? 1 : 0);
+		}
+
+		private void cell(int row, int column, Object value) throws ParticipantDataParseException {
+			if (inActigraphSheet)
+				rows.cell(row, column, value);
+		}
+
+		private int findActigraphSheet() {
+			BoundSheetRecord[] ordered = BoundSheetRecord.orderByBofPosition(boundSheets);
+			for (int i = 0; i < ordered.length; i++) {
+				if (ordered[i].getSheetname().equalsIgnoreCase(ActicalExcelParser.actigraphWorkbook))
+					return i;
+			}
+
+			return Integer.MAX_VALUE;
+		}
+	}
+}
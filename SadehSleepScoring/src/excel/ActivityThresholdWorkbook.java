@@ -1,10 +1,10 @@
 package excel;
 
-import java.io.FileOutputStream;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -17,7 +17,6 @@ import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.WorkbookUtil;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import sadeh.ActicalEpoch;
 
@@ -28,26 +27,31 @@ public class ActivityThresholdWorkbook {
 	public List<ActicalEpoch> epochs = null;
 	DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
 	DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("dd MMM yyyy");
+	protected boolean streaming = false;
 	
 	public ActivityThresholdWorkbook(List<ActicalEpoch> epochs){
 		this.epochs = epochs;
 	}
 	
+	/**
+	 * Creates the sheet with a row for each time of day (in the order the times first appear in the epochs) and a
+	 * column for each date. The rows are created one after another so that this also works with a streaming
+	 * workbook, which cannot go back to a row once it has been written out.
+	 */
 	public void create() throws ActicalDataOutputException{
-		workbook = new XSSFWorkbook(); 
+		workbook = OutputWorkbooks.create(streaming);
 		CreationHelper createHelper = workbook.getCreationHelper();
 		String sheetName = WorkbookUtil.createSafeSheetName(worksheetName);
 	    Sheet worksheet = workbook.createSheet(sheetName);
 	    SortedSet <LocalDate> epochDates = new TreeSet<>();
-	    //HashMap<String, Integer> dateToCellIndex = new HashMap<>();
 	    Row dateRow = worksheet.createRow(0);
 	    Cell epochDateCell = dateRow.createCell(0);
 	    epochDateCell.setCellValue("Time");
 
 	    HashMap<LocalDate, Integer> dateToCellIdx = new HashMap<>();
-	   
-	    HashMap<String, Row> hourMinuteRow = new HashMap<>(); 
-	    int rowIdx = 1; //Row 0 is a header row that says the date
+	    //Row of each time of day; row 0 is a header row that says the date
+	    HashMap<String, Integer> hourMinuteRow = new HashMap<>(); 
+	    List<String> hourMinutes = new ArrayList<>();
 	    
 	    for (ActicalEpoch epoch : epochs){
 	    	LocalDate date = epoch.getDate();
@@ -55,41 +59,38 @@ public class ActivityThresholdWorkbook {
 	    		epochDates.add(date);
 	    }
 	    
+	    //Every date cell has the same format so they share one style
+	    CellStyle dateStyle = workbook.createCellStyle();
+	    dateStyle.setDataFormat(createHelper.createDataFormat().getFormat("m/d/yy"));
+	    
 	    int dateCellIdx = 1;
 	    for (LocalDate date : epochDates){
 	    	dateToCellIdx.put(date, dateCellIdx);
 	    	
 	    	//Create date cell
 	    	Cell dateCell = dateRow.createCell(dateCellIdx);
-	    	CellStyle cellStyle = workbook.createCellStyle();
-	    	cellStyle.setDataFormat(createHelper.createDataFormat().getFormat("m/d/yy"));
 	    	Date jDate = Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
 	    	dateCell.setCellValue(jDate);
-	    	dateCell.setCellStyle(cellStyle);
+	    	dateCell.setCellStyle(dateStyle);
 	    	
 	    	dateCellIdx++;
 	    }
 	    
+	    //Find the row and column of each epoch's value
+	    int[] epochRow = new int[epochs.size()];
+	    int[] epochCell = new int[epochs.size()];
+	    int[] epochValue = new int[epochs.size()];
+	    //Number of epochs in row r, at index r+1 (until they are added up below)
+	    int[] rowStart = new int[epochs.size() + 2];
+	    int e = 0;
 	    for (ActicalEpoch epoch : epochs){
-	    	LocalDateTime ldt = epoch.getDateTime();
-	    	String hourMinute = ldt.format(formatter);
-	    	String date = ldt.format(dateFormatter);
-	    	
-	    	if (!hourMinuteRow.containsKey(hourMinute)){
-	    		Row r = createActivityThresholdRow(worksheet, hourMinute, rowIdx++);
-	    		hourMinuteRow.put(hourMinute, r);
-	    	}
-	    }
-	    
-	    //Insert the data into the spreadsheet; we already created all of the rows
-	    //for each epoch as well as all of the headers
-	    for (ActicalEpoch epoch : epochs){
-	    	LocalDateTime ldt = epoch.getDateTime();
-	    	String hourMinute = ldt.format(formatter);
-	    	Row row = hourMinuteRow.get(hourMinute);
+	    	String hourMinute = epoch.getDateTime().format(formatter);
+	    	Integer rowIdx = hourMinuteRow.get(hourMinute);
 	    	
-	    	if (row == null){
-	    		throw new ActicalDataOutputException("Cannot find excel row for the epoch " + hourMinute);
+	    	if (rowIdx == null){
+	    		hourMinutes.add(hourMinute);
+	    		rowIdx = hourMinutes.size();
+	    		hourMinuteRow.put(hourMinute, rowIdx);
 	    	}
 	    	
 	    	Integer cellIdx = dateToCellIdx.get(epoch.getDate());
@@ -98,22 +99,54 @@ public class ActivityThresholdWorkbook {
 	    		throw new ActicalDataOutputException("Cannot find excel cell index for date " + epoch.getDate());
 	    	}
 	    	
-	    	Cell dataCell = row.createCell(cellIdx);
-	    	dataCell.setCellValue(epoch.getActivityThreshold().ordinal());
+	    	epochRow[e] = rowIdx;
+	    	epochCell[e] = cellIdx;
+	    	epochValue[e] = epoch.getActivityThreshold().ordinal();
+	    	rowStart[rowIdx + 1]++;
+	    	e++;
+	    }
+	    
+	    //Group the epochs by row, keeping their order within each row
+	    for (int r = 1; r < rowStart.length; r++)
+	    	rowStart[r] += rowStart[r-1];
+	    
+	    int[] byRow = new int[epochs.size()];
+	    int[] next = Arrays.copyOf(rowStart, rowStart.length);
+	    for (e = 0; e < epochRow.length; e++)
+	    	byRow[next[epochRow[e]]++] = e;
+	    
+	    //Insert the data into the spreadsheet one row at a time
+	    for (int r = 1; r <= hourMinutes.size(); r++){
+	    	Row row = createActivityThresholdRow(worksheet, hourMinutes.get(r-1), r);
+	    	
+	    	for (int i = rowStart[r]; i < rowStart[r+1]; i++){
+	    		e = byRow[i];
+	    		Cell dataCell = row.createCell(epochCell[e]);
+	    		dataCell.setCellValue(epochValue[e]);
+	    	}
 	    }
 	}
 	
 	public void write(String output) throws ActicalDataOutputException{
 		try{
-		    FileOutputStream fileOut = new FileOutputStream(output);
-		    workbook.write(fileOut);
-		    fileOut.close();
+		    OutputWorkbooks.write(workbook, output);
 	    } catch(Exception e){
 	    	throw new ActicalDataOutputException("Unable to create activity threshold workbook for participant "
 	    			+ participant + " at path " + output);
 	    }
 	}
 	
+	public boolean isStreaming() {
+		return streaming;
+	}
+	
+	/**
+	 * Creates the workbook with a streaming (SXSSF) workbook, which keeps a bounded number of rows in memory.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+	
 	public Row createActivityThresholdRow(Sheet sheet, String hourMinute, int rowIdx){
 		Row row = sheet.createRow(rowIdx);
 	    Cell cell = row.createCell(0);
@@ -5,10 +5,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -38,8 +36,6 @@ public class EMAExcelParser {
 	public static final String CSLEEP_HEADER = "CSLEEP";
 	public static final List<String> excelHeaders = new ArrayList<>(
 			Arrays.asList(ID_HEADER, DATE_HEADER, TIME_HEADER, CSLEEP_HEADER));
-	// Times are formatted similarly to military time e.g. 23:59:00
-	private static final SimpleDateFormat milTimeFormat = new SimpleDateFormat("HH:mm:ss");
 	
 	/**
 	 * Parses an excel document containing EMA data representing sleep
@@ -74,9 +70,8 @@ public class EMAExcelParser {
 			
 			do {
 				String participantID = null;
-				LocalDateTime promptTime = null;
 				LocalDate localDate = null;
-				String time = null;
+				int time = ExcelTime.NO_TIME; // second of the day
 				boolean asleep = false;
 				int csleep = -1; // no response from participant
 				boolean hasResponse = false;
@@ -109,19 +104,17 @@ public class EMAExcelParser {
 								
 								break;
 							}
-							
-							promptTime = getLocalDateTime(localDate, time);
 						}
 					}
 					
-					if (localDate == null || participantID == null || time == null){
+					if (localDate == null || participantID == null || time == ExcelTime.NO_TIME){
 						moreRows = false;
 						System.out.println("No data found at EXCEL row " + (rowIdx+1));
 					} else {
 						EMAPrompt prompt = new EMAPrompt();
 						prompt.setAsleep(asleep);
 						prompt.setResponsed(hasResponse);
-						prompt.setDateTime(promptTime);
+						prompt.setDateTime(ExcelTime.atSecondOfDay(localDate, time));
 						prompt.setParticipant(participantID);
 						prompts.add(prompt);
 					}
@@ -151,32 +144,16 @@ public class EMAExcelParser {
 	}
 
 	/**
-	 * cell contains a time in the format HH:mm:ss 
+	 * cell contains a time of day
 	 * 
 	 * @param cell
-	 * @return time as string
+	 * @return time as the second of the day, or ExcelTime.NO_TIME
 	 */
-	private static String parseTime(XSSFCell cell) {
-		Date date = parseDate(cell);
+	private static int parseTime(XSSFCell cell) {
+		if (isCellEmpty(cell))
+			return ExcelTime.NO_TIME;
 
-		if (date != null) {
-			return milTimeFormat.format(date);
-		} else {
-			return null;
-		}
-	}
-	
-	private static LocalDateTime getLocalDateTime(LocalDate ld, String actigraphTime) {
-		try {
-			String[] ata = actigraphTime.split(":");
-			int hour = Integer.parseInt(ata[0]);
-			int minute = Integer.parseInt(ata[1]);
-			int second = Integer.parseInt(ata[2]);
-			return ld.atTime(hour, minute, second);
-		} catch (Exception e) {
-		}
-
-		return null;
+		return ExcelTime.secondOfDay(cell.getNumericCellValue());
 	}
 
 	@SuppressWarnings("deprecation")
@@ -0,0 +1,225 @@
+package excel;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.xmlbeans.XmlException;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import ema.EMAPrompt;
+import ema.EMAPromptIndex;
+
+/**
+ * Event based alternative to {@link EMAExcelParser}. The first worksheet of the EMA workbook is read row by row
+ * with SAX, as {@link ActicalStreamingParser} reads the Actical worksheet, and each prompt goes straight into the
+ * bucket of its participant in an {@link EMAPromptIndex}; only the prompts are kept in memory, never the
+ * workbook. The columns are found once, in the header row, so each cell is matched to its field with an array
+ * lookup. The prompts are the same as those of {@link EMAExcelParser#parseEcologicalMomentaryAssessment(File)}.
+ *
+ * @author kyle_
+ *
+ */
+public class EMAStreamingParser {
+	static final int NOT_A_FIELD = -1;
+
+	/**
+	 * Parses an .xlsx document containing EMA data.
+	 *
+	 * @param excel the EMA workbook
+	 * @param listener given each prompt as it is read, in the order of the worksheet, or null
+	 * @return the prompts of each participant, sorted by time
+	 * @throws ParticipantDataParseException
+	 */
+	public static EMAPromptIndex parseEcologicalMomentaryAssessment(File excel, Consumer<EMAPrompt> listener)
+			throws ParticipantDataParseException {
+		EMARowHandler handler = new EMARowHandler(excel, listener);
+		OPCPackage pkg = null;
+
+		try {
+			pkg = OPCPackage.open(excel, PackageAccess.READ);
+			XSSFReader reader = new XSSFReader(pkg);
+			handler.date1904 = ActicalStreamingParser.isDate1904(reader);
+			ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+			Iterator<InputStream> sheets = reader.getSheetsData();
+
+			if (sheets.hasNext()) {
+				try (InputStream sheet = sheets.next()) {
+					XMLReader parser = SAXHelper.newXMLReader();
+					parser.setContentHandler(new ActicalStreamingParser.SheetXmlHandler(strings, handler));
+					parser.parse(new InputSource(sheet));
+					handler.endSheet();
+				}
+			}
+		} catch (ActicalStreamingParser.StopParsingException stop) {
+			// The end of the prompts was reached before the end of the worksheet
+		} catch (SAXException ex) {
+			if (ex.getException() instanceof ParticipantDataParseException)
+				throw (ParticipantDataParseException) ex.getException();
+
+			throw new ParticipantDataParseException("Invalid format processing the file " + excel.getAbsolutePath()
+					+ ", it must be manually processed.", ex);
+		} catch (FileNotFoundException ex) {
+			throw new ParticipantDataParseException("File " + excel.getAbsolutePath()
+					+ " cannot be opened, it must be manually processed.");
+		} catch (IOException io) {
+			throw new ParticipantDataParseException("IO error occurred processing the file " + excel.getAbsolutePath()
+					+ ", it must be manually processed.");
+		} catch (OpenXML4JException | XmlException | javax.xml.parsers.ParserConfigurationException ex) {
+			throw new ParticipantDataParseException("Invalid format processing the file " + excel.getAbsolutePath()
+					+ ", it must be manually processed.");
+		} finally {
+			if (pkg != null)
+				pkg.revert();
+		}
+
+		handler.prompts.sort();
+		System.out.println("Total EMAPrompts in document: " + handler.prompts.size() + ", last excel data row: "
+				+ handler.expectedRow);
+		return handler.prompts;
+	}
+
+	/**
+	 * Turns each completed row of the EMA worksheet into a prompt. The first row names the columns; the prompts
+	 * end at the first missing row or the first row without a participant, date or time, as in
+	 * {@link EMAExcelParser}.
+	 */
+	static class EMARowHandler implements ActicalStreamingParser.CellHandler {
+		static final int MAX_COLUMNS = 26; // There cannot be headers past this column
+		File excel;
+		Consumer<EMAPrompt> listener;
+		boolean date1904 = false;
+		boolean finished = false;
+		EMAPromptIndex prompts = new EMAPromptIndex();
+		//Index into EMAExcelParser.excelHeaders of the field in each column
+		int[] fields = new int[MAX_COLUMNS];
+		Object[] cells = new Object[MAX_COLUMNS];
+		int currentRow = -1;
+		int expectedRow = 1; //Data always starts on the second row
+
+		EMARowHandler(File excel, Consumer<EMAPrompt> listener) {
+			this.excel = excel;
+			this.listener = listener;
+			Arrays.fill(fields, NOT_A_FIELD);
+		}
+
+		@Override
+		public boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public void cell(int row, int column, Object value) throws ParticipantDataParseException {
+			if (finished)
+				return;
+
+			if (row != currentRow) {
+				endRow();
+				currentRow = row;
+			}
+
+			if (!finished && column < cells.length)
+				cells[column] = value;
+		}
+
+		void endSheet() throws ParticipantDataParseException {
+			endRow();
+			finished = true;
+		}
+
+		private void endRow() throws ParticipantDataParseException {
+			if (currentRow >= 0 && !finished)
+				processRow(currentRow);
+
+			currentRow = -1;
+			Arrays.fill(cells, null);
+		}
+
+		private void processRow(int row) throws ParticipantDataParseException {
+			if (row == 0) {
+				for (int i = 0; i < cells.length; i++) {
+					if (cells[i] instanceof String)
+						fields[i] = EMAExcelParser.excelHeaders.indexOf(cells[i]);
+				}
+
+				return;
+			} else if (row != expectedRow) { // The workbook parser stops at the first missing row
+				finished = true;
+				return;
+			}
+
+			String participantID = null;
+			LocalDate localDate = null;
+			int time = ExcelTime.NO_TIME;
+			boolean asleep = false;
+			boolean hasResponse = false;
+
+			for (int i = 0; i < cells.length; i++) {
+				if (fields[i] == NOT_A_FIELD || isEmpty(cells[i]))
+					continue;
+
+				switch (EMAExcelParser.excelHeaders.get(fields[i])) {
+				case EMAExcelParser.ID_HEADER:
+					participantID = String.valueOf((int) asNumber(cells[i]));
+					break;
+				case EMAExcelParser.DATE_HEADER:
+					localDate = DateUtil.getJavaDate(asNumber(cells[i]), date1904).toInstant()
+							.atZone(ZoneId.systemDefault()).toLocalDate();
+					break;
+				case EMAExcelParser.TIME_HEADER:
+					time = ExcelTime.secondOfDay(asNumber(cells[i]));
+					break;
+				case EMAExcelParser.CSLEEP_HEADER:
+					int csleep = (int) asNumber(cells[i]);
+					hasResponse = csleep == 1 || csleep == 2;
+					asleep = csleep == 2;
+					break;
+				}
+			}
+
+			if (localDate == null || participantID == null || time == ExcelTime.NO_TIME) {
+				finished = true;
+				System.out.println("No data found at EXCEL row " + (row + 1));
+				return;
+			}
+
+			EMAPrompt prompt = new EMAPrompt();
+			prompt.setAsleep(asleep);
+			prompt.setResponsed(hasResponse);
+			prompt.setDateTime(ExcelTime.atSecondOfDay(localDate, time));
+			prompt.setParticipant(participantID);
+			prompts.add(prompt);
+			if (listener != null)
+				listener.accept(prompt);
+
+			expectedRow++;
+		}
+
+		private double asNumber(Object value) throws ParticipantDataParseException {
+			if (value instanceof Double)
+				return (Double) value;
+
+			throw new ParticipantDataParseException("Non-numeric value at row " + (currentRow + 1) + " of the file "
+					+ excel.getAbsolutePath() + ", it must be manually processed.");
+		}
+
+		private static boolean isEmpty(Object value) {
+			return value == null || (value instanceof String && ((String) value).isEmpty());
+		}
+	}
+}
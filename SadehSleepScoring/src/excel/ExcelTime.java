@@ -0,0 +1,44 @@
+package excel;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Converts the numeric value of an Excel time cell (a fraction of a day, possibly with a whole number of days in
+ * front of it) straight to the second of the day, without creating a Date or formatting it. The result is the one
+ * the parsers used to get by formatting the cell's date as HH:mm:ss: the fraction is rounded to the millisecond
+ * (as POI's DateUtil does) and then truncated to the second. Being free of any shared formatter, it is safe to use
+ * from any number of threads.
+ *
+ * @author kyle_
+ *
+ */
+public class ExcelTime {
+	// Returned when the cell does not hold a valid Excel date or time
+	public static final int NO_TIME = -1;
+	static final int SECONDS_PER_DAY = 24 * 60 * 60;
+	static final long MILLISECONDS_PER_DAY = SECONDS_PER_DAY * 1000L;
+
+	/**
+	 * The second of the day of an Excel date/time value, or NO_TIME if the value is not a valid Excel date
+	 * (it is negative).
+	 */
+	public static int secondOfDay(double value) {
+		if (!(value > -Double.MIN_VALUE))
+			return NO_TIME;
+
+		double wholeDays = Math.floor(value);
+		int millisecondOfDay = (int) ((value - wholeDays) * MILLISECONDS_PER_DAY + 0.5);
+
+		// Rounding up to a whole day is midnight of the next day
+		return (millisecondOfDay / 1000) % SECONDS_PER_DAY;
+	}
+
+	/**
+	 * The time on the given date at the given second of the day.
+	 */
+	public static LocalDateTime atSecondOfDay(LocalDate date, int secondOfDay) {
+		return LocalDateTime.of(date, LocalTime.ofSecondOfDay(secondOfDay));
+	}
+}
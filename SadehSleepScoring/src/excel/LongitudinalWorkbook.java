@@ -0,0 +1,34 @@
+package excel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import sadeh.ActicalParticipant;
+
+/**
+ * The participant data of every assessment point of a batch run in one worksheet: the same columns as
+ * {@link ParticipantWorkbook} with the assessment point after the participant ID. The rows are grouped by
+ * participant, and each participant's assessment points are in the order they were given in.
+ *
+ * @author kyle_
+ *
+ */
+public class LongitudinalWorkbook extends ParticipantWorkbook {
+
+	/**
+	 * @param participants the participants of every assessment point
+	 * @param assessmentPoints the assessment points, in the order they are listed for each participant
+	 */
+	public LongitudinalWorkbook(List<ActicalParticipant> participants, List<String> assessmentPoints){
+		super(sorted(participants, assessmentPoints));
+		assessmentPointColumn = true;
+	}
+
+	private static List<ActicalParticipant> sorted(List<ActicalParticipant> participants, List<String> assessmentPoints){
+		List<ActicalParticipant> sorted = new ArrayList<>(participants);
+		sorted.sort(Comparator.comparing(ActicalParticipant::getParticipant)
+				.thenComparingInt(p -> assessmentPoints.indexOf(p.getAssessmentPoint())));
+		return sorted;
+	}
+}
@@ -0,0 +1,39 @@
+package excel;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Creates and writes the output workbooks. A streaming workbook (SXSSF) only keeps the last ROW_WINDOW rows in
+ * memory and writes the others to a temporary file as it goes, so its memory use does not depend on the number of
+ * participants or epochs; rows must then be created in order and cannot be changed once they leave the window.
+ *
+ * @author kyle_
+ *
+ */
+public class OutputWorkbooks {
+	// Rows kept in memory by a streaming workbook
+	public static final int ROW_WINDOW = 100;
+
+	public static Workbook create(boolean streaming){
+		return streaming ? new SXSSFWorkbook(ROW_WINDOW) : new XSSFWorkbook();
+	}
+
+	/**
+	 * Writes the workbook to the file and closes it (deleting a streaming workbook's temporary files).
+	 */
+	public static void write(Workbook workbook, String output) throws IOException{
+		try (FileOutputStream fileOut = new FileOutputStream(output)){
+			workbook.write(fileOut);
+		} finally{
+			if (workbook instanceof SXSSFWorkbook)
+				((SXSSFWorkbook) workbook).dispose();
+
+			workbook.close();
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package excel;
 
-import java.io.FileOutputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -24,7 +23,6 @@ import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.WorkbookUtil;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import analysis.SleepStats;
 import sadeh.ActicalEpoch;
@@ -38,6 +36,11 @@ public class ParticipantWorkbook {
 	DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
 	DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("dd MMM yyyy");
 	CreationHelper createHelper = null;
+	//Shared by the sleep onset cell of every row, rather than a new style for each row
+	CellStyle timeStyle = null;
+	protected boolean streaming = false;
+	//Adds an Assessment_Point column after the ID, for workbooks with more than one assessment point
+	protected boolean assessmentPointColumn = false;
 	
 	public ParticipantWorkbook(List<ActicalParticipant> participants){
 		this.participants = participants;
@@ -52,8 +55,10 @@ public class ParticipantWorkbook {
 	
 	public void create() throws ActicalDataOutputException{
 		try {
-			workbook = new XSSFWorkbook(); 
+			workbook = OutputWorkbooks.create(streaming);
 			createHelper = workbook.getCreationHelper();
+			timeStyle = workbook.createCellStyle();
+			timeStyle.setDataFormat(createHelper.createDataFormat().getFormat("h:mm;@"));
 			String sheetName = WorkbookUtil.createSafeSheetName(worksheetName);
 		    Sheet worksheet = workbook.createSheet(sheetName);
 	
@@ -62,19 +67,19 @@ public class ParticipantWorkbook {
 		    		"Min_Nap_Duration", "Max_Nap_Duration", "Sleep_Onset_Time", 
 		    		"Sleep_Offset_Time", "Night_Sleep_Period", "TST", "TWT", "Sleep_Efficiency", 
 		    		"Percent_24hr_Sleep", "Sedentary_PA", "Light_PA", "MVPA", "Eight_to_Eight"};
+		    if (assessmentPointColumn){
+		    	String[] withAssessmentPoint = new String[cols.length + 1];
+		    	withAssessmentPoint[0] = cols[0];
+		    	withAssessmentPoint[1] = "Assessment_Point";
+		    	System.arraycopy(cols, 1, withAssessmentPoint, 2, cols.length - 1);
+		    	cols = withAssessmentPoint;
+		    }
 		    createHeader(header, cols);
 		   	int rowIdx = 1; //Row 0 is a header row 
 		   			    
 		    for (ActicalParticipant p : participants){
-		    	Set<String> dates = p.getDateEpochMap().keySet();
-		    	TreeSet<LocalDate> ldSet = new TreeSet<LocalDate>();
-		    	for (String date : dates){
-		    		LocalDate ld = LocalDate.parse(date, dateFormatter);
-		    		ldSet.add(ld);
-		    	}
-		   
 		    	int day = 1;
-		    	for (LocalDate current : ldSet){
+		    	for (LocalDate current : p.getDates()){
 		    		createParticipantRow(worksheet, day++, current, p, rowIdx++);
 		    	}
 		    }
@@ -83,6 +88,17 @@ public class ParticipantWorkbook {
 		}
 	}
 	
+	public boolean isStreaming() {
+		return streaming;
+	}
+	
+	/**
+	 * Creates the workbook with a streaming (SXSSF) workbook, which keeps a bounded number of rows in memory.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+	
 	static class SleepDataSorter implements Comparator<SleepStats>{
 		@Override
 		public int compare(SleepStats stats1, SleepStats stats2) {
@@ -92,9 +108,7 @@ public class ParticipantWorkbook {
 	
 	public void write(String output) throws ActicalDataOutputException{
 		try{
-		    FileOutputStream fileOut = new FileOutputStream(output);
-		    workbook.write(fileOut);
-		    fileOut.close();
+		    OutputWorkbooks.write(workbook, output);
 	    } catch(Exception e){
 	    	throw new ActicalDataOutputException("Unable to create participant workbook ");
 	    }
@@ -107,6 +121,8 @@ public class ParticipantWorkbook {
 		Row row = sheet.createRow(rowIdx);
 	    Cell cell1 = row.createCell(col++);
 	    cell1.setCellValue(p.getParticipant());
+	    if (assessmentPointColumn)
+	    	row.createCell(col++).setCellValue(p.getAssessmentPoint());
 	    Cell cell2 = row.createCell(col++);
 	    cell2.setCellValue(day);
 	    Cell cell3 = row.createCell(col++);
@@ -134,8 +150,6 @@ public class ParticipantWorkbook {
 	    LocalDateTime sleepOffset = sleepStats.getSleepOffset();
 	    
     	Cell cell8 = row.createCell(col++);
-    	CellStyle cellStyle = workbook.createCellStyle();
-    	cellStyle.setDataFormat(createHelper.createDataFormat().getFormat("h:mm;@"));
     	if (sleepOnset != null){
     		String time = sleepOnset.format(formatter);
     		Date jDate = Date.from(sleepOnset.atZone(ZoneId.systemDefault()).toInstant());
@@ -144,12 +158,10 @@ public class ParticipantWorkbook {
     		Date jDate = null;
     		cell8.setCellValue(jDate);
     	}
-    	cell8.setCellStyle(cellStyle);
+    	cell8.setCellStyle(timeStyle);
     	
     	//Sleep offset
     	Cell cell9 = row.createCell(col++);
-    	CellStyle cellStyle2 = workbook.createCellStyle();
-    	cellStyle2.setDataFormat(createHelper.createDataFormat().getFormat("h:mm;@"));
     	if (sleepOffset != null){
     		String time = sleepOffset.format(formatter);
     		Date jDate2 = Date.from(sleepOffset.atZone(ZoneId.systemDefault()).toInstant());
@@ -158,7 +170,7 @@ public class ParticipantWorkbook {
     		Date jDate2 = null;
     		cell9.setCellValue(jDate2);
     	}
-    	//cell9.setCellStyle(cellStyle2);
+    	//cell9.setCellStyle(timeStyle);
     	
     	Cell cell10 = row.createCell(col++);
     	if (sleepOnset != null && sleepOffset != null){
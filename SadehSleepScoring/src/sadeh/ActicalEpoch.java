@@ -31,8 +31,8 @@ public class ActicalEpoch {
 	protected LocalDateTime dateTime;
 	protected ACTIVITY_LEVEL activityThreshold;
 	protected SLEEP_PROBABILITY sleepState;
-	DateTimeFormatter hourFormatter = DateTimeFormatter.ofPattern("HH:mm");
-	public DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("dd MMM yyyy");
+	static DateTimeFormatter hourFormatter = DateTimeFormatter.ofPattern("HH:mm");
+	public static DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("dd MMM yyyy");
 	static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm");
 	
 	public String asEpochTime(){
@@ -99,8 +99,8 @@ public class ActicalEpoch {
 
 	@Override
 	public String toString(){
-		String fdt = dateTime.format(formatter);
-		return fdt + ", activity: " + activityLevel;
+		String fdt = getDateTime().format(formatter);
+		return fdt + ", activity: " + getActivityLevel();
 	}
 
 	public LocalDateTime getDateTime() {
@@ -28,8 +28,12 @@ public class ActicalParticipant {
 	protected String participant; 
 	//All actical data collected during this study for the participant
 	protected List<ActicalEpoch> sleepData = new ArrayList<>();
+	//The same data, when it was parsed into a series (sleepData is then a view of the series)
+	protected EpochSeries epochSeries = null;
 	//All EMA prompt (survey) data for the participant
 	protected List<EMAPrompt> emaPrompts = new ArrayList<>();
+	//An EMA prompt is compared with the Actical epochs in this many minutes up to (and including) the prompt time
+	protected int emaWindowMinutes = 10;
 	//We need to verify data validity; if the time period (e.g. day) is missing data points it must be excluded
 	protected int numEpochsRequired = -1;
 	//data is collected and analyzed for each patient at the baseline (initial collection), 6 months, and 12 months
@@ -61,16 +65,34 @@ public class ActicalParticipant {
 		analyzePrompts(this.emaPrompts, false);
 	}
 	
+	/*
+	 * Each prompt is compared with the epochs in the emaWindowMinutes minutes up to and including the prompt time.
+	 * When the participant's data is in an EpochSeries those epochs and the number asleep are found with an
+	 * EpochTimeIndex rather than by going through all of the participant's data for each prompt.
+	 */
 	public void analyzePrompts(List<EMAPrompt> prompts, boolean asleep){
+		EpochTimeIndex timeIndex = (epochSeries != null) ? new EpochTimeIndex(epochSeries) : null;
+		
 		for (EMAPrompt prompt : prompts){
-			List<ActicalEpoch> epochsBeforePrompt 
-				= sleepData.stream().filter(
-						p -> p.getDateTime().isBefore(prompt.getDateTime()) || p.getDateTime().isEqual(prompt.getDateTime()))
-							.collect(Collectors.toList());
-			epochsBeforePrompt = epochsBeforePrompt.stream().filter(p -> p.getDateTime().until(prompt.getDateTime(), 
-					ChronoUnit.MINUTES) <= 9).collect(Collectors.toList());
+			List<ActicalEpoch> epochsBeforePrompt;
+			int countAsleep = -1;
+			
+			if (timeIndex != null){
+				//Epochs in the window are after (prompt - window) and at or before the prompt
+				long promptOffset = epochSeries.offsetOf(prompt.getDateTime());
+				int from = timeIndex.firstAtOrAfter(promptOffset - emaWindowMinutes * 60 + 1);
+				int to = timeIndex.firstAtOrAfter(promptOffset + 1);
+				epochsBeforePrompt = sleepData.subList(from, Math.max(from, to));
+				countAsleep = timeIndex.countAsleep(from, to);
+			} else{
+				epochsBeforePrompt = sleepData.stream().filter(
+							p -> p.getDateTime().isBefore(prompt.getDateTime()) || p.getDateTime().isEqual(prompt.getDateTime()))
+								.collect(Collectors.toList());
+				epochsBeforePrompt = epochsBeforePrompt.stream().filter(p -> p.getDateTime().until(prompt.getDateTime(), 
+						ChronoUnit.MINUTES) <= emaWindowMinutes - 1).collect(Collectors.toList());
+			}
 			
-			if (epochsBeforePrompt.size() < 10){
+			if (epochsBeforePrompt.size() < emaWindowMinutes){
 				System.out.println("EMA participant " + prompt.getParticipant() + " does not have enough Actical epochs data"
 						+ " before the EMAPrompt " + prompt.asEpochDateTime());
 			} else{
@@ -83,13 +105,25 @@ public class ActicalParticipant {
 				}
 				
 				EMAResult result = new EMAResult(prompt, epochsBeforePrompt);
-				result.process();
+				if (countAsleep >= 0){
+					result.process(countAsleep);
+				} else{
+					result.process();
+				}
 				results.add(result);
 				System.out.println(result);
 			}
 		}
 	}
 	
+	public int getEmaWindowMinutes() {
+		return emaWindowMinutes;
+	}
+
+	public void setEmaWindowMinutes(int emaWindowMinutes) {
+		this.emaWindowMinutes = emaWindowMinutes;
+	}
+
 	public HashMap<String, NapData> getNapMap() {
 		return napMap;
 	}
@@ -130,6 +164,14 @@ public class ActicalParticipant {
 	 * @return
 	 */
 	public HashMap<String, List<ActicalEpoch>> getDateEpochMap() {
+		if (dateEpochMap.isEmpty() && epochSeries != null){
+			int[] dateStarts = epochSeries.getDateStarts();
+			for (int d = 0; d < dateStarts.length - 1; d++){
+				String date = epochSeries.getDate(dateStarts[d]).format(formatter);
+				dateEpochMap.put(date, sleepData.subList(dateStarts[d], dateStarts[d+1]));
+			}
+		}
+		
 		return dateEpochMap;
 	}
 	public void setDateEpochMap(HashMap<String, List<ActicalEpoch>> dateEpochMap) {
@@ -145,6 +187,32 @@ public class ActicalParticipant {
 	public List<ActicalEpoch> getSleepData() {
 		return sleepData;
 	}
+	
+	public EpochSeries getEpochSeries() {
+		return epochSeries;
+	}
+	
+	public void setEpochSeries(EpochSeries epochSeries) {
+		this.epochSeries = epochSeries;
+		this.sleepData = epochSeries.asList();
+	}
+	
+	/**
+	 * The dates when data was collected for this participant, earliest first.
+	 */
+	public List<LocalDate> getDates() {
+		if (epochSeries != null)
+			return epochSeries.getDates();
+		
+		//Participants whose results were reused from a previous run only have their daily results
+		List<LocalDate> dates = new ArrayList<>();
+		for (String date : dateEpochMap.isEmpty() ? sleepStats.keySet() : dateEpochMap.keySet()){
+			dates.add(LocalDate.parse(date, formatter));
+		}
+		
+		Collections.sort(dates);
+		return dates;
+	}
 	public void setSleepData(List<ActicalEpoch> sleepData) {
 		this.sleepData = sleepData;
 	}
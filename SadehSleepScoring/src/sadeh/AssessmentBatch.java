@@ -0,0 +1,99 @@
+package sadeh;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The assessment points processed by a batch run of {@link SadehMain} (--batch), so that every assessment point of
+ * a study is processed in one run. Each line of the batch file is the folder of an assessment point's Actical
+ * files and the assessment point, separated by a tab or a comma, e.g.
+ *
+ * <pre>
+ * # folder        assessment point
+ * baseline        BL
+ * month6          6M
+ * D:\study\12m    12M
+ * </pre>
+ *
+ * Relative folders are resolved against the batch file's folder. The assessment points are kept in the order
+ * of the file, which is the order they are listed in for each participant in the longitudinal workbook.
+ *
+ * @author kyle_
+ *
+ */
+public class AssessmentBatch {
+	protected List<Assessment> assessments = new ArrayList<>();
+
+	public static class Assessment {
+		protected File inputFolder;
+		protected String assessmentPoint;
+
+		public Assessment(File inputFolder, String assessmentPoint){
+			this.inputFolder = inputFolder;
+			this.assessmentPoint = assessmentPoint;
+		}
+
+		public File getInputFolder() {
+			return inputFolder;
+		}
+
+		public String getAssessmentPoint() {
+			return assessmentPoint;
+		}
+	}
+
+	public static AssessmentBatch load(File file) throws IOException{
+		AssessmentBatch batch = new AssessmentBatch();
+		File folder = file.getAbsoluteFile().getParentFile();
+		Set<String> assessmentPoints = new HashSet<>();
+
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)){
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null){
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				//Folders may contain spaces, so the assessment point is the last field
+				int separator = Math.max(line.lastIndexOf('\t'), line.lastIndexOf(','));
+				if (separator < 0)
+					separator = line.lastIndexOf(' ');
+
+				String path = (separator < 0) ? "" : line.substring(0, separator).trim();
+				String assessmentPoint = (separator < 0) ? "" : line.substring(separator + 1).trim();
+				if (path.isEmpty() || assessmentPoint.isEmpty())
+					throw new IOException("Line " + lineNumber + " of the batch file " + file.getPath()
+							+ " must be a folder and an assessment point");
+
+				//Every output file is named after the assessment point, so they must all be different
+				if (!assessmentPoints.add(assessmentPoint))
+					throw new IOException("The assessment point " + assessmentPoint + " is in the batch file "
+							+ file.getPath() + " more than once");
+
+				File inputFolder = new File(path);
+				if (!inputFolder.isAbsolute())
+					inputFolder = new File(folder, path);
+
+				batch.assessments.add(new Assessment(inputFolder, assessmentPoint));
+			}
+		}
+
+		if (batch.assessments.isEmpty())
+			throw new IOException("The batch file " + file.getPath() + " does not list any assessment points");
+
+		return batch;
+	}
+
+	public List<Assessment> getAssessments() {
+		return assessments;
+	}
+}
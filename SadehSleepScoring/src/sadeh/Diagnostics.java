@@ -0,0 +1,180 @@
+package sadeh;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Level gated diagnostic output for the scoring pipeline. Messages are only built (the Supplier is only called)
+ * when their level is enabled, and are written by a single background thread so that the scoring threads never
+ * wait on file I/O unless the buffer of pending messages is full.
+ *
+ * SUMMARY messages are written to the run's main output (System.out when the run started, usually results.txt).
+ * PERIOD and TRACE messages about a participant are written to that participant's own trace file when one has
+ * been opened on the current thread with {@link #beginParticipant(File)}, otherwise to the main output.
+ *
+ * @author kyle_
+ *
+ */
+public class Diagnostics {
+	public enum LEVEL {
+		OFF, // Only errors are written
+		SUMMARY, // One line per participant/date result
+		PERIOD, // Also the sleep periods found (and rejected) for each participant
+		TRACE // Also every epoch and the values used to calculate its sadeh score
+	}
+
+	//Number of messages that can be waiting to be written before logging threads have to wait
+	static final int BUFFERED_MESSAGES = 8192;
+	static volatile LEVEL level = LEVEL.SUMMARY;
+	static volatile PrintStream main = System.out;
+	static final ThreadLocal<PrintStream> participantSink = new ThreadLocal<>();
+	static final BlockingQueue<Message> pending = new ArrayBlockingQueue<>(BUFFERED_MESSAGES);
+	static Thread writer = null;
+
+	public static LEVEL getLevel() {
+		return level;
+	}
+
+	public static void setLevel(LEVEL level) {
+		Diagnostics.level = level;
+	}
+
+	/**
+	 * Sets where SUMMARY messages (and detail messages that are not about a participant) are written.
+	 */
+	public static void setMainOutput(PrintStream out) {
+		main = out;
+	}
+
+	public static boolean isEnabled(LEVEL messageLevel){
+		return messageLevel != LEVEL.OFF && messageLevel.compareTo(level) <= 0;
+	}
+
+	public static void summary(Supplier<String> message){
+		log(LEVEL.SUMMARY, message);
+	}
+
+	public static void period(Supplier<String> message){
+		log(LEVEL.PERIOD, message);
+	}
+
+	public static void trace(Supplier<String> message){
+		log(LEVEL.TRACE, message);
+	}
+
+	/**
+	 * Errors are always written to the main output, whatever the level.
+	 */
+	public static void error(String message){
+		enqueue(main, message);
+	}
+
+	public static void log(LEVEL messageLevel, Supplier<String> message){
+		if (!isEnabled(messageLevel))
+			return;
+
+		PrintStream out = main;
+		if (messageLevel.compareTo(LEVEL.SUMMARY) > 0 && participantSink.get() != null)
+			out = participantSink.get();
+
+		enqueue(out, message.get());
+	}
+
+	/**
+	 * Opens a trace file for the participant being processed on the current thread. Nothing is opened unless
+	 * PERIOD or TRACE messages are enabled.
+	 */
+	public static void beginParticipant(File traceFile) throws FileNotFoundException{
+		if (isEnabled(LEVEL.PERIOD))
+			participantSink.set(new PrintStream(new BufferedOutputStream(new FileOutputStream(traceFile))));
+	}
+
+	/**
+	 * Closes the current thread's participant trace file once its pending messages have been written.
+	 */
+	public static void endParticipant(){
+		PrintStream out = participantSink.get();
+		participantSink.remove();
+
+		if (out != null)
+			put(new Message(out, null, true, null));
+	}
+
+	/**
+	 * Waits until every message logged so far has been written.
+	 */
+	public static void flush(){
+		CountDownLatch written = new CountDownLatch(1);
+		put(new Message(main, null, false, written));
+
+		try{
+			written.await();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void enqueue(PrintStream out, String line){
+		put(new Message(out, line, false, null));
+	}
+
+	private static void put(Message message){
+		startWriter();
+
+		try{
+			pending.put(message);
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static synchronized void startWriter(){
+		if (writer != null)
+			return;
+
+		writer = new Thread(() -> {
+			while (true){
+				try{
+					write(pending.take());
+				} catch (InterruptedException e){
+					return;
+				}
+			}
+		}, "diagnostics-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private static void write(Message message){
+		if (message.line != null)
+			message.out.println(message.line);
+
+		if (message.close){
+			message.out.close();
+		} else if (message.written != null){
+			message.out.flush();
+			message.written.countDown();
+		}
+	}
+
+	static class Message{
+		PrintStream out;
+		String line;
+		boolean close;
+		CountDownLatch written;
+
+		Message(PrintStream out, String line, boolean close, CountDownLatch written){
+			this.out = out;
+			this.line = line;
+			this.close = close;
+			this.written = written;
+		}
+	}
+}
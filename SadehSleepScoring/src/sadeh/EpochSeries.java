@@ -0,0 +1,675 @@
+package sadeh;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import sadeh.SleepAnalysis.ACTIVITY_LEVEL;
+import sadeh.SleepAnalysis.SLEEP_PROBABILITY;
+
+/**
+ * All of the Actical epochs for a participant, stored as one array per field rather than one object per epoch.
+ * An epoch's time is stored as its offset in seconds from the first epoch's time, the asleep and daytime flags are
+ * packed 64 to a long, and the activity threshold and day of the week are stored as bytes. A week of data is a
+ * few hundred kilobytes instead of tens of megabytes of ActicalEpoch, LocalDate and LocalDateTime objects.
+ *
+ * Code that works with ActicalEpoch objects can use {@link #get(int)} or {@link #asList()}; these return views of
+ * the series (reading and writing the arrays) rather than copies.
+ *
+ * @author kyle_
+ *
+ */
+public class EpochSeries {
+	static final String[] DAYS_OF_WEEK =
+		{"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+	static final byte NONE = -1;
+	static final int SECONDS_PER_DAY = 24 * 60 * 60;
+	static final ACTIVITY_LEVEL[] ACTIVITY_LEVELS = ACTIVITY_LEVEL.values();
+
+	protected String participant;
+	protected LocalDateTime start; //Time of the epoch at index 0 (before sorting, the first epoch added)
+	protected int size = 0;
+	protected int[] offsets; //Seconds from the start
+	protected int[] activity;
+	protected byte[] dayOfWeek; //Index into DAYS_OF_WEEK
+	protected byte[] activityThreshold; //ACTIVITY_LEVEL ordinal
+	protected long[] asleep = new long[0];
+	protected long[] daytime = new long[0];
+	protected boolean scored = false; //the sleep state is only known once the series has been scored
+
+	public EpochSeries(){
+		this(1024);
+	}
+
+	public EpochSeries(int capacity){
+		capacity = Math.max(capacity, 1);
+		offsets = new int[capacity];
+		activity = new int[capacity];
+		dayOfWeek = new byte[capacity];
+		activityThreshold = new byte[capacity];
+	}
+
+	/**
+	 * Adds an epoch to the end of the series.
+	 *
+	 * @param dateTime time the activity was recorded
+	 * @param activityLevel activity level during that minute
+	 * @param day day of the week ("Monday", "Tuesday", ...) or null
+	 */
+	public void add(LocalDateTime dateTime, int activityLevel, String day){
+		if (size == offsets.length)
+			grow(Math.max(size * 2, 16));
+
+		if (start == null)
+			start = dateTime;
+
+		offsets[size] = Math.toIntExact(ChronoUnit.SECONDS.between(start, dateTime));
+		activity[size] = activityLevel;
+		dayOfWeek[size] = dayIndex(day);
+		activityThreshold[size] = NONE;
+		size++;
+	}
+
+	/**
+	 * Adds an epoch to the end of the series without creating a LocalDateTime for it (once the series has a start).
+	 *
+	 * @param date day the activity was recorded
+	 * @param secondOfDay second of that day the activity was recorded
+	 * @param activityLevel activity level during that minute
+	 * @param day day of the week ("Monday", "Tuesday", ...) or null
+	 */
+	public void add(LocalDate date, int secondOfDay, int activityLevel, String day){
+		if (start == null){
+			add(date.atStartOfDay().plusSeconds(secondOfDay), activityLevel, day);
+			return;
+		}
+
+		if (size == offsets.length)
+			grow(Math.max(size * 2, 16));
+
+		long offset = (date.toEpochDay() - start.toLocalDate().toEpochDay()) * SECONDS_PER_DAY
+				+ secondOfDay - start.toLocalTime().toSecondOfDay();
+		offsets[size] = Math.toIntExact(offset);
+		activity[size] = activityLevel;
+		dayOfWeek[size] = dayIndex(day);
+		activityThreshold[size] = NONE;
+		size++;
+	}
+
+	static byte dayIndex(String day){
+		for (byte i = 0; i < DAYS_OF_WEEK.length; i++){
+			if (DAYS_OF_WEEK[i].equals(day))
+				return i;
+		}
+
+		return NONE;
+	}
+
+	private void grow(int capacity){
+		offsets = Arrays.copyOf(offsets, capacity);
+		activity = Arrays.copyOf(activity, capacity);
+		dayOfWeek = Arrays.copyOf(dayOfWeek, capacity);
+		activityThreshold = Arrays.copyOf(activityThreshold, capacity);
+	}
+
+	/**
+	 * Sorts the epochs by time, earlier times first. Epochs with the same time stay in the order they were added.
+	 *
+	 * The parsers add the epochs a worksheet row (a time of day) at a time, with one epoch per day column, so the
+	 * epochs of each day are already in order and only the days are interleaved. Rather than sorting every epoch,
+	 * the epochs are bucketed by day (a stable counting sort) and only a day whose epochs turn out not to be in
+	 * order is sorted. A series that is already in order is not copied at all.
+	 */
+	public void sort(){
+		int[] order = isChronological() ? null : chronologicalOrder();
+
+		if (order != null){
+			int[] sortedOffsets = new int[size];
+			int[] sortedActivity = new int[size];
+			byte[] sortedDays = new byte[size];
+			byte[] sortedThresholds = new byte[size];
+
+			for (int i = 0; i < size; i++){
+				int from = order[i];
+				sortedOffsets[i] = offsets[from];
+				sortedActivity[i] = activity[from];
+				sortedDays[i] = dayOfWeek[from];
+				sortedThresholds[i] = activityThreshold[from];
+			}
+
+			offsets = sortedOffsets;
+			activity = sortedActivity;
+			dayOfWeek = sortedDays;
+			activityThreshold = sortedThresholds;
+		}
+
+		//The first epoch is now the earliest so make it the start
+		if (size > 0 && offsets[0] != 0){
+			int first = offsets[0];
+			start = start.plusSeconds(first);
+			for (int i = 0; i < size; i++)
+				offsets[i] -= first;
+		}
+
+		clearScores();
+	}
+
+	private void clearScores(){
+		asleep = new long[0];
+		daytime = new long[0];
+		scored = false;
+	}
+
+	private boolean isChronological(){
+		for (int i = 1; i < size; i++){
+			if (offsets[i] < offsets[i-1])
+				return false;
+		}
+
+		return true;
+	}
+
+	/*
+	 * The index of the epoch that belongs at each position.
+	 */
+	private int[] chronologicalOrder(){
+		int firstDay = Integer.MAX_VALUE;
+		int lastDay = Integer.MIN_VALUE;
+		for (int i = 0; i < size; i++){
+			int day = getDayIndex(i);
+			firstDay = Math.min(firstDay, day);
+			lastDay = Math.max(lastDay, day);
+		}
+
+		int[] order = new int[size];
+		//A stray date far from the others would make the buckets larger than the data, sort those by time instead
+		if ((long) lastDay - firstDay > size + 366L){
+			for (int i = 0; i < size; i++)
+				order[i] = i;
+			sortByTime(order, 0, size);
+			return order;
+		}
+
+		int[] dayStarts = new int[lastDay - firstDay + 2];
+		for (int i = 0; i < size; i++)
+			dayStarts[getDayIndex(i) - firstDay + 1]++;
+		for (int d = 1; d < dayStarts.length; d++)
+			dayStarts[d] += dayStarts[d-1];
+
+		int[] next = Arrays.copyOf(dayStarts, dayStarts.length - 1);
+		for (int i = 0; i < size; i++)
+			order[next[getDayIndex(i) - firstDay]++] = i;
+
+		for (int d = 0; d < dayStarts.length - 1; d++){
+			for (int p = dayStarts[d] + 1; p < dayStarts[d+1]; p++){
+				if (offsets[order[p]] < offsets[order[p-1]]){
+					sortByTime(order, dayStarts[d], dayStarts[d+1]);
+					break;
+				}
+			}
+		}
+
+		return order;
+	}
+
+	/*
+	 * Stable sort of order[from, to) by the time of the epochs.
+	 */
+	private void sortByTime(int[] order, int from, int to){
+		long[] keys = new long[to - from];
+		for (int p = from; p < to; p++)
+			keys[p - from] = ((long) offsets[order[p]] << 32) | order[p];
+
+		Arrays.sort(keys);
+		for (int p = from; p < to; p++)
+			order[p] = (int) keys[p - from];
+	}
+
+	/**
+	 * Removes every epoch in the same minute as the epoch before it, so each minute has a single epoch (the first
+	 * one added). Assumes the series is sorted; if any epoch is removed, the series has to be scored again.
+	 *
+	 * @return the number of epochs removed
+	 */
+	public int removeDuplicates(){
+		int kept = Math.min(size, 1);
+		for (int i = 1; i < size; i++){
+			if ((offsets[i] - offsets[kept-1]) / 60 == 0)
+				continue;
+
+			offsets[kept] = offsets[i];
+			activity[kept] = activity[i];
+			dayOfWeek[kept] = dayOfWeek[i];
+			activityThreshold[kept] = activityThreshold[i];
+			kept++;
+		}
+
+		int removed = size - kept;
+		size = kept;
+		if (removed > 0)
+			clearScores();
+
+		return removed;
+	}
+
+	/**
+	 * Adds an epoch with an activity level of 0 (what the Actical records while it is not being worn) for every
+	 * minute missing between two epochs. Assumes the series is sorted and has no duplicates; if any epoch is added,
+	 * the series has to be scored again.
+	 *
+	 * @return the number of epochs added
+	 */
+	public int fillGaps(){
+		long missing = 0;
+		for (int i = 1; i < size; i++)
+			missing += Math.max(0, (offsets[i] - offsets[i-1]) / 60 - 1);
+
+		if (missing == 0)
+			return 0;
+
+		int filled = Math.toIntExact(size + missing);
+		int[] filledOffsets = new int[filled];
+		int[] filledActivity = new int[filled];
+		byte[] filledDays = new byte[filled];
+		byte[] filledThresholds = new byte[filled];
+		int p = 0;
+
+		for (int i = 0; i < size; i++){
+			if (i > 0){
+				int minutes = (offsets[i] - offsets[i-1]) / 60;
+				for (int m = 1; m < minutes; m++){
+					filledOffsets[p] = offsets[i-1] + m * 60;
+					filledDays[p] = (byte) (start.plusSeconds(filledOffsets[p]).getDayOfWeek().getValue() - 1);
+					filledThresholds[p] = NONE;
+					p++;
+				}
+			}
+
+			filledOffsets[p] = offsets[i];
+			filledActivity[p] = activity[i];
+			filledDays[p] = dayOfWeek[i];
+			filledThresholds[p] = activityThreshold[i];
+			p++;
+		}
+
+		offsets = filledOffsets;
+		activity = filledActivity;
+		dayOfWeek = filledDays;
+		activityThreshold = filledThresholds;
+		size = filled;
+		clearScores();
+		return (int) missing;
+	}
+
+	/**
+	 * The index of the first epoch of each run of epochs that are one minute apart, followed by the size of the
+	 * series, so segment s is [segmentStarts[s], segmentStarts[s+1]). Assumes the series is sorted.
+	 */
+	public int[] getSegmentStarts(){
+		int[] starts = new int[2];
+		int count = 0;
+
+		for (int i = 0; i < size; i++){
+			if (i == 0 || (offsets[i] - offsets[i-1]) / 60 != 1){
+				if (count == starts.length)
+					starts = Arrays.copyOf(starts, count * 2);
+				starts[count++] = i;
+			}
+		}
+
+		starts = Arrays.copyOf(starts, count + 1);
+		starts[count] = size;
+		return starts;
+	}
+
+	/**
+	 * Stores the result of scoring every epoch with the sadeh algorithm.
+	 */
+	public void setSleepStates(SLEEP_PROBABILITY[] states){
+		for (int i = 0; i < size; i++)
+			setAsleep(i, states[i] == SLEEP_PROBABILITY.ASLEEP);
+
+		scored = true;
+	}
+
+	/**
+	 * Stores the result of scoring every epoch with {@link SleepAnalysis#sadehBatch(int[])}: epoch i is asleep when
+	 * bit (i % 64) of word (i / 64) is set.
+	 */
+	public void setSleepStates(long[] asleep){
+		this.asleep = Arrays.copyOf(asleep, (size + 63) >>> 6);
+		scored = true;
+	}
+
+	/**
+	 * The index of the first epoch on each date followed by the size of the series, so the epochs on the
+	 * date at position d are [dateStarts[d], dateStarts[d+1]). Assumes the series is sorted.
+	 */
+	public int[] getDateStarts(){
+		int[] starts = new int[8];
+		int count = 0;
+
+		for (int i = 0; i < size; i++){
+			if (i == 0 || getDayIndex(i) != getDayIndex(i-1)){
+				if (count == starts.length)
+					starts = Arrays.copyOf(starts, count * 2);
+				starts[count++] = i;
+			}
+		}
+
+		starts = Arrays.copyOf(starts, count + 1);
+		starts[count] = size;
+		return starts;
+	}
+
+	/**
+	 * The dates that data was collected, earliest first. Assumes the series is sorted.
+	 */
+	public List<LocalDate> getDates(){
+		List<LocalDate> dates = new ArrayList<>();
+		int[] starts = getDateStarts();
+		for (int d = 0; d < starts.length - 1; d++)
+			dates.add(getDate(starts[d]));
+
+		return dates;
+	}
+
+	/**
+	 * Seconds from the start of the series to the given time; times can be compared with
+	 * {@link #getOffset(int)} instead of creating a LocalDateTime for each epoch.
+	 */
+	public long offsetOf(LocalDateTime dateTime){
+		return ChronoUnit.SECONDS.between(start, dateTime);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int getOffset(int index){
+		return offsets[index];
+	}
+
+	public LocalDateTime getDateTime(int index){
+		return start.plusSeconds(offsets[index]);
+	}
+
+	public LocalDate getDate(int index){
+		return getDateTime(index).toLocalDate();
+	}
+
+	/**
+	 * Seconds since midnight at the time of this epoch.
+	 */
+	public int getSecondOfDay(int index){
+		return Math.floorMod(start.toLocalTime().toSecondOfDay() + offsets[index], SECONDS_PER_DAY);
+	}
+
+	/**
+	 * Number of days between the date of the first epoch and the given date.
+	 */
+	public long getDayIndex(LocalDate date){
+		return ChronoUnit.DAYS.between(start.toLocalDate(), date);
+	}
+
+	/**
+	 * Number of days between the date of the first epoch and the date of this epoch.
+	 */
+	public int getDayIndex(int index){
+		return Math.floorDiv(start.toLocalTime().toSecondOfDay() + offsets[index], SECONDS_PER_DAY);
+	}
+
+	public int getActivityLevel(int index){
+		return activity[index];
+	}
+
+	public void setActivityLevel(int index, int activityLevel){
+		activity[index] = activityLevel;
+	}
+
+	/**
+	 * The activity levels of every epoch; the returned array is a copy.
+	 */
+	public int[] getActivityLevels(){
+		return Arrays.copyOf(activity, size);
+	}
+
+	public String getDayOfWeek(int index){
+		return (dayOfWeek[index] == NONE) ? null : DAYS_OF_WEEK[dayOfWeek[index]];
+	}
+
+	public boolean isAsleep(int index){
+		return getBit(asleep, index);
+	}
+
+	public void setAsleep(int index, boolean value){
+		asleep = setBit(asleep, index, value);
+	}
+
+	public boolean isDaytime(int index){
+		return getBit(daytime, index);
+	}
+
+	public void setDaytime(int index, boolean value){
+		daytime = setBit(daytime, index, value);
+	}
+
+	/**
+	 * Whether the sleep states have been set with {@link #setSleepStates(SLEEP_PROBABILITY[])}.
+	 */
+	public boolean isScored(){
+		return scored;
+	}
+
+	public SLEEP_PROBABILITY getSleepState(int index){
+		if (!scored)
+			return null;
+
+		return isAsleep(index) ? SLEEP_PROBABILITY.ASLEEP : SLEEP_PROBABILITY.AWAKE;
+	}
+
+	public ACTIVITY_LEVEL getActivityThreshold(int index){
+		byte ordinal = activityThreshold[index];
+		return (ordinal == NONE) ? null : ACTIVITY_LEVELS[ordinal];
+	}
+
+	public void setActivityThreshold(int index, ACTIVITY_LEVEL level){
+		activityThreshold[index] = (level == null) ? NONE : (byte) level.ordinal();
+	}
+
+	public String getParticipant() {
+		return participant;
+	}
+
+	public void setParticipant(String participant) {
+		this.participant = participant;
+	}
+
+	private static boolean getBit(long[] bits, int index){
+		int word = index >>> 6;
+		return word < bits.length && (bits[word] & (1L << index)) != 0;
+	}
+
+	private long[] setBit(long[] bits, int index, boolean value){
+		int word = index >>> 6;
+		if (word >= bits.length){
+			if (!value)
+				return bits;
+			bits = Arrays.copyOf(bits, Math.max(word + 1, ((size + 63) >>> 6)));
+		}
+
+		if (value){
+			bits[word] |= (1L << index);
+		} else{
+			bits[word] &= ~(1L << index);
+		}
+
+		return bits;
+	}
+
+	/**
+	 * An ActicalEpoch that reads and writes the epoch at an index of this series.
+	 */
+	public ActicalEpoch get(int index){
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+		return new EpochView(this, index);
+	}
+
+	/**
+	 * The series as a list of ActicalEpoch views, for code that works with lists of epochs.
+	 */
+	public List<ActicalEpoch> asList(){
+		return new EpochList();
+	}
+
+	class EpochList extends AbstractList<ActicalEpoch> implements RandomAccess{
+		@Override
+		public ActicalEpoch get(int index) {
+			return EpochSeries.this.get(index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Two views are equal if they are views of the same epoch of the same series.
+	 */
+	static class EpochView extends ActicalEpoch{
+		final EpochSeries series;
+		final int index;
+
+		EpochView(EpochSeries series, int index){
+			this.series = series;
+			this.index = index;
+		}
+
+		public int getIndex(){
+			return index;
+		}
+
+		@Override
+		public SLEEP_PROBABILITY getSleepState() {
+			return series.getSleepState(index);
+		}
+
+		@Override
+		public void setSleepState(SLEEP_PROBABILITY sleepState) {
+			series.setAsleep(index, sleepState == SLEEP_PROBABILITY.ASLEEP);
+		}
+
+		@Override
+		public boolean isDaytime() {
+			return series.isDaytime(index);
+		}
+
+		@Override
+		public void setDaytime(boolean daytime) {
+			series.setDaytime(index, daytime);
+		}
+
+		@Override
+		public boolean isAsleep() {
+			return series.isAsleep(index);
+		}
+
+		@Override
+		public void setAsleep(boolean asleep) {
+			series.setAsleep(index, asleep);
+		}
+
+		@Override
+		public ACTIVITY_LEVEL getActivityThreshold() {
+			return series.getActivityThreshold(index);
+		}
+
+		@Override
+		public void setActivityThreshold(ACTIVITY_LEVEL activityThreshold) {
+			series.setActivityThreshold(index, activityThreshold);
+		}
+
+		@Override
+		public String getParticipant() {
+			return series.getParticipant();
+		}
+
+		@Override
+		public LocalDateTime getDateTime() {
+			return series.getDateTime(index);
+		}
+
+		@Override
+		public LocalDate getDate() {
+			return series.getDate(index);
+		}
+
+		@Override
+		public int getMinuteOfDay() {
+			LocalDateTime ldt = getDateTime();
+			return ldt.getHour() * 60 + ldt.getMinute();
+		}
+
+		@Override
+		public String getDayOfWeek() {
+			return series.getDayOfWeek(index);
+		}
+
+		@Override
+		public int getActivityLevel() {
+			return series.getActivityLevel(index);
+		}
+
+		@Override
+		public void setActivityLevel(int activityLevel) {
+			series.setActivityLevel(index, activityLevel);
+		}
+
+		@Override
+		public void setDateTime(LocalDateTime dateTime) {
+			throw new UnsupportedOperationException("The time of an epoch in a series cannot be changed");
+		}
+
+		@Override
+		public void setDate(LocalDate date) {
+			throw new UnsupportedOperationException("The date of an epoch in a series cannot be changed");
+		}
+
+		@Override
+		public void setMinuteOfDay(int minuteOfDay) {
+			throw new UnsupportedOperationException("The time of an epoch in a series cannot be changed");
+		}
+
+		@Override
+		public void setDayOfWeek(String dayOfWeek) {
+			throw new UnsupportedOperationException("The day of an epoch in a series cannot be changed");
+		}
+
+		@Override
+		public void setParticipant(String participant) {
+			throw new UnsupportedOperationException("Set the participant of the series instead");
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if (!(o instanceof EpochView))
+				return false;
+
+			EpochView other = (EpochView) o;
+			return other.series == series && other.index == index;
+		}
+
+		@Override
+		public int hashCode(){
+			return System.identityHashCode(series) * 31 + index;
+		}
+	}
+}
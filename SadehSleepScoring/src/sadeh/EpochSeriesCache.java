@@ -0,0 +1,288 @@
+package sadeh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * An on-disk cache of parsed (and scored) participant data, so that a participant's Actical workbook does not
+ * have to be parsed again when it has not changed since the last run.
+ *
+ * There is one cache file per input file. It stores the size, modification time and SHA-256 hash of the input
+ * when it was parsed, and the columns of its sorted {@link EpochSeries} (offsets, activity levels, days of the
+ * week). When the series was scored, the sleep and daytime flags and the activity thresholds are stored as well,
+ * with the {@link SleepAnalysis#scoringFingerprint(ScoringProfile)} they were scored with; if the scoring has changed
+ * since, only the parsed columns are used and the series is scored again. The header of a cache file is read
+ * and checked before the rest of it, and files are never memory mapped, so a stale cache file can always be
+ * replaced (a mapped file cannot be replaced on Windows).
+ *
+ * @author kyle_
+ *
+ */
+public class EpochSeriesCache {
+	static final byte[] MAGIC = "SADEHEPC".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final int HASH_LENGTH = 32;
+	static final String EXTENSION = ".epochs";
+
+	protected File folder;
+
+	public EpochSeriesCache(File folder){
+		this.folder = folder;
+	}
+
+	/**
+	 * Identifies the contents of an input file: its path, size, modification time and content hash.
+	 */
+	public static class Key{
+		final String path;
+		final long size;
+		final long modified;
+		final byte[] hash;
+
+		Key(String path, long size, long modified, byte[] hash){
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Whether both keys are for the same version of the same file.
+		 */
+		boolean matches(Key other){
+			return other != null && path.equals(other.path) && size == other.size && modified == other.modified
+					&& Arrays.equals(hash, other.hash);
+		}
+	}
+
+	public static Key keyOf(File input) throws IOException{
+		File file = input.getCanonicalFile();
+		long size = file.length();
+		long modified = file.lastModified();
+
+		try (InputStream in = Files.newInputStream(file.toPath())){
+			MessageDigest digest = sha256();
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) > 0)
+				digest.update(buffer, 0, read);
+
+			return new Key(file.getPath(), size, modified, digest.digest());
+		}
+	}
+
+	/**
+	 * The key of the input when it is parsed with a variant of the parse settings (e.g. a gap policy that changes
+	 * the epochs); each variant of an input is cached separately. A null variant is the same as {@link #keyOf(File)}.
+	 */
+	public static Key keyOf(File input, String variant) throws IOException{
+		Key key = keyOf(input);
+		return (variant == null) ? key : new Key(key.path + "|" + variant, key.size, key.modified, key.hash);
+	}
+
+	/**
+	 * Returns the cached series for the input, or null if there is none or it was made from a different version of
+	 * the input. The series is only marked as scored if it was scored with the given fingerprint.
+	 */
+	public EpochSeries read(Key key, byte[] scoringFingerprint) throws IOException{
+		File cacheFile = cacheFile(key);
+		if (!cacheFile.isFile())
+			return null;
+
+		//Read into heap buffers rather than mapped, so that the file can be replaced while this JVM is running
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)){
+			ByteBuffer buffer = read(channel, MAGIC.length + 4 + 4);
+			byte[] magic = new byte[MAGIC.length];
+			buffer.get(magic);
+			if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION)
+				return null;
+
+			int pathLength = buffer.getInt();
+			if (pathLength < 0 || pathLength > channel.size())
+				throw new BufferUnderflowException();
+
+			buffer = read(channel, pathLength + 8 + 8 + HASH_LENGTH);
+			String path = new String(readBytes(buffer, pathLength), StandardCharsets.UTF_8);
+			long size = buffer.getLong();
+			long modified = buffer.getLong();
+			byte[] hash = new byte[HASH_LENGTH];
+			buffer.get(hash);
+			if (!key.matches(new Key(path, size, modified, hash)))
+				return null;
+
+			buffer = read(channel, Math.toIntExact(channel.size() - channel.position()));
+			EpochSeries series = new EpochSeries(0);
+			long startSecond = buffer.getLong();
+			int startNano = buffer.getInt();
+			series.start = (startSecond == Long.MIN_VALUE) ? null
+					: LocalDateTime.ofEpochSecond(startSecond, startNano, ZoneOffset.UTC);
+			series.size = buffer.getInt();
+			series.offsets = readInts(buffer, series.size);
+			series.activity = readInts(buffer, series.size);
+			series.dayOfWeek = readBytes(buffer, series.size);
+			series.activityThreshold = new byte[series.size];
+			Arrays.fill(series.activityThreshold, EpochSeries.NONE);
+
+			if (buffer.get() == 1){
+				byte[] fingerprint = new byte[HASH_LENGTH];
+				buffer.get(fingerprint);
+
+				if (Arrays.equals(fingerprint, scoringFingerprint)){
+					series.asleep = readLongs(buffer, buffer.getInt());
+					series.daytime = readLongs(buffer, buffer.getInt());
+					series.activityThreshold = readBytes(buffer, series.size);
+					series.scored = true;
+				}
+			}
+
+			return series;
+		} catch (RuntimeException e){
+			//A truncated or damaged cache file is treated as a miss
+			Diagnostics.error("Ignoring damaged cache file " + cacheFile.getPath() + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the series for the input, replacing any cached version. The scores are only stored if the series
+	 * has been scored.
+	 */
+	public void write(Key key, EpochSeries series, byte[] scoringFingerprint) throws IOException{
+		byte[] path = key.path.getBytes(StandardCharsets.UTF_8);
+		int n = series.size;
+		int asleepWords = Math.min(series.asleep.length, (n + 63) >>> 6);
+		int daytimeWords = Math.min(series.daytime.length, (n + 63) >>> 6);
+
+		long length = MAGIC.length + 4 + 4 + path.length + 8 + 8 + HASH_LENGTH + 8 + 4 + 4 + n * 4L * 2 + n + 1;
+		if (series.scored)
+			length += HASH_LENGTH + 4 + asleepWords * 8L + 4 + daytimeWords * 8L + n;
+
+		ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(length));
+		buffer.put(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(path.length);
+		buffer.put(path);
+		buffer.putLong(key.size);
+		buffer.putLong(key.modified);
+		buffer.put(key.hash);
+		buffer.putLong((series.start == null) ? Long.MIN_VALUE : series.start.toEpochSecond(ZoneOffset.UTC));
+		buffer.putInt((series.start == null) ? 0 : series.start.getNano());
+		buffer.putInt(n);
+		buffer.asIntBuffer().put(series.offsets, 0, n);
+		buffer.position(buffer.position() + n * 4);
+		buffer.asIntBuffer().put(series.activity, 0, n);
+		buffer.position(buffer.position() + n * 4);
+		buffer.put(series.dayOfWeek, 0, n);
+
+		if (series.scored){
+			buffer.put((byte) 1);
+			buffer.put(scoringFingerprint);
+			buffer.putInt(asleepWords);
+			buffer.asLongBuffer().put(series.asleep, 0, asleepWords);
+			buffer.position(buffer.position() + asleepWords * 8);
+			buffer.putInt(daytimeWords);
+			buffer.asLongBuffer().put(series.daytime, 0, daytimeWords);
+			buffer.position(buffer.position() + daytimeWords * 8);
+			buffer.put(series.activityThreshold, 0, n);
+		} else{
+			buffer.put((byte) 0);
+		}
+
+		buffer.flip();
+		folder.mkdirs();
+
+		//Written to a temporary file first so that a reader never sees a partly written cache file
+		File cacheFile = cacheFile(key);
+		Path temp = Files.createTempFile(folder.toPath(), cacheFile.getName(), ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+
+		try{
+			Files.move(temp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally{
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * The cache file of an input is named after the hash of its path, so each input has a single cache file.
+	 */
+	File cacheFile(Key key){
+		byte[] hash = sha256().digest(key.path.getBytes(StandardCharsets.UTF_8));
+		return new File(folder, toHex(hash).substring(0, 32) + EXTENSION);
+	}
+
+	static String toHex(byte[] bytes){
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			hex.append(String.format("%02x", b));
+
+		return hex.toString();
+	}
+
+	static byte[] fromHex(String hex){
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+
+		return bytes;
+	}
+
+	static MessageDigest sha256(){
+		try{
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/*
+	 * The next length bytes of the file, ready to be read.
+	 */
+	private static ByteBuffer read(FileChannel channel, int length) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()){
+			if (channel.read(buffer) < 0)
+				throw new BufferUnderflowException();
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer, int length){
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int length){
+		int[] ints = new int[length];
+		buffer.asIntBuffer().get(ints);
+		buffer.position(buffer.position() + length * 4);
+		return ints;
+	}
+
+	private static long[] readLongs(ByteBuffer buffer, int length){
+		long[] longs = new long[length];
+		buffer.asLongBuffer().get(longs);
+		buffer.position(buffer.position() + length * 8);
+		return longs;
+	}
+}
@@ -0,0 +1,89 @@
+package sadeh;
+
+import java.time.LocalDateTime;
+
+/**
+ * Finds the epochs of a sorted, scored {@link EpochSeries} by time, and counts the epochs asleep in a range of
+ * them, without going through the series. The index of the first epoch in each minute of the series is stored
+ * (minute offset -> index), and the epochs asleep are kept as a running (prefix) count, so the number asleep
+ * between two indices is the difference of two counts.
+ *
+ * The series must not be changed after the index is created.
+ *
+ * @author kyle_
+ *
+ */
+public class EpochTimeIndex {
+	static final int SECONDS_PER_MINUTE = 60;
+
+	final EpochSeries epochs;
+	//firstInMinute[m] is the index of the first epoch at least m minutes after the start of the series
+	final int[] firstInMinute;
+	//asleepBefore[i] is the number of epochs asleep before index i
+	final int[] asleepBefore;
+
+	public EpochTimeIndex(EpochSeries epochs){
+		this.epochs = epochs;
+		int size = epochs.size();
+		int minutes = (size == 0) ? 0 : epochs.getOffset(size - 1) / SECONDS_PER_MINUTE + 1;
+
+		firstInMinute = new int[minutes + 1];
+		asleepBefore = new int[size + 1];
+
+		int i = 0;
+		for (int m = 0; m <= minutes; m++){
+			while (i < size && epochs.getOffset(i) < m * SECONDS_PER_MINUTE)
+				i++;
+
+			firstInMinute[m] = i;
+		}
+
+		for (i = 0; i < size; i++)
+			asleepBefore[i + 1] = asleepBefore[i] + (epochs.isAsleep(i) ? 1 : 0);
+	}
+
+	public EpochSeries getEpochs(){
+		return epochs;
+	}
+
+	/**
+	 * Index of the first epoch at or after the time, or the size of the series if there is none.
+	 */
+	public int firstAtOrAfter(LocalDateTime dateTime){
+		return firstAtOrAfter(epochs.offsetOf(dateTime));
+	}
+
+	/**
+	 * Index of the first epoch whose offset (seconds from the start of the series) is at least the given offset,
+	 * or the size of the series if there is none.
+	 */
+	public int firstAtOrAfter(long offset){
+		if (offset <= 0)
+			return 0;
+
+		long minute = offset / SECONDS_PER_MINUTE;
+		if (minute >= firstInMinute.length - 1)
+			return firstInMinute[firstInMinute.length - 1];
+
+		//Epochs are recorded once a minute, so this is at most a step or two
+		int i = firstInMinute[(int) minute];
+		while (i < epochs.size() && epochs.getOffset(i) < offset)
+			i++;
+
+		return i;
+	}
+
+	/**
+	 * Number of epochs asleep from index from (inclusive) to index to (exclusive).
+	 */
+	public int countAsleep(int from, int to){
+		return (to > from) ? asleepBefore[to] - asleepBefore[from] : 0;
+	}
+
+	/**
+	 * Number of epochs asleep from start to end (inclusive).
+	 */
+	public int countAsleep(LocalDateTime start, LocalDateTime end){
+		return countAsleep(firstAtOrAfter(start), firstAtOrAfter(epochs.offsetOf(end) + 1));
+	}
+}
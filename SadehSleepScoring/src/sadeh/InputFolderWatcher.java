@@ -0,0 +1,134 @@
+package sadeh;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the input folder of a --watch run of {@link SadehMain} for Actical files that are added, replaced or
+ * deleted. An export is usually written over several seconds (or copied from a docking station in pieces), so a
+ * new or changed file is only reported once its size and modification time have not changed for the settle time;
+ * a file that is still being written is never given to the parsers.
+ *
+ * @author kyle_
+ *
+ */
+public class InputFolderWatcher implements Closeable {
+	//How often the files waiting to settle are checked when there are no new events
+	static final long POLL_MILLIS = 500;
+	protected Path folder;
+	protected long settleMillis;
+	protected WatchService watchService;
+	//Files with events that have not been reported yet, in the order of their first event
+	protected Map<Path, PendingFile> pending = new LinkedHashMap<>();
+
+	static class PendingFile {
+		long size = -1;
+		long modified = -1;
+		long unchangedSince;
+
+		PendingFile(long now){
+			unchangedSince = now;
+		}
+	}
+
+	public InputFolderWatcher(File inputFolder, int settleSeconds) throws IOException{
+		this.folder = inputFolder.toPath();
+		this.settleMillis = TimeUnit.SECONDS.toMillis(settleSeconds);
+		this.watchService = folder.getFileSystem().newWatchService();
+		folder.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+	}
+
+	/**
+	 * Waits until at least one file of the folder has settled or been deleted.
+	 *
+	 * @return the files that were added or changed and have settled, and the files that were deleted (which no
+	 * longer exist), in the order they were first seen
+	 */
+	public List<File> take() throws IOException, InterruptedException{
+		while (true){
+			WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			long now = System.currentTimeMillis();
+
+			if (key != null){
+				for (WatchEvent<?> event : key.pollEvents()){
+					if (event.kind() == OVERFLOW){
+						//Events were lost, so every file in the folder is checked again
+						for (File file : SadehMain.listInputFiles(folder.toFile()))
+							pending.putIfAbsent(file.toPath(), new PendingFile(now));
+					} else{
+						Path path = folder.resolve((Path) event.context());
+						pending.putIfAbsent(path, new PendingFile(now));
+					}
+				}
+
+				if (!key.reset())
+					throw new IOException("The input folder " + folder + " can no longer be watched");
+			}
+
+			List<File> settled = settled(now);
+			if (!settled.isEmpty())
+				return settled;
+		}
+	}
+
+	private List<File> settled(long now){
+		List<File> settled = new ArrayList<>();
+
+		for (Iterator<Map.Entry<Path, PendingFile>> it = pending.entrySet().iterator(); it.hasNext(); ){
+			Map.Entry<Path, PendingFile> entry = it.next();
+			Path path = entry.getKey();
+			PendingFile file = entry.getValue();
+
+			if (!Files.exists(path)){
+				settled.add(path.toFile());
+				it.remove();
+				continue;
+			} else if (!Files.isRegularFile(path)){ //Subfolders are not input files
+				it.remove();
+				continue;
+			}
+
+			long size;
+			long modified;
+			try{
+				size = Files.size(path);
+				modified = Files.getLastModifiedTime(path).toMillis();
+			} catch (IOException e){
+				continue; //Deleted or locked while it was checked, it is checked again on the next poll
+			}
+
+			if (size != file.size || modified != file.modified){
+				file.size = size;
+				file.modified = modified;
+				file.unchangedSince = now;
+			} else if (now - file.unchangedSince >= settleMillis){
+				settled.add(path.toFile());
+				it.remove();
+			}
+		}
+
+		return settled;
+	}
+
+	@Override
+	public void close() throws IOException{
+		watchService.close();
+	}
+}
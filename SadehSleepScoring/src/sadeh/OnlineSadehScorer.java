@@ -0,0 +1,169 @@
+package sadeh;
+
+import java.time.LocalDateTime;
+
+import excel.ParticipantDataParseException;
+import sadeh.SleepAnalysis.ACTIVITY_LEVEL;
+import sadeh.SleepAnalysis.SLEEP_PROBABILITY;
+
+/**
+ * Scores a participant's epochs as they arrive, e.g. minute by minute from a docking station, rather than
+ * from a complete sorted list. Only the epochs of one sadeh window are kept, in a ring buffer, with the same
+ * running sums {@link SleepAnalysis#sadeh(ScoringProfile, int[], SLEEP_PROBABILITY[], SleepAnalysis.SadehListener)}
+ * slides over the whole series. An epoch is scored once the epochs of the window after it have arrived, so each
+ * result comes WINDOW_AFTER minutes after its epoch; {@link #end()} scores the last epochs with the end of the data
+ * set counting as 0, as the batch scoring does.
+ *
+ * The epochs must arrive in chronological order. When an epoch does not follow the previous one by exactly one
+ * minute, the epochs before the gap are scored to the end of their segment and a new window starts, the same as
+ * the SPLIT gap policy; the sleep state and activity threshold of each epoch are then identical to a batch run.
+ *
+ * An instance belongs to one participant and is not thread safe.
+ *
+ * @author kyle_
+ *
+ */
+public class OnlineSadehScorer {
+	protected ScoringProfile profile;
+	protected ScoredEpochListener listener;
+	protected int windowBefore;
+	protected int windowAfter;
+	//The activity and epoch at each position of the window, position % window
+	protected int[] activity;
+	protected ActicalEpoch[] epochs;
+	//Positions in the current segment of the last epoch received and the next epoch to score
+	protected int received = -1;
+	protected int next = 0;
+	protected LocalDateTime lastDateTime;
+	protected int windowTotal = 0;
+	protected int windowNats = 0;
+	protected long sixTotal = 0;
+	protected long sixSquares = 0;
+
+	/**
+	 * Receives each epoch once it is scored, in the order the epochs arrived.
+	 */
+	public interface ScoredEpochListener{
+		void scored(ActicalEpoch epoch, SLEEP_PROBABILITY prob, ACTIVITY_LEVEL level) throws ParticipantDataParseException;
+	}
+
+	public OnlineSadehScorer(ScoredEpochListener listener){
+		this(ScoringProfile.DEFAULT, listener);
+	}
+
+	public OnlineSadehScorer(ScoringProfile profile, ScoredEpochListener listener){
+		this.profile = profile;
+		this.listener = listener;
+		this.windowBefore = profile.getWindowBefore();
+		this.windowAfter = profile.getWindowAfter();
+		this.activity = new int[profile.getWindow()];
+		this.epochs = new ActicalEpoch[profile.getWindow()];
+	}
+
+	/**
+	 * Adds the next epoch, scoring the epoch WINDOW_AFTER minutes before it.
+	 *
+	 * @throws ParticipantDataParseException if the epoch is not after the previous one, or its activity
+	 * threshold cannot be determined
+	 */
+	public void accept(ActicalEpoch epoch) throws ParticipantDataParseException{
+		if (lastDateTime != null){
+			if (!epoch.getDateTime().isAfter(lastDateTime)){
+				throw new ParticipantDataParseException("The epoch " + epoch.asEpochDateTime() + " of participant "
+						+ epoch.getParticipant() + " is not after the previous epoch "
+						+ ActicalEpoch.asEpochDateTime(lastDateTime) + ", it must be manually processed.");
+			}
+
+			if (!epoch.getDateTime().equals(lastDateTime.plusMinutes(1)))
+				end();
+		}
+
+		lastDateTime = epoch.getDateTime();
+		advance(epoch);
+	}
+
+	/**
+	 * Scores the epochs still waiting for the window after them, as the end of the data set; the next epoch
+	 * starts a new window.
+	 */
+	public void end() throws ParticipantDataParseException{
+		while (next <= received)
+			advance(null);
+
+		received = -1;
+		next = 0;
+		windowTotal = 0;
+		windowNats = 0;
+		sixTotal = 0;
+		sixSquares = 0;
+	}
+
+	/*
+	 * Moves the end of the window to the next position, which holds the epoch or, past the end of the segment,
+	 * padding, and scores the epoch in the middle of the window once there is one.
+	 */
+	private void advance(ActicalEpoch epoch) throws ParticipantDataParseException{
+		int position = (epoch == null) ? next + windowAfter : ++received;
+		int slot = position % activity.length;
+
+		//The slot holds the epoch leaving the window, which is also leaving the 6 epochs ending at the middle epoch
+		if (position >= activity.length){
+			int leaving = activity[slot];
+			windowTotal -= leaving;
+			windowNats -= profile.isNat(leaving) ? 1 : 0;
+			sixTotal -= leaving;
+			sixSquares -= (long) leaving * leaving;
+		}
+
+		if (epoch != null){
+			activity[slot] = epoch.getActivityLevel();
+			epochs[slot] = epoch;
+			windowTotal += activity[slot];
+			windowNats += profile.isNat(activity[slot]) ? 1 : 0;
+		} else{
+			activity[slot] = 0;
+			epochs[slot] = null;
+		}
+
+		if (position - windowAfter == next)
+			score();
+	}
+
+	private void score() throws ParticipantDataParseException{
+		int current = next % activity.length;
+		int level = activity[current];
+		sixTotal += level;
+		sixSquares += (long) level * level;
+
+		int six = windowBefore + 1;
+		double AVG = ((double) windowTotal)/((double) activity.length);
+		int NATS = windowNats;
+		double SD = Math.sqrt(((double)(six * sixSquares - sixTotal * sixTotal)) / ((double)(six * (six - 1))));
+		double LG = SleepAnalysis.naturalLog(level);
+		double sadeh = profile.score(AVG, NATS, SD, LG);
+
+		if (Math.abs(sadeh) < SleepAnalysis.SCORE_TOLERANCE){
+			int[] firstSixEpochs = new int[six];
+			for (int j = 0; j < six; j++){
+				int position = next - windowBefore + j;
+				firstSixEpochs[j] = (position >= 0) ? activity[position % activity.length] : 0;
+			}
+
+			SD = SleepAnalysis.standardDeviation(firstSixEpochs);
+			sadeh = profile.score(AVG, NATS, SD, LG);
+		}
+
+		SLEEP_PROBABILITY prob = (sadeh >= 0) ? SLEEP_PROBABILITY.ASLEEP : SLEEP_PROBABILITY.AWAKE;
+		ActicalEpoch epoch = epochs[current];
+		boolean daytime = profile.isDaytime(epoch.getDateTime().getHour());
+		ACTIVITY_LEVEL threshold = profile.getActivityThreshold(prob == SLEEP_PROBABILITY.ASLEEP, daytime, level,
+				epoch.getParticipant());
+		epoch.setSleepState(prob);
+		epoch.setAsleep(prob == SLEEP_PROBABILITY.ASLEEP);
+		epoch.setDaytime(daytime);
+		epoch.setActivityThreshold(threshold);
+		next++;
+
+		listener.scored(epoch, prob, threshold);
+	}
+}
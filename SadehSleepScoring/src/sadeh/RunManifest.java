@@ -0,0 +1,226 @@
+package sadeh;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import analysis.SleepStats;
+
+/**
+ * Records the results of a run for each input file, so that the next run (with --manifest) only processes the files
+ * that are new or have changed and reuses the recorded {@link SleepStats} and {@link NapData} for the others.
+ *
+ * For each participant successfully processed, the manifest stores the input's path, size, modification time and
+ * SHA-256 hash and the participant's daily results. It also stores a digest of the settings the results depend on
+ * (the scoring, the sleep period parameters and the assessment point); when they have changed, nothing is reused.
+ *
+ * The manifest is a tab separated text file: a header line, a settings line, then for each participant a
+ * "participant" line followed by its "nap" and "sleep" lines.
+ *
+ * @author kyle_
+ *
+ */
+public class RunManifest {
+	static final String HEADER = "SADEH-MANIFEST";
+	static final int VERSION = 1;
+	static final String NONE = "-";
+
+	protected File file;
+	protected String settings;
+	//Results recorded by the previous run, by input path
+	protected Map<String, Entry> previous = new ConcurrentHashMap<>();
+	//Results of this run (new, or reused from the previous run), by input path
+	protected Map<String, Entry> current = new ConcurrentHashMap<>();
+
+	static class Entry{
+		EpochSeriesCache.Key key;
+		ActicalParticipant participant;
+
+		Entry(EpochSeriesCache.Key key, ActicalParticipant participant){
+			this.key = key;
+			this.participant = participant;
+		}
+	}
+
+	RunManifest(File file, String settings){
+		this.file = file;
+		this.settings = settings;
+	}
+
+	/**
+	 * Loads the manifest written by the previous run. If there is none, or it was written with different
+	 * settings, every input is processed.
+	 */
+	public static RunManifest load(File file, String assessmentPoint, ScoringProfiles profiles) throws IOException{
+		RunManifest manifest = new RunManifest(file, settingsDigest(assessmentPoint, profiles));
+		if (!file.isFile())
+			return manifest;
+
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)){
+			String[] header = split(reader.readLine());
+			String[] settings = split(reader.readLine());
+			if (header.length < 2 || !header[0].equals(HEADER) || !header[1].equals(String.valueOf(VERSION))
+					|| settings.length < 2 || !settings[1].equals(manifest.settings)){
+				Diagnostics.summary(() -> "The manifest " + file.getPath() + " was written with different settings,"
+						+ " every participant will be processed.");
+				return manifest;
+			}
+
+			Entry entry = null;
+			String line;
+			while ((line = reader.readLine()) != null){
+				String[] fields = split(line);
+
+				switch (fields[0]){
+				case "participant":
+					ActicalParticipant participant = new ActicalParticipant();
+					participant.setParticipant(fields[5]);
+					participant.setAssessmentPoint(fields[6]);
+					EpochSeriesCache.Key key = new EpochSeriesCache.Key(fields[1], Long.parseLong(fields[2]),
+							Long.parseLong(fields[3]), EpochSeriesCache.fromHex(fields[4]));
+					entry = new Entry(key, participant);
+					manifest.previous.put(key.path, entry);
+					break;
+				case "nap":
+					NapData nap = new NapData();
+					nap.setNumberNaps(Integer.parseInt(fields[2]));
+					nap.setAverageNap(Long.parseLong(fields[3]));
+					nap.setMinNap(Integer.parseInt(fields[4]));
+					nap.setMaxNap(Integer.parseInt(fields[5]));
+					entry.participant.getNapMap().put(fields[1], nap);
+					break;
+				case "sleep":
+					entry.participant.addSleepStatsToDateBasedMap(parseSleepStats(fields));
+					break;
+				default:
+					throw new IOException("Unknown line in the manifest " + file.getPath() + ": " + line);
+				}
+			}
+		} catch (RuntimeException e){
+			throw new IOException("The manifest " + file.getPath() + " cannot be read", e);
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * The results recorded for the input by the previous run, if the input has not changed since; otherwise null.
+	 * Reused results are kept in the manifest written for this run.
+	 */
+	public ActicalParticipant reuse(EpochSeriesCache.Key key){
+		Entry entry = previous.get(key.path);
+		if (entry == null || !entry.key.matches(key))
+			return null;
+
+		current.put(key.path, entry);
+		return entry.participant;
+	}
+
+	/**
+	 * Records the results of processing the input in this run.
+	 */
+	public void record(EpochSeriesCache.Key key, ActicalParticipant participant){
+		current.put(key.path, new Entry(key, participant));
+	}
+
+	/**
+	 * Removes the results of the input from this run, e.g. because it was deleted or is being processed again.
+	 */
+	public void forget(File input) throws IOException{
+		current.remove(input.getCanonicalPath());
+	}
+
+	/**
+	 * Replaces the manifest file with the results of this run. Inputs that were not processed successfully
+	 * (or no longer exist) are not included, so they are processed again next time.
+	 */
+	public void write() throws IOException{
+		File folder = file.getAbsoluteFile().getParentFile();
+		folder.mkdirs();
+		Path temp = Files.createTempFile(folder.toPath(), file.getName(), ".tmp");
+
+		try{
+			try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))){
+				out.println(join(HEADER, String.valueOf(VERSION)));
+				out.println(join("settings", settings));
+
+				for (Entry entry : new TreeMap<>(current).values()){
+					EpochSeriesCache.Key key = entry.key;
+					ActicalParticipant p = entry.participant;
+					out.println(join("participant", key.path, String.valueOf(key.size), String.valueOf(key.modified),
+							EpochSeriesCache.toHex(key.hash), p.getParticipant(), p.getAssessmentPoint()));
+
+					for (Map.Entry<String, NapData> nap : new TreeMap<>(p.getNapMap()).entrySet()){
+						NapData n = nap.getValue();
+						out.println(join("nap", nap.getKey(), String.valueOf(n.getNumberNaps()),
+								String.valueOf(n.getAverageNap()), String.valueOf(n.getMinNap()), String.valueOf(n.getMaxNap())));
+					}
+
+					for (SleepStats s : new TreeMap<>(p.getSleepStats()).values())
+						out.println(formatSleepStats(s));
+				}
+			}
+
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally{
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	static String formatSleepStats(SleepStats s){
+		return join("sleep", s.getLocalDate().toString(), orNone(s.getSleepOnset()), orNone(s.getSleepOffset()),
+				String.valueOf(s.getNightSleepPeriod()), String.valueOf(s.getTotalSleepTime()),
+				String.valueOf(s.getTotalWakeTime()), String.valueOf(s.getSleepEfficiency()),
+				String.valueOf(s.getPercentDailySleep()), String.valueOf(s.getEightToEight()),
+				String.valueOf(s.getSedentary()), String.valueOf(s.getLight()), String.valueOf(s.getMvpa()));
+	}
+
+	static SleepStats parseSleepStats(String[] fields){
+		SleepStats s = new SleepStats(LocalDate.parse(fields[1]), null, null);
+		s.setSleepOnset(fields[2].equals(NONE) ? null : LocalDateTime.parse(fields[2]));
+		s.setSleepOffset(fields[3].equals(NONE) ? null : LocalDateTime.parse(fields[3]));
+		s.setNightSleepPeriod(Long.parseLong(fields[4]));
+		s.setTotalSleepTime(Long.parseLong(fields[5]));
+		s.setTotalWakeTime(Long.parseLong(fields[6]));
+		s.setSleepEfficiency(Double.parseDouble(fields[7]));
+		s.setPercentDailySleep(Double.parseDouble(fields[8]));
+		s.setEightToEight(Long.parseLong(fields[9]));
+		s.setSedentary(Integer.parseInt(fields[10]));
+		s.setLight(Integer.parseInt(fields[11]));
+		s.setMvpa(Integer.parseInt(fields[12]));
+		return s;
+	}
+
+	/**
+	 * A digest of everything other than the input that the recorded results depend on.
+	 */
+	static String settingsDigest(String assessmentPoint, ScoringProfiles profiles){
+		MessageDigest digest = EpochSeriesCache.sha256();
+		digest.update(profiles.digest());
+		digest.update(join(assessmentPoint, SadehMain.options.getGapPolicy().name()).getBytes(StandardCharsets.UTF_8));
+		return EpochSeriesCache.toHex(digest.digest());
+	}
+
+	private static String orNone(Object value){
+		return (value == null) ? NONE : value.toString();
+	}
+
+	private static String join(String... fields){
+		return String.join("\t", fields);
+	}
+
+	private static String[] split(String line){
+		return (line == null) ? new String[0] : line.split("\t", -1);
+	}
+}
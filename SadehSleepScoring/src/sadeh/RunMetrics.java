@@ -0,0 +1,316 @@
+package sadeh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per-stage timings of a run (--metrics): for each participant the wall time and the bytes allocated by each
+ * stage of the pipeline, the number of epochs and epochs per second, and the most heap seen in use while it was
+ * processed; stages that are not about one participant (the EMA analysis and the participant data workbook) are
+ * recorded for the run as a whole. At the end of the run the report is written as JSON (when the file name ends
+ * with .json) or CSV, and the time spent in each stage is summarized in the run's main output.
+ *
+ * Like {@link Diagnostics}, the participant being processed belongs to the current thread. When metrics are off,
+ * {@link #start()} and {@link #stop(STAGE, long)} only check a flag, so the pipeline can be instrumented without
+ * slowing down runs that do not ask for a report.
+ *
+ * @author kyle_
+ *
+ */
+public class RunMetrics {
+	public enum STAGE {
+		PARSE, // Reading the Actical file (or the cached series)
+		SORT,
+		VALIDATE,
+		SCORE,
+		NAPS,
+		SLEEP_PERIODS,
+		SLEEP_STATS,
+		CREATE_WORKBOOK,
+		WRITE_WORKBOOK,
+		EMA // Parsing the EMA prompts and comparing them with the Actical data
+	}
+
+	static final STAGE[] STAGES = STAGE.values();
+	static boolean enabled = false;
+	static final ThreadLocal<Record> current = new ThreadLocal<>();
+	static final List<Record> participants = new ArrayList<>();
+	static Record run = new Record(null, null);
+	static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	/**
+	 * The measurements of one participant (or of the run, when participant is null).
+	 */
+	static class Record {
+		String participant;
+		String assessmentPoint;
+		int epochs;
+		boolean processed;
+		long started = System.nanoTime();
+		long elapsed;
+		long peakHeap;
+		long[] nanos = new long[STAGES.length];
+		long[] bytes = new long[STAGES.length];
+		//Allocated bytes of the thread when the current stage started
+		long stageBytes;
+
+		Record(String participant, String assessmentPoint){
+			this.participant = participant;
+			this.assessmentPoint = assessmentPoint;
+		}
+
+		long allocated(){
+			long total = 0;
+			for (long b : bytes)
+				total += b;
+
+			return total;
+		}
+
+		double epochsPerSecond(){
+			return (elapsed == 0) ? 0 : epochs / (elapsed / 1e9);
+		}
+	}
+
+	/**
+	 * Turns recording on; called once, before any participant is processed.
+	 */
+	public static void enable(){
+		enabled = true;
+		run = new Record(null, null);
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			pool.resetPeakUsage();
+	}
+
+	public static boolean isEnabled(){
+		return enabled;
+	}
+
+	public static void beginParticipant(String participant, String assessmentPoint){
+		if (enabled)
+			current.set(new Record(participant, assessmentPoint));
+	}
+
+	public static void setEpochs(int epochs){
+		if (enabled)
+			record().epochs = epochs;
+	}
+
+	/**
+	 * Records the current thread's participant; processed is false when it was skipped.
+	 */
+	public static void endParticipant(boolean processed){
+		if (!enabled)
+			return;
+
+		Record record = current.get();
+		current.remove();
+		if (record == null)
+			return;
+
+		record.processed = processed;
+		record.elapsed = System.nanoTime() - record.started;
+		synchronized (participants){
+			participants.add(record);
+		}
+	}
+
+	/**
+	 * Marks the start of a stage on the current thread.
+	 *
+	 * @return the value to pass to {@link #stop(STAGE, long)}
+	 */
+	public static long start(){
+		if (!enabled)
+			return 0;
+
+		record().stageBytes = allocatedBytes();
+		return System.nanoTime();
+	}
+
+	public static void stop(STAGE stage, long started){
+		if (!enabled)
+			return;
+
+		long now = System.nanoTime();
+		Record record = record();
+		record.nanos[stage.ordinal()] += now - started;
+		record.bytes[stage.ordinal()] += Math.max(0, allocatedBytes() - record.stageBytes);
+		record.peakHeap = Math.max(record.peakHeap, memory.getHeapMemoryUsage().getUsed());
+	}
+
+	private static Record record(){
+		Record record = current.get();
+		return (record == null) ? run : record;
+	}
+
+	private static long allocatedBytes(){
+		if (threads instanceof com.sun.management.ThreadMXBean){
+			long allocated = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+			return Math.max(0, allocated);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Writes the report and summarizes it in the main output.
+	 */
+	public static void finish(File report) throws IOException{
+		if (!enabled)
+			return;
+
+		run.elapsed = System.nanoTime() - run.started;
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+				peakHeap += pool.getPeakUsage().getUsed();
+		}
+		run.peakHeap = peakHeap;
+
+		List<Record> records;
+		synchronized (participants){
+			records = new ArrayList<>(participants);
+		}
+		records.sort(Comparator.comparing((Record r) -> r.assessmentPoint).thenComparing(r -> r.participant));
+		for (Record record : records)
+			run.epochs += record.epochs;
+
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report.toPath(), StandardCharsets.UTF_8))){
+			if (report.getName().toLowerCase(Locale.ENGLISH).endsWith(".json")){
+				writeJson(out, records);
+			} else{
+				writeCsv(out, records);
+			}
+		}
+
+		summarize(records);
+	}
+
+	static void writeCsv(PrintWriter out, List<Record> records){
+		StringBuilder header = new StringBuilder("participant,assessment_point,processed,epochs,total_ms,epochs_per_sec,"
+				+ "allocated_bytes,peak_heap_bytes");
+		for (STAGE stage : STAGES)
+			header.append(',').append(stage.name().toLowerCase(Locale.ENGLISH)).append("_ms,")
+				.append(stage.name().toLowerCase(Locale.ENGLISH)).append("_bytes");
+		out.println(header);
+
+		for (Record record : records)
+			out.println(csvRow(record));
+		out.println(csvRow(run));
+	}
+
+	private static String csvRow(Record record){
+		StringBuilder row = new StringBuilder();
+		row.append(csv((record.participant == null) ? "(run)" : record.participant)).append(',')
+			.append(csv((record.assessmentPoint == null) ? "" : record.assessmentPoint)).append(',')
+			.append((record == run) || record.processed).append(',')
+			.append(record.epochs).append(',')
+			.append(millis(record.elapsed)).append(',')
+			.append(String.format(Locale.ROOT, "%.1f", record.epochsPerSecond())).append(',')
+			.append(record.allocated()).append(',')
+			.append(record.peakHeap);
+		for (int s = 0; s < STAGES.length; s++)
+			row.append(',').append(millis(record.nanos[s])).append(',').append(record.bytes[s]);
+
+		return row.toString();
+	}
+
+	private static String csv(String value){
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0)
+			return value;
+
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	static void writeJson(PrintWriter out, List<Record> records){
+		out.println("{");
+		out.println("  \"run\": " + jsonObject(run) + ",");
+		out.println("  \"participants\": [");
+		for (int i = 0; i < records.size(); i++)
+			out.println("    " + jsonObject(records.get(i)) + ((i < records.size() - 1) ? "," : ""));
+		out.println("  ]");
+		out.println("}");
+	}
+
+	private static String jsonObject(Record record){
+		StringBuilder json = new StringBuilder("{");
+		if (record.participant != null){
+			json.append("\"participant\": ").append(json(record.participant))
+				.append(", \"assessmentPoint\": ").append(json(record.assessmentPoint))
+				.append(", \"processed\": ").append(record.processed).append(", ");
+		}
+
+		json.append("\"epochs\": ").append(record.epochs)
+			.append(", \"totalMs\": ").append(millis(record.elapsed))
+			.append(", \"epochsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", record.epochsPerSecond()))
+			.append(", \"allocatedBytes\": ").append(record.allocated())
+			.append(", \"peakHeapBytes\": ").append(record.peakHeap)
+			.append(", \"stages\": {");
+		for (int s = 0; s < STAGES.length; s++){
+			json.append((s == 0) ? "" : ", ").append(json(STAGES[s].name().toLowerCase(Locale.ENGLISH)))
+				.append(": {\"ms\": ").append(millis(record.nanos[s]))
+				.append(", \"bytes\": ").append(record.bytes[s]).append('}');
+		}
+
+		return json.append("}}").toString();
+	}
+
+	private static String json(String value){
+		StringBuilder json = new StringBuilder("\"");
+		for (char c : value.toCharArray()){
+			if (c == '"' || c == '\\'){
+				json.append('\\').append(c);
+			} else if (c < 0x20){
+				json.append(String.format("\\u%04x", (int) c));
+			} else{
+				json.append(c);
+			}
+		}
+
+		return json.append('"').toString();
+	}
+
+	private static String millis(long nanos){
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	/*
+	 * The time spent in each stage over every participant (the workers' time, which is more than the run's
+	 * wall time when there are several workers), and the run's throughput.
+	 */
+	static void summarize(List<Record> records){
+		long[] nanos = run.nanos.clone();
+		for (Record record : records){
+			for (int s = 0; s < STAGES.length; s++)
+				nanos[s] += record.nanos[s];
+		}
+
+		long total = 0;
+		for (long n : nanos)
+			total += n;
+
+		Diagnostics.summary(() -> "Processed " + records.size() + " participants (" + run.epochs + " epochs) in "
+				+ millis(run.elapsed) + " ms, " + String.format(Locale.ROOT, "%.1f", run.epochsPerSecond())
+				+ " epochs per second, peak heap " + (run.peakHeap >> 20) + " MB");
+		for (int s = 0; s < STAGES.length; s++){
+			STAGE stage = STAGES[s];
+			long stageNanos = nanos[s];
+			double percent = (total == 0) ? 0 : 100.0 * stageNanos / total;
+			Diagnostics.summary(() -> String.format(Locale.ROOT, "%-16s %12s ms %5.1f%%", stage, millis(stageNanos), percent));
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package sadeh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optional settings for a run of {@link SadehMain}. These are given on the command line after (or between) the
+ * positional arguments in the form --name=value, e.g. --reader=streaming. Arguments that do not start with "--"
+ * are returned as positional arguments in their original order.
+ *
+ * @author kyle_
+ *
+ */
+public class RunOptions {
+	public static final String READER = "reader";
+	public static final String WRITER = "writer";
+	public static final String WORKERS = "workers";
+	public static final String DIAGNOSTICS = "diagnostics";
+	public static final String EMA_WINDOW = "ema-window";
+	public static final String CACHE = "cache";
+	public static final String MANIFEST = "manifest";
+	public static final String PROFILE = "profile";
+	public static final String PROFILES = "profiles";
+	public static final String BATCH = "batch";
+	public static final String METRICS = "metrics";
+	public static final String GAPS = "gaps";
+	public static final String WATCH = "watch";
+	//Settle time of --watch when no value is given
+	public static final int DEFAULT_WATCH_SECONDS = 10;
+
+	public enum READER_MODE {
+		WORKBOOK, // Load the whole workbook with POI's WorkbookFactory
+		STREAMING // Read the Actical worksheet row by row with the POI event API
+	}
+
+	public enum WRITER_MODE {
+		WORKBOOK, // Build each output workbook in memory before writing it
+		STREAMING // Write the output workbooks through a window of rows (SXSSF)
+	}
+
+	public enum GAP_POLICY {
+		ABORT, // Skip a participant whose epochs are not all one minute apart, it must be manually processed
+		SPLIT, // Drop repeated minutes and score each run of consecutive minutes on its own
+		PAD // Drop repeated minutes and fill missing minutes with epochs of 0 activity (non-wear)
+	}
+
+	protected READER_MODE readerMode = READER_MODE.WORKBOOK;
+	protected WRITER_MODE writerMode = WRITER_MODE.WORKBOOK;
+	//Number of participants processed at the same time; 1 processes the participants one after another
+	protected int workers = 1;
+	protected Diagnostics.LEVEL diagnostics = Diagnostics.LEVEL.SUMMARY;
+	//Minutes of Actical data (up to the prompt time) compared with each EMA prompt
+	protected int emaWindow = 10;
+	//Folder of the parsed participant data cache, or null to parse every workbook on every run
+	protected String cacheFolder = null;
+	//Manifest of the previous run's results, or null to process every participant on every run
+	protected String manifest = null;
+	//Scoring profile of the participants not in the profile mapping: adult, toddler or a properties file
+	protected String profile = null;
+	//File mapping participants to their scoring profile, or null to score every participant with the same profile
+	protected String profileMapping = null;
+	//File listing the input folder of each assessment point to process, or null to process a single assessment point
+	protected String batch = null;
+	//File the per-stage timings are written to (JSON if it ends with .json, otherwise CSV), or null to not record them
+	protected String metrics = null;
+	protected GAP_POLICY gapPolicy = GAP_POLICY.ABORT;
+	//Seconds a new or changed input file must be left unchanged before it is processed, or 0 to process the input
+	//folder once rather than watching it
+	protected int watch = 0;
+	protected List<String> positional = new ArrayList<>();
+
+	public static RunOptions parse(String[] args) {
+		RunOptions options = new RunOptions();
+
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				options.positional.add(arg);
+				continue;
+			}
+
+			String[] nameValue = arg.substring(2).split("=", 2);
+			String name = nameValue[0];
+			String value = (nameValue.length > 1) ? nameValue[1] : "";
+
+			switch (name) {
+			case READER:
+				options.readerMode = READER_MODE.valueOf(value.toUpperCase());
+				break;
+			case WRITER:
+				options.writerMode = WRITER_MODE.valueOf(value.toUpperCase());
+				break;
+			case WORKERS:
+				options.workers = Integer.parseInt(value);
+				if (options.workers < 1)
+					throw new IllegalArgumentException("--" + WORKERS + " must be at least 1");
+				break;
+			case DIAGNOSTICS:
+				options.diagnostics = Diagnostics.LEVEL.valueOf(value.toUpperCase());
+				break;
+			case CACHE:
+				options.cacheFolder = value;
+				break;
+			case MANIFEST:
+				options.manifest = value;
+				break;
+			case PROFILE:
+				options.profile = value;
+				break;
+			case PROFILES:
+				options.profileMapping = value;
+				break;
+			case BATCH:
+				options.batch = value;
+				break;
+			case METRICS:
+				options.metrics = value;
+				break;
+			case GAPS:
+				options.gapPolicy = GAP_POLICY.valueOf(value.toUpperCase());
+				break;
+			case WATCH:
+				options.watch = value.isEmpty() ? DEFAULT_WATCH_SECONDS : Integer.parseInt(value);
+				if (options.watch < 1)
+					throw new IllegalArgumentException("--" + WATCH + " must be at least 1");
+				break;
+			case EMA_WINDOW:
+				options.emaWindow = Integer.parseInt(value);
+				if (options.emaWindow < 1)
+					throw new IllegalArgumentException("--" + EMA_WINDOW + " must be at least 1");
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option --" + name);
+			}
+		}
+
+		return options;
+	}
+
+	public String[] getPositional() {
+		return positional.toArray(new String[positional.size()]);
+	}
+
+	public READER_MODE getReaderMode() {
+		return readerMode;
+	}
+
+	public void setReaderMode(READER_MODE readerMode) {
+		this.readerMode = readerMode;
+	}
+
+	public WRITER_MODE getWriterMode() {
+		return writerMode;
+	}
+
+	public void setWriterMode(WRITER_MODE writerMode) {
+		this.writerMode = writerMode;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	public Diagnostics.LEVEL getDiagnostics() {
+		return diagnostics;
+	}
+
+	public void setDiagnostics(Diagnostics.LEVEL diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	public int getEmaWindow() {
+		return emaWindow;
+	}
+
+	public void setEmaWindow(int emaWindow) {
+		this.emaWindow = emaWindow;
+	}
+
+	public String getCacheFolder() {
+		return cacheFolder;
+	}
+
+	public void setCacheFolder(String cacheFolder) {
+		this.cacheFolder = cacheFolder;
+	}
+
+	public String getManifest() {
+		return manifest;
+	}
+
+	public void setManifest(String manifest) {
+		this.manifest = manifest;
+	}
+
+	public String getProfile() {
+		return profile;
+	}
+
+	public void setProfile(String profile) {
+		this.profile = profile;
+	}
+
+	public String getProfileMapping() {
+		return profileMapping;
+	}
+
+	public void setProfileMapping(String profileMapping) {
+		this.profileMapping = profileMapping;
+	}
+
+	/**
+	 * The batch file (see {@link AssessmentBatch}); when set, the only positional argument is the output folder.
+	 */
+	public String getBatch() {
+		return batch;
+	}
+
+	public void setBatch(String batch) {
+		this.batch = batch;
+	}
+
+	public String getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(String metrics) {
+		this.metrics = metrics;
+	}
+
+	public GAP_POLICY getGapPolicy() {
+		return gapPolicy;
+	}
+
+	public void setGapPolicy(GAP_POLICY gapPolicy) {
+		this.gapPolicy = gapPolicy;
+	}
+
+	public int getWatch() {
+		return watch;
+	}
+
+	public void setWatch(int watch) {
+		this.watch = watch;
+	}
+}
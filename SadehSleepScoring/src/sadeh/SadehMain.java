@@ -3,30 +3,49 @@ package sadeh;
 import ema.*;
 import excel.*;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Optional;
 
 import excel.ActicalDataOutputException;
+import excel.ActicalDelimitedParser;
 import excel.ActicalExcelParser;
 import excel.ActivityThresholdWorkbook;
 import excel.EMAExcelParser;
+import excel.EMAStreamingParser;
 import ema.EMAPrompt;
+import ema.EMAPromptIndex;
 import excel.ParticipantDataParseException;
+import excel.LongitudinalWorkbook;
 import excel.ParticipantWorkbook;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import analysis.DailyEpochCounts;
 import analysis.SleepPeriod;
+import analysis.SleepPeriodDetector;
+import analysis.SleepPeriodIndex;
 import analysis.SleepStats;
 import analysis.Utils;
 import sadeh.SleepAnalysis.ACTIVITY_LEVEL;
@@ -44,10 +63,37 @@ import sadeh.SleepAnalysis.SLEEP_PROBABILITY;
  */
 public class SadehMain {
 	static PrintStream text_results = null;
-	static int PRECEDING_CONSECUTIVE_AWAKE = 1;
-	static int SUCCESSIVE_AWAKE_EPOCHS = 5;
+	static RunOptions options = new RunOptions();
+	static ScoringProfiles profiles = new ScoringProfiles(ScoringProfile.DEFAULT);
 	
 	public static void main(String[] args){
+		options = RunOptions.parse(args);
+		args = options.getPositional();
+		Diagnostics.setLevel(options.getDiagnostics());
+		try{
+			profiles = ScoringProfiles.load(options.getProfile(), options.getProfileMapping());
+		} catch (IOException | IllegalArgumentException e){
+			System.out.println("Error reading the scoring profiles. Error: " + e.getMessage());
+			return;
+		}
+		
+		if (options.getMetrics() != null)
+			RunMetrics.enable();
+		
+		if (options.getBatch() != null){
+			runBatch(new File(options.getBatch()), args[0]);
+			finishMetrics();
+			return;
+		}
+		
+		if (options.getWatch() > 0){
+			if (args.length > 3)
+				System.out.println("EMA data is not analyzed when the input folder is watched.");
+			
+			runWatch(args[0], args[1], args[2]);
+			return;
+		}
+		
 		String inputPath = args[0];
 		String outputPath = args[1];
 		String assessmentPoint = args[2];
@@ -59,7 +105,7 @@ public class SadehMain {
 			directive = args[4];
 		}
 		
-		List<EMAPrompt> prompts = null;
+		EMAPromptIndex emaPrompts = null;
 		List<ActicalParticipant> emaAnalysisParticipants = null;
 		PrintStream ema_results = null;
 		
@@ -67,13 +113,20 @@ public class SadehMain {
 			try{
 				ema_results = new PrintStream(new File(outputPath + "\\emaresults.txt"));
 				System.setOut(ema_results);
-				prompts =
-						EMAExcelParser.parseEcologicalMomentaryAssessment(Paths.get(emaPath).toFile());
-				for (EMAPrompt prompt : prompts){
-					System.out.println(prompt.toString());
+				long started = RunMetrics.start();
+				File emaFile = Paths.get(emaPath).toFile();
+				if (options.getReaderMode() == RunOptions.READER_MODE.STREAMING){
+					emaPrompts = EMAStreamingParser.parseEcologicalMomentaryAssessment(emaFile, 
+							prompt -> System.out.println(prompt.toString()));
+				} else{
+					List<EMAPrompt> prompts = EMAExcelParser.parseEcologicalMomentaryAssessment(emaFile);
+					for (EMAPrompt prompt : prompts){
+						System.out.println(prompt.toString());
+					}
+					
+					emaPrompts = EMAPromptIndex.of(prompts);
 				}
-				
-				Collections.sort(prompts, (a, b) -> a.getDateTime().compareTo(b.getDateTime()));
+				RunMetrics.stop(RunMetrics.STAGE.EMA, started);
 			} catch (Exception e){
 				e.printStackTrace();
 				System.out.println("Error parsing EMA input file. Error: " + e.getMessage());
@@ -86,452 +139,814 @@ public class SadehMain {
 			PrintStream participantsSkipped = new PrintStream(new File(outputPath + "\\participants_skipped.txt"));
 			
 			System.setOut(text_results);
+			Diagnostics.setMainOutput(text_results);
 			List<ActicalParticipant> participants = new ArrayList<>();
 			
-			try(Stream<Path> paths = Files.walk(Paths.get(inputPath), 1)) {
-			    paths.forEach(filePath -> {
-			        if (Files.isRegularFile(filePath)) {
-			        	System.out.println(filePath);
-			        	ActicalParticipant p = process(filePath.toFile(), assessmentPoint, outputPath);
-			        	
-			        	if (p != null){
-			        		participants.add(p);
-			        	} else{
-			        		participantsSkipped.println("The participant " + getParticipantName(filePath.toFile()) + " was skipped.");
-			        	}
-			        }
-			    });
+			RunManifest manifest = null;
+			if (options.getManifest() != null){
+				if (directive != null && directive.equals("PARSE_EMA")){
+					//EMA analysis needs the epochs of every participant, which the manifest does not have
+					Diagnostics.summary(() -> "EMA data is being analyzed, so every participant will be processed.");
+				} else{
+					try{
+						manifest = RunManifest.load(new File(options.getManifest()), assessmentPoint, profiles);
+					} catch (IOException e){
+						Diagnostics.error("Exception: " + e.getMessage() + ", every participant will be processed.");
+					}
+				}
+			}
+			
+			try {
+				List<File> files = listInputFiles(new File(inputPath));
+				participants = processAll(files, assessmentPoint, outputPath, participantsSkipped, manifest);
 			} catch (Exception ex){
 				ex.printStackTrace();
 				System.out.println(ex.getMessage());
 			}
 			
+			long started = RunMetrics.start();
 			ParticipantWorkbook pwb = new ParticipantWorkbook(participants);
+			pwb.setStreaming(options.getWriterMode() == RunOptions.WRITER_MODE.STREAMING);
 			pwb.create();
+			RunMetrics.stop(RunMetrics.STAGE.CREATE_WORKBOOK, started);
+			started = RunMetrics.start();
 			pwb.write(outputPath + "\\participantData.xlsx");
+			RunMetrics.stop(RunMetrics.STAGE.WRITE_WORKBOOK, started);
 			participantsSkipped.flush();
 			participantsSkipped.close();
+			
+			if (manifest != null)
+				manifest.write();
 			emaAnalysisParticipants = participants;
 		} catch (Exception e){
 			e.printStackTrace();
 			System.out.println(e.getMessage());
+		} finally{
+			Diagnostics.flush();
 		}
 		
 		if (directive != null && directive.equals("PARSE_EMA")){
 			System.setOut(ema_results);
-			HashMap<String, List<EMAPrompt>> emaMap = createEmaPromptMap(prompts);
 			
 			//Associate the EMA prompt data with the correct Actical Participant.
+			Set<String> acticalParticipants = new HashSet<>();
 			for (ActicalParticipant p : emaAnalysisParticipants){
-				if (emaMap.containsKey(p.getParticipant())){
+				acticalParticipants.add(p.getParticipant());
+				List<EMAPrompt> participantPrompts = emaPrompts.get(p.getParticipant());
+				if (participantPrompts != null){
 					System.out.println("Actical participant " + p.getParticipant() + " has EMA data.");
-					p.setEmaPrompts(emaMap.get(p.getParticipant()));
+					p.setEmaPrompts(participantPrompts);
 				} else{
 					System.out.println("Actical participant " + p.getParticipant() + " does not have any EMA data.");
 				}
 			}
 			
 			//Check if there are any EMA participants that do not have any Actical data
-			for (String participant : emaMap.keySet()){
-				Optional<ActicalParticipant> oap = 
-						emaAnalysisParticipants.stream().filter(p -> p.getParticipant().equals(participant)).findFirst();
-				if (!oap.isPresent()){
+			for (String participant : emaPrompts.getParticipants()){
+				if (!acticalParticipants.contains(participant)){
 					System.out.println("The EMAPrompt participant " + participant + " does not have any Actical data.");
 				}
 			}
 			
 			try{
+				long started = RunMetrics.start();
 				List<EMAResult> allResults = new ArrayList<>();
 				for (ActicalParticipant p : emaAnalysisParticipants){
+					p.setEmaWindowMinutes(options.getEmaWindow());
 					p.analyzeEmaData(p.getEmaPrompts());
 					allResults.addAll(p.results);
 				}
 				
+				RunMetrics.stop(RunMetrics.STAGE.EMA, started);
+				
+				started = RunMetrics.start();
 				EMAWorkbook emaWb = new EMAWorkbook(allResults);
 				emaWb.create();
+				RunMetrics.stop(RunMetrics.STAGE.CREATE_WORKBOOK, started);
+				started = RunMetrics.start();
 				emaWb.write(outputPath + "\\emaData.xlsx");
+				RunMetrics.stop(RunMetrics.STAGE.WRITE_WORKBOOK, started);
 			} catch (Exception e){
 				e.printStackTrace();
 				System.out.println("FATAL ERROR ANALYZING EMA DATA." + e.getMessage());
 			}
 		}
+		
+		finishMetrics();
 	}
 	
-	public static HashMap<String, List<EMAPrompt>> createEmaPromptMap(List<EMAPrompt> prompts){
-		HashMap<String, List<EMAPrompt>> map = new HashMap<String, List<EMAPrompt>>();
+	/**
+	 * Writes the --metrics report, if there is one.
+	 */
+	static void finishMetrics(){
+		if (!RunMetrics.isEnabled())
+			return;
 		
-		for (EMAPrompt prompt : prompts){
-			String participant = prompt.getParticipant();
-			List<EMAPrompt> currentParticipantPrompts = null;
-	
-			if (map.containsKey(participant)){
-				currentParticipantPrompts = map.get(participant);
-			} else{
-				currentParticipantPrompts = new ArrayList<EMAPrompt>();
-			}
-			
-			currentParticipantPrompts.add(prompt);
-			map.put(participant, currentParticipantPrompts);
+		try{
+			RunMetrics.finish(new File(options.getMetrics()));
+		} catch (IOException e){
+			Diagnostics.error("Unable to write the metrics report " + options.getMetrics() + ": " + e.getMessage());
+		} finally{
+			Diagnostics.flush();
 		}
-		
-		return map;
-	}
-	
-	private static String getParticipantName(File file){
-		String[] names = file.getName().split("\\.");
-		return names[0];
 	}
 	
 	/**
-	 * A sleep period uses the data from the sadeh algorithm to find time periods where an 
-	 * individual is sleeping. 15 or more epochs of asleep (or napping) preceded and followed by 5 minutes of 
-	 * awake (e.g. light, sedentary, or mvpa activity level) counts as a sleep period. Once 15 consecutive epochs
-	 * of sleep are reached, all other epochs still count as part of the sleep period up until there are 5 consecutive 
-	 * awake epochs. For example, if the 16th epoch is awake but the 17th is asleep, then 18-22 are all awake, the sleep
-	 * period would contain epochs 1-17, even though epoch 16 was awake.
+	 * Processes every assessment point of the batch file in this run, with one pool of --workers threads for all of
+	 * them. The files of every assessment point are queued before any results are collected, so the workers move
+	 * on to the next assessment point rather than waiting for the slowest participant of the previous one, and
+	 * the parsers and scorers are only loaded (and warmed up) once.
 	 * 
-	 * @return
-	 * @throws ParticipantDataParseException 
+	 * Each assessment point has its own participant workbooks, participantData_[assessment point].xlsx and
+	 * participants_skipped_[assessment point].txt (and, with --manifest, its own manifest, named after the given one
+	 * with the assessment point appended). longitudinalData.xlsx has the participant data of every assessment point,
+	 * grouped by participant. Results.txt is shared by every assessment point.
 	 */
-	public static List<SleepPeriod> getSleepPeriods(List<ActicalEpoch> epochs) throws ParticipantDataParseException{
-		List<SleepPeriod> sleepPeriods = new ArrayList<>();
-		List<ActicalEpoch> possibleSleepPeriod = new ArrayList<>();
-		List<PossibleSleepPeriod> psps = new ArrayList<>();
-		int sleepStartingIndex = -1;
-		
-		/*
-		 * Find any groups of 15 consecutive epochs that are coded as "asleep" or "napping". 
-		 * This is a possible sleep period. To determine if it is actually a sleep period,
-		 * we will later calculate whether the group is preceded (and followed) by 5 or more
-		 * consecutive "awake" epochs.
-		 */
-		for (int i = 0; i < epochs.size(); i++){
-			ActicalEpoch current = epochs.get(i);
-			if (current.isAsleep()){
-				if (possibleSleepPeriod.isEmpty()){
-					sleepStartingIndex = i;
+	static void runBatch(File batchFile, String outputPath){
+		List<AssessmentBatch.Assessment> assessments = null;
+		try{
+			assessments = AssessmentBatch.load(batchFile).getAssessments();
+		} catch (IOException e){
+			System.out.println("Error reading the batch file. Error: " + e.getMessage());
+			return;
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(options.getWorkers());
+		try {
+			text_results = new PrintStream(new File(outputPath + "\\results.txt"));
+			System.setOut(text_results);
+			Diagnostics.setMainOutput(text_results);
+			
+			List<List<File>> files = new ArrayList<>();
+			List<RunManifest> manifests = new ArrayList<>();
+			List<List<Future<ActicalParticipant>>> futures = new ArrayList<>();
+			for (AssessmentBatch.Assessment assessment : assessments){
+				String assessmentPoint = assessment.getAssessmentPoint();
+				RunManifest manifest = null;
+				if (options.getManifest() != null){
+					try{
+						manifest = RunManifest.load(new File(options.getManifest() + "_" + assessmentPoint), 
+								assessmentPoint, profiles);
+					} catch (IOException e){
+						Diagnostics.error("Exception: " + e.getMessage() + ", every participant of the assessment point "
+								+ assessmentPoint + " will be processed.");
+					}
 				}
 				
-				possibleSleepPeriod.add(current);
-			} 
-			
-			if (!current.isAsleep() || i == epochs.size()-1){
-				if (possibleSleepPeriod.size() >= 15){
-					PossibleSleepPeriod psp = new PossibleSleepPeriod();
-					psp.epochListStartingIndex = sleepStartingIndex;
-					psp.epochs = possibleSleepPeriod;
-					psps.add(psp);
+				List<File> assessmentFiles = new ArrayList<>();
+				try{
+					assessmentFiles = listInputFiles(assessment.getInputFolder());
+				} catch (IOException e){
+					Diagnostics.error("Unable to read the folder " + assessment.getInputFolder().getAbsolutePath() 
+							+ " of the assessment point " + assessmentPoint + ": " + e.getMessage());
 				}
 				
-				possibleSleepPeriod = new ArrayList<>();
-				sleepStartingIndex = -1;
+				files.add(assessmentFiles);
+				manifests.add(manifest);
+				futures.add(submitAll(pool, assessmentFiles, assessmentPoint, outputPath, manifest));
 			}
-		}
-		
-		/*
-		 * For each possible sleep period, find the end of the sleep period by finding the point where
-		 * there are 5 consecutive "awake" epochs. If there is no such point (which might happen at the end
-		 * of the data set) the possible sleep period will be discarded, since it isn't really a sleep period.
-		 */
-		Iterator<PossibleSleepPeriod> pspIt = psps.iterator();
-		while (pspIt.hasNext()){
-			PossibleSleepPeriod psp = pspIt.next();
-			List<ActicalEpoch> eps = psp.epochs;
-			int possibleSleepEpochDsIdx = epochs.indexOf(eps.get(eps.size()-1));
-			//Verify that the possible sleep period's starting index is the same as the index of the epoch in the data set 
-			if (possibleSleepEpochDsIdx != psp.epochListStartingIndex+eps.size()-1)
-				throw new ParticipantDataParseException("Possible sleep period starting at " + eps.get(0).asEpochDateTime() 
-						+ " starting index of " + (psp.epochListStartingIndex+eps.size()) + " does not match expected index of " + possibleSleepEpochDsIdx);
-			
-			int consecutiveAwake = 0;
-			ArrayList<ActicalEpoch> additionalSleepochs = new ArrayList<>();
-			ArrayList<ActicalEpoch> tempSleepochs = new ArrayList<>();
-			boolean hasWakePeriod = false; //is there data indicating person woke up; if not it's probably the end of the data collected
 			
-			//work forwards to see if there are 5 consecutive awake epochs after this sleep period.
-			//also, the possible sleep period only contains 15 epochs (the minimum) but might actually
-			//have more; this loop will add any additional epochs to the sleep period as necessary.
-			//(See the definition of 'sleep period' in the method Javadoc for more information)
-			for (int i = possibleSleepEpochDsIdx+1; i < epochs.size(); i++){
-				ActicalEpoch epoch = epochs.get(i);
-				if (!epoch.isAsleep()){
-					consecutiveAwake++;
-					//The current epoch might be part of the sleep period or might indicate the end of the sleep period.
-					//That determination depends on whether it is part of 5 consecutive 'awake' epochs or not.
-					tempSleepochs.add(epoch);
-				} else{
-					consecutiveAwake = 0;
-					additionalSleepochs.addAll(tempSleepochs);
-					additionalSleepochs.add(epoch);
-					tempSleepochs = new ArrayList<>();
-				}
+			List<ActicalParticipant> allParticipants = new ArrayList<>();
+			List<String> assessmentPoints = new ArrayList<>();
+			for (int a = 0; a < assessments.size(); a++){
+				String assessmentPoint = assessments.get(a).getAssessmentPoint();
+				assessmentPoints.add(assessmentPoint);
 				
-				if (consecutiveAwake >= SUCCESSIVE_AWAKE_EPOCHS){
-					psp.epochs.addAll(additionalSleepochs);
-					hasWakePeriod = true;
-					break;
+				try (PrintStream participantsSkipped = new PrintStream(
+						new File(outputPath + "\\participants_skipped_" + assessmentPoint + ".txt"))){
+					List<ActicalParticipant> participants = collectAll(files.get(a), futures.get(a), participantsSkipped);
+					
+					long started = RunMetrics.start();
+					ParticipantWorkbook pwb = new ParticipantWorkbook(participants);
+					pwb.setStreaming(options.getWriterMode() == RunOptions.WRITER_MODE.STREAMING);
+					pwb.create();
+					RunMetrics.stop(RunMetrics.STAGE.CREATE_WORKBOOK, started);
+					started = RunMetrics.start();
+					pwb.write(outputPath + "\\participantData_" + assessmentPoint + ".xlsx");
+					RunMetrics.stop(RunMetrics.STAGE.WRITE_WORKBOOK, started);
+					
+					if (manifests.get(a) != null)
+						manifests.get(a).write();
+					allParticipants.addAll(participants);
+				} catch (ActicalDataOutputException | IOException e){
+					e.printStackTrace();
+					Diagnostics.error("Exception: " + e.getMessage() + " for the assessment point " + assessmentPoint);
 				}
 			}
 			
-			if (!hasWakePeriod){
-				System.out.println("Possible sleep period of 15+ sleep epochs starting at " + eps.get(0).asEpochDateTime()
-						+ " is determined not to be a sleep period because it does not end with 5 awake epochs.");
-				pspIt.remove();
-			}
+			long started = RunMetrics.start();
+			LongitudinalWorkbook lwb = new LongitudinalWorkbook(allParticipants, assessmentPoints);
+			lwb.setStreaming(options.getWriterMode() == RunOptions.WRITER_MODE.STREAMING);
+			lwb.create();
+			RunMetrics.stop(RunMetrics.STAGE.CREATE_WORKBOOK, started);
+			started = RunMetrics.start();
+			lwb.write(outputPath + "\\longitudinalData.xlsx");
+			RunMetrics.stop(RunMetrics.STAGE.WRITE_WORKBOOK, started);
+		} catch (Exception e){
+			e.printStackTrace();
+			System.out.println(e.getMessage());
+		} finally{
+			pool.shutdownNow();
+			Diagnostics.flush();
 		}
+	}
+	
+	/**
+	 * Processes the input folder and then keeps watching it (--watch), so that exports dropped into the folder during
+	 * the day are processed in the same warm JVM, with the same pool of --workers threads, as soon as they have been
+	 * completely written (see {@link InputFolderWatcher}). Only the participants whose file was added or changed are
+	 * processed again; the results of the others are kept, and participants whose file is deleted are removed.
+	 * After each change participantData.xlsx and participants_skipped.txt are replaced (and, with --manifest, the
+	 * manifest is written, so a restarted watch does not process the unchanged participants again either); if they
+	 * cannot be replaced, e.g. because participantData.xlsx is open in Excel, the error is reported and they are
+	 * written again after the next change.
+	 * 
+	 * The folder is watched until the process is stopped.
+	 */
+	static void runWatch(String inputPath, String outputPath, String assessmentPoint){
+		File inputFolder = new File(inputPath);
+		ExecutorService pool = Executors.newFixedThreadPool(options.getWorkers());
+		Runtime.getRuntime().addShutdownHook(new Thread(SadehMain::finishMetrics));
 		
-		for (PossibleSleepPeriod psp : psps){
-			List<ActicalEpoch> eps = psp.epochs;
-			System.out.println("Possible sleep period: individual has 15+ sleep epochs starting at " + eps.get(0).asEpochDateTime());
-
-			//for the first epoch in the sleep period, find its place within the data set
-			int possibleSleepEpochDsIdx = epochs.indexOf(eps.get(0));
-			//Verify that the possible sleep period's starting index is the same as the index of the first epoch in the data set (it should be)
-			if (possibleSleepEpochDsIdx != psp.epochListStartingIndex)
-				throw new ParticipantDataParseException("Possible sleep period starting at " + eps.get(0).asEpochDateTime() 
-						+ " starting index of " + psp.epochListStartingIndex + " does not match expected index of " + possibleSleepEpochDsIdx);
+		try (InputFolderWatcher watcher = new InputFolderWatcher(inputFolder, options.getWatch())){
+			text_results = new PrintStream(new File(outputPath + "\\results.txt"));
+			System.setOut(text_results);
+			Diagnostics.setMainOutput(text_results);
 			
-			int consecutiveAwake = 0;
-			//work backwards to see if there are enough consecutive awake epochs before this sleep period
-			for (int i = psp.epochListStartingIndex-1; i >= 0; i--){
-				ActicalEpoch epoch = epochs.get(i);
-				if (!epoch.isAsleep()){
-					consecutiveAwake++;
-				} else{
-					break;
+			RunManifest manifest = null;
+			if (options.getManifest() != null){
+				try{
+					manifest = RunManifest.load(new File(options.getManifest()), assessmentPoint, profiles);
+				} catch (IOException e){
+					Diagnostics.error("Exception: " + e.getMessage() + ", every participant will be processed.");
+				}
+			}
+			
+			//The result of each input file processed so far; null if the participant was skipped
+			Map<File, ActicalParticipant> results = new HashMap<>();
+			List<File> changed = listInputFiles(inputFolder);
+			
+			while (true){
+				List<File> files = new ArrayList<>();
+				for (File file : changed){
+					if (manifest != null){
+						try{
+							manifest.forget(file);
+						} catch (IOException e){
+							Diagnostics.error("Exception: " + e.getMessage() + " when removing " + file.getName() 
+									+ " from the manifest.");
+						}
+					}
+					
+					if (file.isFile()){
+						files.add(file);
+					} else if (results.containsKey(file)){
+						results.remove(file);
+						Diagnostics.summary(() -> "The participant " + getParticipantName(file) + " was removed.");
+					}
 				}
 				
-				if (consecutiveAwake >= PRECEDING_CONSECUTIVE_AWAKE){
-					SleepPeriod sp = new SleepPeriod(psp.epochs);
-					sleepPeriods.add(sp);
-					break;
+				List<Future<ActicalParticipant>> futures = submitAll(pool, files, assessmentPoint, outputPath, manifest);
+				for (int i = 0; i < files.size(); i++)
+					results.put(files.get(i), collect(futures.get(i)));
+				
+				//The output may be open (and locked) in Excel; the results are kept and written after the next change
+				try{
+					writeWatchResults(inputFolder, results, outputPath, manifest);
+				} catch (IOException | ActicalDataOutputException e){
+					Diagnostics.error("Exception: " + e.getMessage() + " when writing the results, they will be written"
+							+ " again after the next change.");
 				}
+				
+				Diagnostics.summary(() -> "Watching " + inputFolder.getPath() + " for new or changed Actical files.");
+				Diagnostics.flush();
+				changed = watcher.take();
 			}
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		} catch (Exception e){
+			e.printStackTrace();
+			System.out.println(e.getMessage());
+		} finally{
+			pool.shutdownNow();
+			Diagnostics.flush();
 		}
-		
-		return sleepPeriods;
 	}
 	
-	public static NapData calculateNapData(List<ActicalEpoch> epochs){
-		int consecutiveNappingEpochs = 0;
-		List<Integer> naps = new ArrayList<>();
-		double averageNapDurationMinutes = 0;
-		int minNapDurationMinutes = Integer.MAX_VALUE;
-		int maxNapDurationMinutes = 0;
-		
-		for (int i = 0; i < epochs.size(); i++){
-			ActicalEpoch epoch = epochs.get(i);
-			boolean napping = epoch.getActivityThreshold() == ACTIVITY_LEVEL.NAPPING;
-			
-			if (napping){
-				consecutiveNappingEpochs++;
-			} 
-			
-			if ((!napping && consecutiveNappingEpochs >= 30) ||
-					(i == epochs.size()-1 && consecutiveNappingEpochs >= 30)){
-				naps.add(consecutiveNappingEpochs);
-				consecutiveNappingEpochs = 0;
+	/*
+	 * Replaces the participant workbook and the skipped participant report of a --watch run with the current
+	 * results, in the order of the input files, as a run over the whole folder would write them.
+	 */
+	private static void writeWatchResults(File inputFolder, Map<File, ActicalParticipant> results, String outputPath,
+			RunManifest manifest) throws IOException, ActicalDataOutputException{
+		List<ActicalParticipant> participants = new ArrayList<>();
+		Path skipped = Files.createTempFile(Paths.get(outputPath), "participants_skipped", ".tmp");
+		Path workbook = Files.createTempFile(Paths.get(outputPath), "participantData", ".tmp");
+		
+		try{
+			try (PrintStream participantsSkipped = new PrintStream(skipped.toFile())){
+				for (File file : listInputFiles(inputFolder)){
+					//Files that have not settled yet are not in the results
+					if (!results.containsKey(file))
+						continue;
+					
+					ActicalParticipant p = results.get(file);
+					if (p != null){
+						participants.add(p);
+					} else{
+						participantsSkipped.println("The participant " + getParticipantName(file) + " was skipped.");
+					}
+				}
 			}
 			
+			long started = RunMetrics.start();
+			ParticipantWorkbook pwb = new ParticipantWorkbook(participants);
+			pwb.setStreaming(options.getWriterMode() == RunOptions.WRITER_MODE.STREAMING);
+			pwb.create();
+			RunMetrics.stop(RunMetrics.STAGE.CREATE_WORKBOOK, started);
+			started = RunMetrics.start();
+			pwb.write(workbook.toString());
+			RunMetrics.stop(RunMetrics.STAGE.WRITE_WORKBOOK, started);
+			
+			//Replaced in one step, so the files are never seen half written
+			Files.move(skipped, Paths.get(outputPath + "\\participants_skipped.txt"), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(workbook, Paths.get(outputPath + "\\participantData.xlsx"), StandardCopyOption.REPLACE_EXISTING);
+		} finally{
+			Files.deleteIfExists(skipped);
+			Files.deleteIfExists(workbook);
 		}
 		
-		int totalNapTime = 0;
+		if (manifest != null)
+			manifest.write();
+	}
+	
+	/**
+	 * The files in the input folder (not in its subfolders), one per participant.
+	 */
+	static List<File> listInputFiles(File inputFolder) throws IOException{
+		try(Stream<Path> paths = Files.walk(inputFolder.toPath(), 1)) {
+			return paths.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList());
+		}
+	}
+	
+	/**
+	 * Processes each participant file using the number of worker threads given by the --workers option.
+	 * Participants are independent of each other so they can be processed in any order, but the results
+	 * (and the skipped participant report) are always in the same order as the input files.
+	 * 
+	 * @return the participants that were successfully processed
+	 */
+	public static List<ActicalParticipant> processAll(List<File> files, String assessmentPoint, String outputPath,
+			PrintStream participantsSkipped) throws InterruptedException{
+		return processAll(files, assessmentPoint, outputPath, participantsSkipped, null);
+	}
+	
+	/**
+	 * Same as {@link #processAll(List, String, String, PrintStream)}, but with a manifest of the previous run: 
+	 * participants whose input file has not changed (and whose output workbook is still there) are not processed
+	 * again, their recorded results are used instead. The results of the other participants are recorded in the
+	 * manifest.
+	 */
+	public static List<ActicalParticipant> processAll(List<File> files, String assessmentPoint, String outputPath,
+			PrintStream participantsSkipped, RunManifest manifest) throws InterruptedException{
+		ExecutorService pool = Executors.newFixedThreadPool(options.getWorkers());
 		
-		for (Integer nap : naps){
-			totalNapTime += nap;
-			if (nap < minNapDurationMinutes)
-				minNapDurationMinutes = nap;
+		try{
+			return collectAll(files, submitAll(pool, files, assessmentPoint, outputPath, manifest), participantsSkipped);
+		} finally{
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Queues each participant file on the pool; see {@link #processAll(List, String, String, PrintStream, RunManifest)}.
+	 */
+	static List<Future<ActicalParticipant>> submitAll(ExecutorService pool, List<File> files, String assessmentPoint,
+			String outputPath, RunManifest manifest){
+		List<Future<ActicalParticipant>> futures = new ArrayList<>();
+		
+		for (File file : files){
+			futures.add(pool.submit(() -> {
+				Diagnostics.summary(() -> file.toPath().toString());
+				if (manifest == null)
+					return process(file, assessmentPoint, outputPath);
+				
+				EpochSeriesCache.Key key = EpochSeriesCache.keyOf(file);
+				String name = getParticipantName(file);
+				if (new File(outputPath + "\\" + name + "_" + assessmentPoint + ".xlsx").exists()){
+					ActicalParticipant previous = manifest.reuse(key);
+					if (previous != null){
+						Diagnostics.summary(() -> "Participant " + name + " has not changed since the last run,"
+								+ " the results of that run are used.");
+						return previous;
+					}
+				}
+				
+				ActicalParticipant p = process(file, assessmentPoint, outputPath);
+				if (p != null)
+					manifest.record(key, p);
+				
+				return p;
+			}));
+		}
+		
+		return futures;
+	}
+	
+	/**
+	 * Waits for the participant of a file; null if it was skipped.
+	 */
+	static ActicalParticipant collect(Future<ActicalParticipant> future) throws InterruptedException{
+		try{
+			return future.get();
+		} catch (ExecutionException e){
+			e.getCause().printStackTrace(text_results);
+			Diagnostics.error("Exception: " + e.getCause().getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Waits for the participant of each file, in the order of the files, reporting those that were skipped.
+	 */
+	static List<ActicalParticipant> collectAll(List<File> files, List<Future<ActicalParticipant>> futures, 
+			PrintStream participantsSkipped) throws InterruptedException{
+		List<ActicalParticipant> participants = new ArrayList<>();
+		
+		for (int i = 0; i < files.size(); i++){
+			ActicalParticipant p = collect(futures.get(i));
 			
-			if (nap > maxNapDurationMinutes)
-				maxNapDurationMinutes = nap;
+			if (p != null){
+				participants.add(p);
+			} else{
+				participantsSkipped.println("The participant " + getParticipantName(files.get(i)) + " was skipped.");
+			}
 		}
 		
-		if (minNapDurationMinutes == Integer.MAX_VALUE)
-			minNapDurationMinutes = 0;
+		return participants;
+	}
+	
+	private static String getParticipantName(File file){
+		String[] names = file.getName().split("\\.");
+		return names[0];
+	}
+	
+	/**
+	 * A sleep period uses the data from the sadeh algorithm to find time periods where an 
+	 * individual is sleeping. 15 or more epochs of asleep (or napping) preceded and followed by 5 minutes of 
+	 * awake (e.g. light, sedentary, or mvpa activity level) counts as a sleep period. Once 15 consecutive epochs
+	 * of sleep are reached, all other epochs still count as part of the sleep period up until there are 5 consecutive 
+	 * awake epochs. For example, if the 16th epoch is awake but the 17th is asleep, then 18-22 are all awake, the sleep
+	 * period would contain epochs 1-17, even though epoch 16 was awake.
+	 * 
+	 * @return
+	 * @throws ParticipantDataParseException 
+	 */
+	public static List<SleepPeriod> getSleepPeriods(List<ActicalEpoch> epochs) throws ParticipantDataParseException{
+		List<SleepPeriod> sleepPeriods = new ArrayList<>();
+		findSleepPeriods(ScoringProfile.DEFAULT, 0, epochs.size(), i -> epochs.get(i).isAsleep(), i -> epochs.get(i).asEpochDateTime(),
+				(start, end) -> sleepPeriods.add(new SleepPeriod(epochs.subList(start, end+1))));
+		return sleepPeriods;
+	}
+	
+	/**
+	 * Finds the sleep periods of a scored series in a single pass (see {@link #getSleepPeriods(List)} for the
+	 * definition of a sleep period). Each period refers to its first and last index in the series.
+	 */
+	public static List<SleepPeriod> getSleepPeriods(EpochSeries epochs){
+		return getSleepPeriods(epochs, ScoringProfile.DEFAULT);
+	}
+	
+	/**
+	 * {@link #getSleepPeriods(EpochSeries)} with the sleep period rules of the given profile. A sleep period never
+	 * spans a gap in the data (see {@link EpochSeries#getSegmentStarts()}).
+	 */
+	public static List<SleepPeriod> getSleepPeriods(EpochSeries epochs, ScoringProfile profile){
+		List<SleepPeriod> sleepPeriods = new ArrayList<>();
+		int[] segmentStarts = epochs.getSegmentStarts();
+		for (int s = 0; s < segmentStarts.length - 1; s++){
+			findSleepPeriods(profile, segmentStarts[s], segmentStarts[s+1], epochs::isAsleep, 
+					i -> epochs.get(i).asEpochDateTime(),
+					(start, end) -> sleepPeriods.add(new SleepPeriod(epochs, start, end)));
+		}
+		return sleepPeriods;
+	}
+	
+	/*
+	 * Finds the sleep periods of the epochs [from, to); the indices given to sleepPeriod are indices of the epochs.
+	 */
+	private static void findSleepPeriods(ScoringProfile profile, int from, int to, IntPredicate isAsleep, 
+			IntFunction<String> timeOf, BiConsumer<Integer, Integer> sleepPeriod){
+		int minSleepEpochs = profile.getMinSleepEpochs();
+		int successiveAwakeEpochs = profile.getSuccessiveAwakeEpochs();
+		SleepPeriodDetector detector = new SleepPeriodDetector(minSleepEpochs, successiveAwakeEpochs, 
+				profile.getPrecedingAwakeEpochs(), new SleepPeriodDetector.Listener(){
+			@Override
+			public void ended(int startIndex, int endIndex, boolean preceded) {
+				Diagnostics.period(() -> "Possible sleep period: individual has " + minSleepEpochs 
+						+ "+ sleep epochs starting at " + timeOf.apply(from + startIndex));
+				if (preceded)
+					sleepPeriod.accept(from + startIndex, from + endIndex);
+			}
+
+			@Override
+			public void notEnded(int startIndex) {
+				Diagnostics.period(() -> "Possible sleep period of " + minSleepEpochs + "+ sleep epochs starting at " 
+						+ timeOf.apply(from + startIndex) + " is determined not to be a sleep period because it does not end with " 
+						+ successiveAwakeEpochs + " awake epochs.");
+			}
+		});
 		
-		if (naps.size() > 0)
-			averageNapDurationMinutes = totalNapTime/naps.size();
+		for (int i = from; i < to; i++){
+			detector.next(isAsleep.test(i));
+		}
 		
-		long avgNap = Math.round(averageNapDurationMinutes);
-		NapData napData = new NapData();
-		napData.setAverageNap(avgNap);
-		napData.setMaxNap(maxNapDurationMinutes);
-		napData.setMinNap(minNapDurationMinutes);
-		napData.setNumberNaps(naps.size());
-		return napData;
+		detector.finish();
+	}
+	
+	public static NapData calculateNapData(List<ActicalEpoch> epochs){
+		return SleepScoringEngine.calculateNapData(epochs.size(), 
+				i -> epochs.get(i).getActivityThreshold() == ACTIVITY_LEVEL.NAPPING);
+	}
+	
+	/**
+	 * Nap data for the epochs from index 'from' (inclusive) to 'to' (exclusive) of a series, usually one date.
+	 */
+	public static NapData calculateNapData(EpochSeries epochs, int from, int to){
+		return SleepScoringEngine.calculateNapData(to - from, 
+				i -> epochs.getActivityThreshold(from + i) == ACTIVITY_LEVEL.NAPPING);
 	}
 	
 	public static ActicalParticipant process(File excel, String assessmentPoint, String outputPath){
+		boolean processed = false;
+		
 		try {
 			ActicalParticipant participant = new ActicalParticipant();
 			participant.setAssessmentPoint(assessmentPoint);
 			String name = getParticipantName(excel);
 			participant.setParticipant(name);
-			List<ActicalEpoch> epochs = parseParticipantData(excel);
-			participant.setSleepData(epochs);
+			RunMetrics.beginParticipant(name, assessmentPoint);
+			Diagnostics.beginParticipant(new File(outputPath + "\\" + name + "_" + assessmentPoint + "_trace.txt"));
+			ScoringProfile profile = profiles.forParticipant(name);
+			if (profile != ScoringProfile.DEFAULT)
+				Diagnostics.summary(() -> "Scoring participant " + name + " with the " + profile + " profile");
 			
-			for (ActicalEpoch epoch : epochs){
-				participant.addEpochToDateBasedMap(epoch);
-			}
+			EpochSeries epochs = parseParticipantData(excel, profile);
+			participant.setEpochSeries(epochs);
+			RunMetrics.setEpochs(epochs.size());
 			
-			HashMap<String, List<ActicalEpoch>> map = participant.getDateEpochMap();
-			Set<Entry<String, List<ActicalEpoch>>> entries = map.entrySet();
-			for (Entry<String, List<ActicalEpoch>> entry : entries){
-				List<ActicalEpoch> currentEpochs = entry.getValue();
-				NapData napData = calculateNapData(currentEpochs);
-				participant.getNapMap().put(entry.getKey(), napData);
+			long started = RunMetrics.start();
+			int[] dateStarts = epochs.getDateStarts();
+			for (int d = 0; d < dateStarts.length - 1; d++){
+				NapData napData = calculateNapData(epochs, dateStarts[d], dateStarts[d+1]);
+				participant.getNapMap().put(epochs.getDate(dateStarts[d]).format(ActicalParticipant.formatter), napData);
 			}
+			RunMetrics.stop(RunMetrics.STAGE.NAPS, started);
 			
-			List<SleepPeriod> sleepPeriods = getSleepPeriods(epochs);
+			started = RunMetrics.start();
+			List<SleepPeriod> sleepPeriods = getSleepPeriods(epochs, profile);
 			for (SleepPeriod sp : sleepPeriods){
-				System.out.println("Found sleep period starting at " + ActicalEpoch.asEpochDateTime(sp.getStart())
+				Diagnostics.period(() -> "Found sleep period starting at " + ActicalEpoch.asEpochDateTime(sp.getStart())
 					+ " and ending at " + ActicalEpoch.asEpochDateTime(sp.getEnd()));
 			}
 			
-			Set<String> dates = participant.getDateEpochMap().keySet();
-			List<LocalDate> dataCollectionDates = new ArrayList<>();
-			for (String date : dates){
-				LocalDate ld = LocalDate.parse(date, ActicalParticipant.formatter);
-				dataCollectionDates.add(ld);
-			}
+			RunMetrics.stop(RunMetrics.STAGE.SLEEP_PERIODS, started);
 			
-			Collections.sort(dataCollectionDates);
-			System.out.println(System.lineSeparator());
+			started = RunMetrics.start();
+			List<LocalDate> dataCollectionDates = epochs.getDates();
+			SleepPeriodIndex sleepPeriodIndex = new SleepPeriodIndex(sleepPeriods);
+			DailyEpochCounts counts = new DailyEpochCounts(epochs);
+			Diagnostics.summary(() -> System.lineSeparator());
 			
 			for (LocalDate date : dataCollectionDates){
-				SleepPeriod sleepOnset = SleepStats.findSleepOnset(date, sleepPeriods);
-				SleepPeriod sleepOffset = SleepStats.findSleepOffset(date, sleepPeriods, sleepOnset);
+				SleepPeriod sleepOnset = SleepStats.findSleepOnset(date, sleepPeriodIndex);
+				SleepPeriod sleepOffset = SleepStats.findSleepOffset(date, sleepPeriodIndex, sleepOnset);
 				
 				if (sleepOnset != null && sleepOffset != null){
-					System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+					Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
 						+ ", sleep onset: " + Utils.asDateTime(sleepOnset.getStart())
 						+ ", sleep offset: " + Utils.asDateTime(sleepOffset.getEnd()));
 				} else if (sleepOnset == null){
-					System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+					Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
 					+ ", sleep onset was not found.");
 				} else if (sleepOffset == null){
-					System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+					Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
 					+ ", sleep offset was not found.");
 				}
 				
 				SleepStats sleep = new SleepStats(date, sleepOnset, sleepOffset);
+				sleep.calculate(counts);
+				
 				if (sleepOnset != null && sleepOffset != null){
-					long nightSleepPeriod = sleep.calculateNightSleepPeriod();
-					sleep.setNightSleepPeriod(nightSleepPeriod);
-					long totalSleepTime = sleep.calculateTotalSleepTime(epochs);
-					sleep.setTotalSleepTime(totalSleepTime);
-					long totalWakeTime = sleep.calculateTotalWakeTime(totalSleepTime);
-					sleep.setTotalWakeTime(totalWakeTime);
-					double sleepEfficiency = sleep.calculateSleepEfficiency(totalSleepTime, nightSleepPeriod);
-					sleep.setSleepEfficiency(sleepEfficiency);
-					System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-					+ ", night sleep period: " + nightSleepPeriod);
-					System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-					+ ", total sleep time: " + totalSleepTime);
-					System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-					+ ", total wake time: " + totalWakeTime);
-					System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-					+ ", sleep efficiency: " + sleepEfficiency);
+					Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+					+ ", night sleep period: " + sleep.getNightSleepPeriod());
+					Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+					+ ", total sleep time: " + sleep.getTotalSleepTime());
+					Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+					+ ", total wake time: " + sleep.getTotalWakeTime());
+					Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+					+ ", sleep efficiency: " + sleep.getSleepEfficiency());
 				}
 				
-				//you can do these with or without sleep onset/offset
-				double percentDailySleep = sleep.calculatePercentDailySleep(epochs);
-				sleep.setPercentDailySleep(percentDailySleep);
-				long eightToEight = sleep.calculateTotalTimeBasedNightSleep(epochs);
-				sleep.setEightToEight(eightToEight);
-				int sedentary = sleep.calculateByActivityLevel(epochs, ACTIVITY_LEVEL.SEDENTARY);
-				sleep.setSedentary(sedentary);
-				int light = sleep.calculateByActivityLevel(epochs, ACTIVITY_LEVEL.LIGHT);
-				sleep.setLight(light);
-				int mvpa = sleep.calculateByActivityLevel(epochs, ACTIVITY_LEVEL.MVPA);
-				sleep.setMvpa(mvpa);
-				
-				
-				System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-				+ ", percent daily sleep: " + percentDailySleep);
-				System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-				+ ", total time based night sleep: " + eightToEight);
-				System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-				+ ", sedentary: " + sedentary);
-				System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-				+ ", light: " + light);
-				System.out.println("Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
-				+ ", mvpa: " + mvpa);
+				//these are calculated with or without sleep onset/offset
+				Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+				+ ", percent daily sleep: " + sleep.getPercentDailySleep());
+				Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+				+ ", total time based night sleep: " + sleep.getEightToEight());
+				Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+				+ ", sedentary: " + sleep.getSedentary());
+				Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+				+ ", light: " + sleep.getLight());
+				Diagnostics.summary(() -> "Participant: " + participant.getParticipant() + ", date: " + Utils.asDate(date)
+				+ ", mvpa: " + sleep.getMvpa());
 				
 				participant.addSleepStatsToDateBasedMap(sleep);
 			}
+			RunMetrics.stop(RunMetrics.STAGE.SLEEP_STATS, started);
 			
-			
-			ActivityThresholdWorkbook atw = new ActivityThresholdWorkbook(epochs);
+			started = RunMetrics.start();
+			ActivityThresholdWorkbook atw = new ActivityThresholdWorkbook(epochs.asList());
+			atw.setStreaming(options.getWriterMode() == RunOptions.WRITER_MODE.STREAMING);
 			atw.create();
+			RunMetrics.stop(RunMetrics.STAGE.CREATE_WORKBOOK, started);
+			started = RunMetrics.start();
 			atw.write(outputPath + "\\" + name + "_" + assessmentPoint + ".xlsx");
+			RunMetrics.stop(RunMetrics.STAGE.WRITE_WORKBOOK, started);
 			
+			processed = true;
 			return participant;
 		} catch (ParticipantDataParseException e) {
 			e.printStackTrace(text_results);
-			System.out.println("Exception: " + e.getMessage());
+			Diagnostics.error("Exception: " + e.getMessage());
 		} catch (ActicalDataOutputException e) {
 			e.printStackTrace(text_results);
-			System.out.println("Exception: " + e.getMessage());
+			Diagnostics.error("Exception: " + e.getMessage());
+		} catch (FileNotFoundException e) {
+			e.printStackTrace(text_results);
+			Diagnostics.error("Exception: unable to create trace file. " + e.getMessage());
+		} finally {
+			Diagnostics.endParticipant();
+			RunMetrics.endParticipant(processed);
 		}
 		
 		return null;
 	}
 	
-	public static List<ActicalEpoch> parseParticipantData(File excel) throws ParticipantDataParseException{
-		List<ActicalEpoch> participantEpochs = ActicalExcelParser.parseSadehExcelDocument(excel);
-		
-		//Sort the Actical data by date, earlier dates first
-		Collections.sort(participantEpochs, (a, b) -> a.getDateTime().compareTo(b.getDateTime()));
-		participantEpochs.forEach(epoch -> System.out.println(epoch));
+	/**
+	 * Parses, validates and scores a participant's Actical data. When a cache folder is set, the parsed (and 
+	 * scored) data is stored there and used on later runs for as long as the workbook and the scoring are unchanged.
+	 */
+	public static EpochSeries parseParticipantData(File excel) throws ParticipantDataParseException{
+		return parseParticipantData(excel, ScoringProfile.DEFAULT);
+	}
+	
+	/**
+	 * {@link #parseParticipantData(File)}, scoring the epochs with the given profile.
+	 */
+	public static EpochSeries parseParticipantData(File excel, ScoringProfile profile) throws ParticipantDataParseException{
+		EpochSeriesCache cache = (options.getCacheFolder() != null) ? new EpochSeriesCache(new File(options.getCacheFolder())) : null;
+		EpochSeriesCache.Key cacheKey = null;
+		byte[] scoringFingerprint = null;
+		EpochSeries participantEpochs = null;
 		
-		for (int i = 0; i < participantEpochs.size(); i++){
-			if (!validateEpoch(participantEpochs, i)){
-				ActicalEpoch current = participantEpochs.get(i);
-				ActicalEpoch previous = participantEpochs.get(i-1);
+		if (cache != null){
+			try {
+				//Dropping and adding epochs changes the series, so each gap policy has its own cache
+				RunOptions.GAP_POLICY gapPolicy = options.getGapPolicy();
+				cacheKey = EpochSeriesCache.keyOf(excel, (gapPolicy == RunOptions.GAP_POLICY.ABORT) ? null 
+						: "gaps=" + gapPolicy.name().toLowerCase());
+				scoringFingerprint = profile.fingerprint();
 				
-				throw new ParticipantDataParseException("File format is invalid for the file " 
-						+ excel.getAbsolutePath() + ", it must be manually processed."
-						+ " Cause: there is more than one minute difference between the epoch with date "
-						+ previous.getDateTime() + " and the next consecutive epoch with date " 
-						+ current.getDateTime());
+				//Tracing shows every epoch as it is parsed and scored, so the cache is only written
+				if (!Diagnostics.isEnabled(Diagnostics.LEVEL.TRACE)){
+					long started = RunMetrics.start();
+					participantEpochs = cache.read(cacheKey, scoringFingerprint);
+					RunMetrics.stop(RunMetrics.STAGE.PARSE, started);
+				}
+			} catch (IOException e) {
+				Diagnostics.error("Unable to use the cache for the file " + excel.getAbsolutePath() + ": " + e.getMessage());
+				cache = null;
+			}
+		}
+		
+		boolean cached = participantEpochs != null && participantEpochs.isScored();
+		if (participantEpochs == null)
+			participantEpochs = readParticipantData(excel);
+		
+		if (!participantEpochs.isScored()){
+			long started = RunMetrics.start();
+			scoreParticipantData(participantEpochs, profile);
+			RunMetrics.stop(RunMetrics.STAGE.SCORE, started);
+		}
+		
+		if (cache != null && !cached){
+			try {
+				cache.write(cacheKey, participantEpochs, scoringFingerprint);
+			} catch (IOException e) {
+				Diagnostics.error("Unable to cache the data of the file " + excel.getAbsolutePath() + ": " + e.getMessage());
 			}
-			
-			SLEEP_PROBABILITY sleepState = SleepAnalysis.sadeh(participantEpochs, i);
-			ActicalEpoch epoch = participantEpochs.get(i);
-			epoch.setSleepState(sleepState);
-			boolean isAsleep = (sleepState == SLEEP_PROBABILITY.ASLEEP);
-			boolean isDaytime = SleepAnalysis.isDaytime(epoch.getDateTime());
-			epoch.setAsleep(isAsleep);
-			epoch.setDaytime(isDaytime);
-			ACTIVITY_LEVEL lvl = SleepAnalysis.getActivityThreshold(epoch);
-			epoch.setActivityThreshold(lvl);
 		}
 		
 		return participantEpochs;
 	}
 	
-	/*
-	 * Every epoch should be within one minute from the previous epoch
+	/**
+	 * Parses the participant's Actical workbook (or .csv/.tsv export), sorts the epochs and checks that they are one minute apart.
 	 */
-	private static boolean validateEpoch(List<ActicalEpoch> epochs, int index) {
-		if (epochs == null)
-			return false;
-
-		if (index == 0 || epochs.size() < 2)
-			return true;
-
-		ActicalEpoch currentEpoch = epochs.get(index);
-		ActicalEpoch previousEpoch = epochs.get(index-1);
-		long minutes = 
-				Math.abs(Duration.between(currentEpoch.getDateTime(), 
-						previousEpoch.getDateTime()).toMinutes());
-
-		return minutes == 1;
+	static EpochSeries readParticipantData(File excel) throws ParticipantDataParseException{
+		EpochSeries participantEpochs = null;
+		long started = RunMetrics.start();
+		if (ActicalDelimitedParser.isDelimited(excel)){
+			participantEpochs = ActicalDelimitedParser.parseSadehDelimitedDocument(excel);
+		} else if (options.getReaderMode() == RunOptions.READER_MODE.STREAMING){
+			participantEpochs = ActicalStreamingParser.parseSadehExcelDocument(excel);
+		} else{
+			participantEpochs = ActicalExcelParser.parseSadehExcelDocument(excel);
+		}
+		
+		RunMetrics.stop(RunMetrics.STAGE.PARSE, started);
+		
+		//Sort the Actical data by date, earlier dates first
+		started = RunMetrics.start();
+		participantEpochs.sort();
+		RunMetrics.stop(RunMetrics.STAGE.SORT, started);
+		
+		started = RunMetrics.start();
+		if (Diagnostics.isEnabled(Diagnostics.LEVEL.TRACE))
+			participantEpochs.asList().forEach(epoch -> Diagnostics.trace(() -> epoch.toString()));
+		
+		validateEpochs(excel, participantEpochs, options.getGapPolicy());
+		RunMetrics.stop(RunMetrics.STAGE.VALIDATE, started);
+		
+		return participantEpochs;
+	}
+	
+	/**
+	 * Checks that the sorted epochs are one minute apart, in a single pass. With the ABORT gap policy the first
+	 * minute that is repeated or missing makes the participant fail (they must be manually processed). Otherwise
+	 * only the first epoch of a repeated minute is kept, and missing minutes are either left as gaps between 
+	 * segments that are scored separately (SPLIT) or filled with epochs of 0 activity (PAD).
+	 */
+	static void validateEpochs(File excel, EpochSeries epochs, RunOptions.GAP_POLICY gapPolicy) 
+			throws ParticipantDataParseException{
+		if (gapPolicy == RunOptions.GAP_POLICY.ABORT){
+			for (int i = 1; i < epochs.size(); i++){
+				if ((epochs.getOffset(i) - epochs.getOffset(i-1)) / 60 != 1){
+					throw new ParticipantDataParseException("File format is invalid for the file " 
+							+ excel.getAbsolutePath() + ", it must be manually processed."
+							+ " Cause: there is more than one minute difference between the epoch with date "
+							+ epochs.getDateTime(i-1) + " and the next consecutive epoch with date " 
+							+ epochs.getDateTime(i));
+				}
+			}
+			
+			return;
+		}
+		
+		int duplicates = epochs.removeDuplicates();
+		if (duplicates > 0)
+			Diagnostics.summary(() -> "Removed " + duplicates + " epochs recorded in the same minute as the epoch before"
+					+ " them in the file " + excel.getAbsolutePath());
+		
+		int gaps = epochs.getSegmentStarts().length - 2;
+		if (gaps <= 0)
+			return;
+		
+		if (gapPolicy == RunOptions.GAP_POLICY.PAD){
+			int padded = epochs.fillGaps();
+			Diagnostics.summary(() -> "Filled " + gaps + " gaps in the file " + excel.getAbsolutePath() + " with " 
+					+ padded + " epochs of 0 activity");
+		} else{
+			Diagnostics.summary(() -> "The file " + excel.getAbsolutePath() + " has " + gaps + " gaps, each of its " 
+					+ (gaps + 1) + " segments is scored separately");
+		}
 	}
 	
-	public static class PossibleSleepPeriod{
-		List<ActicalEpoch> epochs = new ArrayList<>();
-		int epochListStartingIndex = -1;
+	/**
+	 * Scores each epoch with the sadeh algorithm, then sets whether it is daytime and its activity threshold.
+	 */
+	static void scoreParticipantData(EpochSeries participantEpochs, ScoringProfile profile) 
+			throws ParticipantDataParseException{
+		if (!Diagnostics.isEnabled(Diagnostics.LEVEL.TRACE)){
+			SleepScoringEngine.score(participantEpochs, profile);
+			return;
+		}
+		
+		//Only the epoch by epoch scorer reports the values each score was calculated from
+		int[] activity = participantEpochs.getActivityLevels();
+		int[] segmentStarts = participantEpochs.getSegmentStarts();
+		SLEEP_PROBABILITY[] sleepStates = new SLEEP_PROBABILITY[activity.length];
+		for (int s = 0; s < segmentStarts.length - 1; s++){
+			int from = segmentStarts[s];
+			int to = segmentStarts[s+1];
+			int[] segment = (segmentStarts.length == 2) ? activity : Arrays.copyOfRange(activity, from, to);
+			SLEEP_PROBABILITY[] segmentStates = new SLEEP_PROBABILITY[segment.length];
+			SleepAnalysis.sadeh(profile, segment, segmentStates, 
+					new SleepAnalysis.SadehPrinter(participantEpochs.asList().subList(from, to), segment, profile));
+			System.arraycopy(segmentStates, 0, sleepStates, from, segment.length);
+		}
+		participantEpochs.setSleepStates(sleepStates);
+		SleepScoringEngine.setActivityThresholds(participantEpochs, profile);
 	}
+	
 }
@@ -0,0 +1,281 @@
+package sadeh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Properties;
+
+import excel.ParticipantDataParseException;
+import sadeh.SleepAnalysis.ACTIVITY_LEVEL;
+
+/**
+ * The parameters epochs are scored and sleep periods are found with: the sadeh window and coefficients, the range
+ * of activity levels counted as NATS, the daytime hours, the activity level thresholds and the sleep period rules.
+ * There are two built in profiles, "adult" (the default) and "toddler", which only differ in the light activity
+ * threshold; other profiles are read from a properties file, e.g.
+ *
+ * <pre>
+ * base=toddler
+ * threshold.light.max=2000
+ * daytime.start=8
+ * </pre>
+ *
+ * Any value not in the file is taken from the base profile (adult if there is none). The keys are: base,
+ * window.before, window.after, nats.min, nats.max, sadeh.intercept, sadeh.mean, sadeh.nats, sadeh.sd, sadeh.log,
+ * daytime.start, daytime.end (hours, both inclusive; a start after the end wraps around midnight),
+ * threshold.sedentary.max, threshold.light.max (the highest activity level of each; anything above light is MVPA),
+ * sleep.min-epochs, sleep.successive-awake-epochs and sleep.preceding-awake-epochs.
+ *
+ * A profile never changes once created. The daytime hours and the activity thresholds are compiled into tables
+ * when it is created, so classifying an epoch is a table lookup.
+ *
+ * @author kyle_
+ *
+ */
+public class ScoringProfile {
+	static final ACTIVITY_LEVEL[] ACTIVITY_LEVELS = ACTIVITY_LEVEL.values();
+	//Highest light threshold allowed, which keeps the threshold table small
+	static final int MAX_THRESHOLD = 1000000;
+	public static final ScoringProfile ADULT = new ScoringProfile("adult", new Properties(), null);
+	public static final ScoringProfile TODDLER = new ScoringProfile("toddler", toddler(), ADULT);
+	public static final ScoringProfile DEFAULT = ADULT;
+
+	protected final String name;
+	protected final int windowBefore;
+	protected final int windowAfter;
+	protected final int natsMin;
+	protected final int natsMax;
+	protected final double intercept;
+	protected final double meanCoefficient;
+	protected final double natsCoefficient;
+	protected final double sdCoefficient;
+	protected final double logCoefficient;
+	protected final int daytimeStart;
+	protected final int daytimeEnd;
+	protected final int sedentaryMax;
+	protected final int lightMax;
+	protected final int minSleepEpochs;
+	protected final int successiveAwakeEpochs;
+	protected final int precedingAwakeEpochs;
+
+	//Bit h is set when hour h is daytime
+	protected final int daytimeHours;
+	//ACTIVITY_LEVEL ordinal of an awake epoch by activity level; levels past the end are MVPA
+	protected final byte[] awakeThresholds;
+	private volatile byte[] fingerprint;
+
+	ScoringProfile(String name, Properties properties, ScoringProfile base){
+		this.name = name;
+		windowBefore = intValue(properties, "window.before", (base == null) ? 5 : base.windowBefore);
+		windowAfter = intValue(properties, "window.after", (base == null) ? 5 : base.windowAfter);
+		natsMin = intValue(properties, "nats.min", (base == null) ? 50 : base.natsMin);
+		natsMax = intValue(properties, "nats.max", (base == null) ? 99 : base.natsMax);
+		intercept = doubleValue(properties, "sadeh.intercept", (base == null) ? 7.601 : base.intercept);
+		meanCoefficient = doubleValue(properties, "sadeh.mean", (base == null) ? .065 : base.meanCoefficient);
+		natsCoefficient = doubleValue(properties, "sadeh.nats", (base == null) ? 1.08 : base.natsCoefficient);
+		sdCoefficient = doubleValue(properties, "sadeh.sd", (base == null) ? .056 : base.sdCoefficient);
+		logCoefficient = doubleValue(properties, "sadeh.log", (base == null) ? .703 : base.logCoefficient);
+		daytimeStart = intValue(properties, "daytime.start", (base == null) ? 9 : base.daytimeStart);
+		daytimeEnd = intValue(properties, "daytime.end", (base == null) ? 17 : base.daytimeEnd);
+		sedentaryMax = intValue(properties, "threshold.sedentary.max", (base == null) ? 40 : base.sedentaryMax);
+		lightMax = intValue(properties, "threshold.light.max", (base == null) ? 3200 : base.lightMax);
+		minSleepEpochs = intValue(properties, "sleep.min-epochs", (base == null) ? 15 : base.minSleepEpochs);
+		successiveAwakeEpochs = intValue(properties, "sleep.successive-awake-epochs",
+				(base == null) ? 5 : base.successiveAwakeEpochs);
+		precedingAwakeEpochs = intValue(properties, "sleep.preceding-awake-epochs",
+				(base == null) ? 1 : base.precedingAwakeEpochs);
+
+		if (windowBefore < 1 || windowAfter < 0)
+			throw new IllegalArgumentException("Profile " + name + ": window.before must be at least 1 and window.after at least 0");
+		if (natsMin > natsMax)
+			throw new IllegalArgumentException("Profile " + name + ": nats.min cannot be more than nats.max");
+		if (daytimeStart < 0 || daytimeStart > 23 || daytimeEnd < 0 || daytimeEnd > 23)
+			throw new IllegalArgumentException("Profile " + name + ": daytime.start and daytime.end must be hours from 0 to 23");
+		if (sedentaryMax < 0 || lightMax < sedentaryMax || lightMax > MAX_THRESHOLD)
+			throw new IllegalArgumentException("Profile " + name + ": the thresholds must satisfy"
+					+ " 0 <= sedentary.max <= light.max <= " + MAX_THRESHOLD);
+		if (minSleepEpochs < 1 || successiveAwakeEpochs < 1 || precedingAwakeEpochs < 0)
+			throw new IllegalArgumentException("Profile " + name + ": sleep.min-epochs and sleep.successive-awake-epochs"
+					+ " must be at least 1, sleep.preceding-awake-epochs at least 0");
+
+		int hours = 0;
+		for (int hour = 0; hour < 24; hour++){
+			boolean daytime = (daytimeStart <= daytimeEnd) ? (hour >= daytimeStart && hour <= daytimeEnd)
+					: (hour >= daytimeStart || hour <= daytimeEnd);
+			if (daytime)
+				hours |= 1 << hour;
+		}
+		daytimeHours = hours;
+
+		awakeThresholds = new byte[lightMax + 2];
+		for (int level = 0; level < awakeThresholds.length; level++){
+			ACTIVITY_LEVEL threshold = (level <= sedentaryMax) ? ACTIVITY_LEVEL.SEDENTARY
+					: (level <= lightMax) ? ACTIVITY_LEVEL.LIGHT : ACTIVITY_LEVEL.MVPA;
+			awakeThresholds[level] = (byte) threshold.ordinal();
+		}
+	}
+
+	private static Properties toddler(){
+		Properties properties = new Properties();
+		properties.setProperty("threshold.light.max", "2200");
+		return properties;
+	}
+
+	/**
+	 * A built in profile ("adult" or "toddler", in any case), or the profile in the properties file at the given
+	 * path (relative paths are resolved against the folder, if not null).
+	 */
+	public static ScoringProfile resolve(String nameOrPath, File folder) throws IOException{
+		switch (nameOrPath.toLowerCase(Locale.ENGLISH)){
+		case "adult":
+			return ADULT;
+		case "toddler":
+			return TODDLER;
+		default:
+			File file = new File(nameOrPath);
+			if (!file.isAbsolute() && folder != null)
+				file = new File(folder, nameOrPath);
+
+			return load(file);
+		}
+	}
+
+	/**
+	 * Reads a profile from a properties file; the profile is named after the file.
+	 */
+	public static ScoringProfile load(File file) throws IOException{
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)){
+			properties.load(reader);
+		}
+
+		String base = properties.getProperty("base", "adult").trim();
+		if (!base.equalsIgnoreCase("adult") && !base.equalsIgnoreCase("toddler"))
+			throw new IOException("The base of the profile " + file.getPath() + " must be adult or toddler");
+
+		try{
+			return new ScoringProfile(file.getName(), properties, resolve(base, null));
+		} catch (IllegalArgumentException e){
+			throw new IOException("The profile " + file.getPath() + " is not valid: " + e.getMessage(), e);
+		}
+	}
+
+	private static int intValue(Properties properties, String key, int defaultValue){
+		String value = properties.getProperty(key);
+		return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private static double doubleValue(Properties properties, String key, double defaultValue){
+		String value = properties.getProperty(key);
+		return (value == null) ? defaultValue : Double.parseDouble(value.trim());
+	}
+
+	/**
+	 * The Sadeh sleep score; an epoch is scored as asleep when this is zero or greater.
+	 */
+	public double score(double AVG, int NATS, double SD, double LG){
+		return (intercept - (meanCoefficient * AVG) - (natsCoefficient * NATS) - (sdCoefficient * SD) - (logCoefficient * LG));
+	}
+
+	public boolean isNat(int activity){
+		return activity >= natsMin && activity <= natsMax;
+	}
+
+	public boolean isDaytime(int hour){
+		return ((daytimeHours >>> hour) & 1) != 0;
+	}
+
+	public ACTIVITY_LEVEL getActivityThreshold(boolean asleep, boolean daytime, int level, String participant)
+			throws ParticipantDataParseException{
+		if (asleep)
+			return daytime ? ACTIVITY_LEVEL.NAPPING : ACTIVITY_LEVEL.ASLEEP;
+
+		if (level < 0)
+			throw new ParticipantDataParseException("Activity level of " + level + " is not within expected range"
+					+ " for paticipant " + participant);
+
+		return ACTIVITY_LEVELS[awakeThresholds[Math.min(level, awakeThresholds.length - 1)]];
+	}
+
+	/**
+	 * A digest of every parameter of the profile (but not its name), calculated once. Profiles with the same
+	 * fingerprint score epochs and find sleep periods the same way.
+	 */
+	public byte[] fingerprint(){
+		byte[] value = fingerprint;
+		if (value == null){
+			ByteBuffer buffer = ByteBuffer.allocate(4 * 12 + 8 * 5);
+			buffer.putInt(SleepAnalysis.FINGERPRINT_VERSION);
+			buffer.putInt(windowBefore).putInt(windowAfter);
+			buffer.putInt(natsMin).putInt(natsMax);
+			buffer.putLong(Double.doubleToLongBits(intercept));
+			buffer.putLong(Double.doubleToLongBits(meanCoefficient));
+			buffer.putLong(Double.doubleToLongBits(natsCoefficient));
+			buffer.putLong(Double.doubleToLongBits(sdCoefficient));
+			buffer.putLong(Double.doubleToLongBits(logCoefficient));
+			buffer.putInt(daytimeStart).putInt(daytimeEnd);
+			buffer.putInt(sedentaryMax).putInt(lightMax);
+			buffer.putInt(minSleepEpochs).putInt(successiveAwakeEpochs).putInt(precedingAwakeEpochs);
+			value = EpochSeriesCache.sha256().digest(buffer.array());
+			fingerprint = value;
+		}
+
+		return value;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The number of epochs in the sadeh window: those before the epoch, the epoch and those after it.
+	 */
+	public int getWindow() {
+		return windowBefore + 1 + windowAfter;
+	}
+
+	public int getWindowBefore() {
+		return windowBefore;
+	}
+
+	public int getWindowAfter() {
+		return windowAfter;
+	}
+
+	public int getDaytimeStart() {
+		return daytimeStart;
+	}
+
+	public int getDaytimeEnd() {
+		return daytimeEnd;
+	}
+
+	public int getSedentaryMax() {
+		return sedentaryMax;
+	}
+
+	public int getLightMax() {
+		return lightMax;
+	}
+
+	public int getMinSleepEpochs() {
+		return minSleepEpochs;
+	}
+
+	public int getSuccessiveAwakeEpochs() {
+		return successiveAwakeEpochs;
+	}
+
+	public int getPrecedingAwakeEpochs() {
+		return precedingAwakeEpochs;
+	}
+
+	@Override
+	public String toString(){
+		return name;
+	}
+}
@@ -0,0 +1,109 @@
+package sadeh;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link ScoringProfile} of each participant in a run: the profile given with --profile (adult if none), except
+ * for the participants listed in the mapping file given with --profiles. Each line of the mapping file is a
+ * participant and the profile to score them with, separated by a tab, comma or spaces, e.g.
+ *
+ * <pre>
+ * # participant  profile
+ * 1001           toddler
+ * 1002           profiles/older-toddler.properties
+ * </pre>
+ *
+ * A profile is either a built in profile name or a properties file, relative to the mapping file's folder. Every
+ * profile is read once, when the run starts, and a file used for several participants is only read once.
+ *
+ * @author kyle_
+ *
+ */
+public class ScoringProfiles {
+	protected ScoringProfile defaultProfile;
+	//Profiles of the participants in the mapping file, by participant
+	protected Map<String, ScoringProfile> participants = new HashMap<>();
+
+	public ScoringProfiles(ScoringProfile defaultProfile){
+		this.defaultProfile = defaultProfile;
+	}
+
+	/**
+	 * Resolves the profiles for a run.
+	 *
+	 * @param profile the default profile (a built in name or a properties file), or null for adult
+	 * @param mappingFile the participant to profile mapping file, or null if there is none
+	 */
+	public static ScoringProfiles load(String profile, String mappingFile) throws IOException{
+		ScoringProfiles profiles = new ScoringProfiles((profile == null) ? ScoringProfile.DEFAULT
+				: ScoringProfile.resolve(profile, null));
+		if (mappingFile == null)
+			return profiles;
+
+		File mapping = new File(mappingFile);
+		File folder = mapping.getAbsoluteFile().getParentFile();
+		Map<String, ScoringProfile> loaded = new HashMap<>();
+
+		try (BufferedReader reader = Files.newBufferedReader(mapping.toPath(), StandardCharsets.UTF_8)){
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null){
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				String[] fields = line.split("[\\t,]\\s*|\\s+", 2);
+				if (fields.length < 2 || fields[1].trim().isEmpty())
+					throw new IOException("Line " + lineNumber + " of the profile mapping " + mappingFile
+							+ " must be a participant and a profile");
+
+				String name = fields[1].trim();
+				ScoringProfile participantProfile = loaded.get(name);
+				if (participantProfile == null){
+					participantProfile = ScoringProfile.resolve(name, folder);
+					loaded.put(name, participantProfile);
+				}
+
+				profiles.participants.put(fields[0], participantProfile);
+			}
+		}
+
+		return profiles;
+	}
+
+	public ScoringProfile forParticipant(String participant){
+		ScoringProfile profile = participants.get(participant);
+		return (profile == null) ? defaultProfile : profile;
+	}
+
+	public ScoringProfile getDefault(){
+		return defaultProfile;
+	}
+
+	/**
+	 * A digest of every profile and which participants use it; it changes when any participant would be scored
+	 * (or have their sleep periods found) differently.
+	 */
+	public byte[] digest(){
+		MessageDigest digest = EpochSeriesCache.sha256();
+		update(digest, "", defaultProfile);
+		for (Map.Entry<String, ScoringProfile> participant : new TreeMap<>(participants).entrySet())
+			update(digest, participant.getKey(), participant.getValue());
+
+		return digest.digest();
+	}
+
+	private static void update(MessageDigest digest, String participant, ScoringProfile profile){
+		digest.update((participant + "\n").getBytes(StandardCharsets.UTF_8));
+		digest.update(profile.fingerprint());
+	}
+}
@@ -1,5 +1,8 @@
 package sadeh;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
@@ -12,6 +15,17 @@ public class SleepAnalysis {
 	public static final int WINDOW = 11;
 	public static final int WINDOW_BEFORE = 5;
 	public static final int WINDOW_AFTER = 5;
+	//Scores closer to 0 than this are recalculated with the commons-math standard deviation
+	static final double SCORE_TOLERANCE = 1e-6;
+	//Part of every scoring fingerprint, so scores stored by an earlier version are not used
+	static final int FINGERPRINT_VERSION = 2;
+	//Natural log (log1p) of the activity levels below this, which are by far the most common
+	static final double[] LOG_TABLE = new double[1024];
+	
+	static{
+		for (int i = 0; i < LOG_TABLE.length; i++)
+			LOG_TABLE[i] = Math.log1p(i);
+	}
 	
 	public enum ACTIVITY_LEVEL{
 		ASLEEP,
@@ -27,47 +41,21 @@ public class SleepAnalysis {
 	}
 	
 	public static boolean isDaytime(LocalDateTime ldt){
-		return ldt.getHour() >= 9 && ldt.getHour() <= 17;
+		return isDaytime(ldt.getHour());
+	}
+	
+	public static boolean isDaytime(int hour){
+		return ScoringProfile.DEFAULT.isDaytime(hour);
 	}
 	
 	public static ACTIVITY_LEVEL getActivityThreshold(ActicalEpoch epoch) 
 			throws ParticipantDataParseException{
-		boolean isToddler = false;
-		
-		boolean asleep = epoch.isAsleep();
-		boolean daytime = epoch.isDaytime();
-		int level = epoch.getActivityLevel();
-		if (asleep){
-			if (daytime){
-				return ACTIVITY_LEVEL.NAPPING;
-			} else{
-				return ACTIVITY_LEVEL.ASLEEP;
-			}
-		}
-		
-		if (isToddler){
-			if (level >= 0 && level <= 40){
-				return ACTIVITY_LEVEL.SEDENTARY;
-			} else if (level >= 41 && level <= 2200){
-				return ACTIVITY_LEVEL.LIGHT;
-			} else if (level >= 2201){
-				return ACTIVITY_LEVEL.MVPA;
-			} else{
-				throw new ParticipantDataParseException("Activity level of " + level + " is not within expected range"
-						+ " for paticipant " + epoch.getParticipant());
-			}
-		} else{ //adults have their activity level measured differently
-			if (level >= 0 && level <= 40){
-				return ACTIVITY_LEVEL.SEDENTARY;
-			} else if (level >= 41 && level <= 3200){
-				return ACTIVITY_LEVEL.LIGHT;
-			} else if (level >= 3201){
-				return ACTIVITY_LEVEL.MVPA;
-			} else{
-				throw new ParticipantDataParseException("Activity level of " + level + " is not within expected range"
-						+ " for paticipant " + epoch.getParticipant());
-			}
-		}
+		return getActivityThreshold(epoch.isAsleep(), epoch.isDaytime(), epoch.getActivityLevel(), epoch.getParticipant());
+	}
+	
+	public static ACTIVITY_LEVEL getActivityThreshold(boolean asleep, boolean daytime, int level, String participant) 
+			throws ParticipantDataParseException{
+		return ScoringProfile.DEFAULT.getActivityThreshold(asleep, daytime, level, participant);
 	}
 	
 	public static SLEEP_PROBABILITY sadeh(List<ActicalEpoch> sortedEpochs, int currentIndex){
@@ -111,25 +99,259 @@ public class SleepAnalysis {
 		//System.out.println("Standard deviation for " + sortedEpochs.get(currentIndex) + " is " + SD);
 		double LG = naturalLog(sortedEpochs.get(currentIndex).getActivityLevel());
 		
-		double sadeh = (7.601 - (.065 * AVG) - (1.08 * NATS) - (.056 * SD) - (.703 * LG));
+		double sadeh = score(AVG, NATS, SD, LG);
 		SLEEP_PROBABILITY prob = (sadeh >= 0) ? SLEEP_PROBABILITY.ASLEEP : SLEEP_PROBABILITY.AWAKE;
 		
-		System.out.println("***********************************************************");
-		System.out.println(sortedEpochs.get(currentIndex));
-		printWindow("Sadeh 11-minute window: ", window);
-		System.out.println("AVG: " + AVG);
-		System.out.println("NATS: " + NATS);
-		System.out.println("SD: " + SD);
-		System.out.println("LG: " + LG);
-		System.out.println("Sadeh: " + sadeh);
-		System.out.println("Result: " + prob);
-		System.out.println("***********************************************************");
-		System.out.println(System.lineSeparator());
-		
+		printSadeh(sortedEpochs.get(currentIndex), window, AVG, NATS, SD, LG, sadeh, prob);
 		return prob;
 	}
 	
+	/**
+	 * Scores every epoch of a participant's sorted activity counts in a single pass. Rather than rebuilding the
+	 * 11 minute window for each epoch, the window sum, the NATS count and the sum (and sum of squares) of the 
+	 * 6 epochs ending at the current epoch are updated as the window slides forward one minute at a time. Epochs
+	 * before the start or after the end of the data set count as 0, the same as {@link #sadeh(List, int)}.
+	 * 
+	 * The results are identical to calling {@link #sadeh(List, int)} for each index. The running sums are exact
+	 * integers, so only the standard deviation can differ from the commons-math value, and only in the last few bits;
+	 * when the score is close enough to 0 for that to matter, the standard deviation is recalculated the same way
+	 * {@link #sadeh(List, int)} calculates it.
+	 * 
+	 * @param activity activity level of each epoch, sorted by time
+	 * @param results receives the sleep probability of each epoch; must be at least as long as activity
+	 * @param listener notified of the intermediate values for each epoch, or null
+	 */
+	public static void sadeh(int[] activity, SLEEP_PROBABILITY[] results, SadehListener listener){
+		sadeh(ScoringProfile.DEFAULT, activity, results, null, listener);
+	}
+	
+	/**
+	 * {@link #sadeh(int[], SLEEP_PROBABILITY[], SadehListener)} with the window, coefficients and NATS range of
+	 * the given profile.
+	 */
+	public static void sadeh(ScoringProfile profile, int[] activity, SLEEP_PROBABILITY[] results, SadehListener listener){
+		sadeh(profile, activity, results, null, listener);
+	}
+	
+	/*
+	 * Stores the result of each epoch in results and/or as a bit in asleep, whichever is not null.
+	 */
+	static void sadeh(ScoringProfile profile, int[] activity, SLEEP_PROBABILITY[] results, long[] asleep, 
+			SadehListener listener){
+		int n = activity.length;
+		int windowBefore = profile.getWindowBefore();
+		int windowAfter = profile.getWindowAfter();
+		int window = profile.getWindow();
+		int middleEpoch = windowBefore;
+		int[] firstSixEpochs = new int[middleEpoch+1];
+		int windowTotal = 0;
+		int windowNats = 0;
+		long sixTotal = 0;
+		long sixSquares = 0;
+		
+		//The window for the first epoch: 5 epochs of padding, the epoch itself and the 5 epochs after it
+		for (int i = 0; i <= windowAfter && i < n; i++){
+			windowTotal += activity[i];
+			windowNats += profile.isNat(activity[i]) ? 1 : 0;
+		}
+		
+		if (n > 0){
+			sixTotal = activity[0];
+			sixSquares = (long) activity[0] * activity[0];
+		}
+		
+		for (int i = 0; i < n; i++){
+			double AVG = ((double) windowTotal)/((double) window);
+			int NATS = windowNats;
+			double SD = Math.sqrt(((double)(firstSixEpochs.length * sixSquares - sixTotal * sixTotal)) 
+					/ ((double)(firstSixEpochs.length * (firstSixEpochs.length - 1))));
+			double LG = naturalLog(activity[i]);
+			double sadeh = profile.score(AVG, NATS, SD, LG);
+			
+			if (Math.abs(sadeh) < SCORE_TOLERANCE){
+				for (int j = 0; j < firstSixEpochs.length; j++){
+					int epochIndex = i - middleEpoch + j;
+					firstSixEpochs[j] = (epochIndex >= 0) ? activity[epochIndex] : 0;
+				}
+				
+				SD = standardDeviation(firstSixEpochs);
+				sadeh = profile.score(AVG, NATS, SD, LG);
+			}
+			
+			SLEEP_PROBABILITY prob = (sadeh >= 0) ? SLEEP_PROBABILITY.ASLEEP : SLEEP_PROBABILITY.AWAKE;
+			if (results != null)
+				results[i] = prob;
+			if (asleep != null && prob == SLEEP_PROBABILITY.ASLEEP)
+				asleep[i >>> 6] |= 1L << i;
+			
+			if (listener != null)
+				listener.scored(i, AVG, NATS, SD, LG, sadeh, prob);
+			
+			//Slide the window forward one epoch
+			int leaving = i - windowBefore;
+			if (leaving >= 0){
+				windowTotal -= activity[leaving];
+				windowNats -= profile.isNat(activity[leaving]) ? 1 : 0;
+				sixTotal -= activity[leaving];
+				sixSquares -= (long) activity[leaving] * activity[leaving];
+			}
+			
+			int entering = i + windowAfter + 1;
+			if (entering < n){
+				windowTotal += activity[entering];
+				windowNats += profile.isNat(activity[entering]) ? 1 : 0;
+			}
+			
+			if (i + 1 < n){
+				sixTotal += activity[i+1];
+				sixSquares += (long) activity[i+1] * activity[i+1];
+			}
+		}
+	}
+	
+	/**
+	 * Scores every epoch of a participant's sorted activity counts, with the same results as
+	 * {@link #sadeh(int[], SLEEP_PROBABILITY[], SadehListener)}, returned as packed bits: epoch i is asleep when bit
+	 * (i % 64) of word (i / 64) is set, the layout {@link EpochSeries} stores the sleep states in. This avoids
+	 * creating an array of results and then setting each epoch's state from it.
+	 * 
+	 * On JDK 16 or later, when the jdk.incubator.vector module has been added (java --add-modules
+	 * jdk.incubator.vector), the series is scored with the Vector API, several epochs at a time; otherwise (or with
+	 * -Dsadeh.vector=false) it is scored by the scalar kernel. The scorer is chosen once, when this class is loaded.
+	 * 
+	 * @param activity activity level of each epoch, sorted by time
+	 * @return the packed sleep states, (activity.length + 63) / 64 words
+	 */
+	public static long[] sadehBatch(int[] activity){
+		return sadehBatch(ScoringProfile.DEFAULT, activity);
+	}
+	
+	/**
+	 * {@link #sadehBatch(int[])} with the window, coefficients and NATS range of the given profile.
+	 */
+	public static long[] sadehBatch(ScoringProfile profile, int[] activity){
+		return BATCH_SCORER.score(profile, activity);
+	}
+	
+	/*
+	 * Scores a whole series for sadehBatch, as packed sleep states.
+	 */
+	interface BatchScorer{
+		long[] score(ScoringProfile profile, int[] activity);
+	}
+	
+	static final BatchScorer SCALAR_SCORER = (profile, activity) -> {
+		long[] asleep = new long[(activity.length + 63) >>> 6];
+		sadeh(profile, activity, null, asleep, null);
+		return asleep;
+	};
+	
+	static final BatchScorer BATCH_SCORER = batchScorer();
+	
+	/*
+	 * The Vector API scorer (compiled from src-java16 on JDK 16 or later) if this JVM can run it, otherwise the scalar
+	 * kernel. Loading the vector scorer fails on older JVMs, and when the incubator module has not been added.
+	 */
+	private static BatchScorer batchScorer(){
+		if (!Boolean.parseBoolean(System.getProperty("sadeh.vector", "true")))
+			return SCALAR_SCORER;
+		
+		try{
+			return (BatchScorer) Class.forName("sadeh.VectorBatchScorer").getDeclaredConstructor().newInstance();
+		} catch (LinkageError | ReflectiveOperationException e){
+			return SCALAR_SCORER;
+		}
+	}
+	
+	/**
+	 * A digest of the parameters epochs are scored with: the sadeh window, the NATS range, the coefficients, the
+	 * daytime hours and the activity thresholds. A change to any of them changes the digest, so stored scores can be
+	 * checked against it. FINGERPRINT_VERSION changes when the way epochs are scored with them does.
+	 */
+	public static byte[] scoringFingerprint(ScoringProfile profile){
+		ByteBuffer buffer = ByteBuffer.allocate(4 * 9 + 8 * 5);
+		buffer.putInt(FINGERPRINT_VERSION);
+		buffer.putInt(profile.windowBefore).putInt(profile.windowAfter);
+		buffer.putInt(profile.natsMin).putInt(profile.natsMax);
+		buffer.putLong(Double.doubleToLongBits(profile.intercept));
+		buffer.putLong(Double.doubleToLongBits(profile.meanCoefficient));
+		buffer.putLong(Double.doubleToLongBits(profile.natsCoefficient));
+		buffer.putLong(Double.doubleToLongBits(profile.sdCoefficient));
+		buffer.putLong(Double.doubleToLongBits(profile.logCoefficient));
+		buffer.putInt(profile.daytimeStart).putInt(profile.daytimeEnd);
+		buffer.putInt(profile.sedentaryMax).putInt(profile.lightMax);
+		
+		try{
+			return MessageDigest.getInstance("SHA-256").digest(buffer.array());
+		} catch (NoSuchAlgorithmException e){
+			throw new IllegalStateException("Unable to fingerprint the scoring parameters", e);
+		}
+	}
+	
+	/**
+	 * The Sadeh sleep score; an epoch is scored as asleep when this is zero or greater.
+	 */
+	public static double score(double AVG, int NATS, double SD, double LG){
+		return ScoringProfile.DEFAULT.score(AVG, NATS, SD, LG);
+	}
+	
+	/**
+	 * Receives the values used to score each epoch by {@link SleepAnalysis#sadeh(int[], SLEEP_PROBABILITY[], SadehListener)}.
+	 */
+	public interface SadehListener{
+		void scored(int index, double AVG, int NATS, double SD, double LG, double sadeh, SLEEP_PROBABILITY prob);
+	}
+	
+	/**
+	 * Traces the same per-epoch details as {@link SleepAnalysis#sadeh(List, int)}.
+	 */
+	public static class SadehPrinter implements SadehListener{
+		List<ActicalEpoch> sortedEpochs;
+		int[] activity;
+		ScoringProfile profile;
+		
+		public SadehPrinter(List<ActicalEpoch> sortedEpochs, int[] activity){
+			this(sortedEpochs, activity, ScoringProfile.DEFAULT);
+		}
+		
+		public SadehPrinter(List<ActicalEpoch> sortedEpochs, int[] activity, ScoringProfile profile){
+			this.sortedEpochs = sortedEpochs;
+			this.activity = activity;
+			this.profile = profile;
+		}
+		
+		@Override
+		public void scored(int index, double AVG, int NATS, double SD, double LG, double sadeh, SLEEP_PROBABILITY prob){
+			int[] window = new int[profile.getWindow()];
+			for (int i = 0; i < window.length; i++){
+				int epochIndex = index - profile.getWindowBefore() + i;
+				window[i] = (epochIndex >= 0 && epochIndex < activity.length) ? activity[epochIndex] : 0;
+			}
+			
+			printSadeh(sortedEpochs.get(index), window, AVG, NATS, SD, LG, sadeh, prob);
+		}
+	}
+	
+	static void printSadeh(ActicalEpoch epoch, int[] window, double AVG, int NATS, double SD, double LG, 
+			double sadeh, SLEEP_PROBABILITY prob){
+		Diagnostics.trace(() -> String.join(System.lineSeparator(),
+				"***********************************************************",
+				epoch.toString(),
+				Arrays.toString(window),
+				"AVG: " + AVG,
+				"NATS: " + NATS,
+				"SD: " + SD,
+				"LG: " + LG,
+				"Sadeh: " + sadeh,
+				"Result: " + prob,
+				"***********************************************************",
+				System.lineSeparator()));
+	}
+	
 	public static double naturalLog(int activityLevel){
+		if (activityLevel >= 0 && activityLevel < LOG_TABLE.length)
+			return LOG_TABLE[activityLevel];
+		
 		return Math.log1p(activityLevel);		
 	}
 	
@@ -151,13 +373,17 @@ public class SleepAnalysis {
 		int total = 0;
 		
 		for (int i = 0; i < window.length; i++){
-			if (window[i] >= 50 && window[i] < 100)
+			if (isNat(window[i]))
 				total++;
 		}
 		
 		return total;
 	}
 	
+	static boolean isNat(int activity){
+		return ScoringProfile.DEFAULT.isNat(activity);
+	}
+	
 	public static double average(int[] window){
 		int total = 0;
 		
@@ -0,0 +1,292 @@
+package sadeh;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import analysis.DailyEpochCounts;
+import analysis.SleepPeriod;
+import analysis.SleepPeriodDetector;
+import analysis.SleepPeriodIndex;
+import analysis.SleepStats;
+import excel.ParticipantDataParseException;
+import sadeh.SleepAnalysis.ACTIVITY_LEVEL;
+
+/**
+ * Scores a participant's activity counts held in memory, for programs that run the analysis themselves rather
+ * than through {@link SadehMain}: the same scoring, sleep periods, sleep statistics and nap data as a run of
+ * SadehMain, without reading or writing any files and without its options, output streams or diagnostics.
+ *
+ * An engine only holds its scoring profiles, which are not changed once loaded, and every analysis works on its
+ * own series, so one engine can be used by any number of threads at the same time.
+ *
+ * @author kyle_
+ *
+ */
+public class SleepScoringEngine {
+	protected final ScoringProfiles profiles;
+
+	/**
+	 * An engine that scores every participant with the default (adult) profile.
+	 */
+	public SleepScoringEngine(){
+		this(new ScoringProfiles(ScoringProfile.DEFAULT));
+	}
+
+	public SleepScoringEngine(ScoringProfiles profiles){
+		this.profiles = profiles;
+	}
+
+	/**
+	 * The results of analyzing one participant's activity.
+	 */
+	public static class Result {
+		protected final EpochSeries epochs;
+		protected final ScoringProfile profile;
+		protected List<SleepPeriod> sleepPeriods;
+		protected final Map<LocalDate, SleepStats> sleepStats = new LinkedHashMap<>();
+		protected final Map<LocalDate, NapData> naps = new LinkedHashMap<>();
+
+		Result(EpochSeries epochs, ScoringProfile profile){
+			this.epochs = epochs;
+			this.profile = profile;
+		}
+
+		/**
+		 * The scored epochs: the sleep state, daytime flag and activity threshold of each minute.
+		 */
+		public EpochSeries getEpochs() {
+			return epochs;
+		}
+
+		public ScoringProfile getProfile() {
+			return profile;
+		}
+
+		public List<SleepPeriod> getSleepPeriods() {
+			return sleepPeriods;
+		}
+
+		/**
+		 * The sleep statistics of each date of the data, in date order.
+		 */
+		public Map<LocalDate, SleepStats> getSleepStats() {
+			return sleepStats;
+		}
+
+		/**
+		 * The naps of each date of the data, in date order.
+		 */
+		public Map<LocalDate, NapData> getNaps() {
+			return naps;
+		}
+
+		/**
+		 * The results as a participant of the given assessment point, e.g. for a {@link excel.ParticipantWorkbook}.
+		 */
+		public ActicalParticipant toParticipant(String assessmentPoint){
+			ActicalParticipant participant = new ActicalParticipant();
+			participant.setParticipant(epochs.getParticipant());
+			participant.setAssessmentPoint(assessmentPoint);
+			participant.setEpochSeries(epochs);
+			for (Map.Entry<LocalDate, NapData> nap : naps.entrySet())
+				participant.getNapMap().put(nap.getKey().format(ActicalParticipant.formatter), nap.getValue());
+
+			for (SleepStats stats : sleepStats.values())
+				participant.addSleepStatsToDateBasedMap(stats);
+
+			return participant;
+		}
+	}
+
+	/**
+	 * Analyzes the participant's activity with the participant's profile.
+	 *
+	 * @see #analyze(String, int[], LocalDateTime, ScoringProfile)
+	 */
+	public Result analyze(String participant, int[] activity, LocalDateTime start) throws ParticipantDataParseException{
+		return analyze(participant, activity, start, profiles.forParticipant(participant));
+	}
+
+	/**
+	 * Analyzes the participant's activity, one count per minute.
+	 *
+	 * @param participant participant ID
+	 * @param activity activity level of each consecutive minute
+	 * @param start time of the first minute
+	 * @param profile how the epochs are scored
+	 * @throws ParticipantDataParseException if an activity level is negative
+	 */
+	public Result analyze(String participant, int[] activity, LocalDateTime start, ScoringProfile profile)
+			throws ParticipantDataParseException{
+		if (activity.length == 0)
+			throw new IllegalArgumentException("There is no activity to analyze for participant " + participant);
+
+		EpochSeries epochs = new EpochSeries(activity.length);
+		epochs.setParticipant(participant);
+		for (int i = 0; i < activity.length; i++){
+			LocalDateTime dateTime = start.plusMinutes(i);
+			epochs.add(dateTime, activity[i], EpochSeries.DAYS_OF_WEEK[dateTime.getDayOfWeek().getValue() - 1]);
+		}
+
+		return analyze(epochs, profile);
+	}
+
+	/**
+	 * Analyzes a sorted series of epochs, e.g. one read by the Actical parsers. A gap in the series ends the sadeh
+	 * window and any sleep period, as with the SPLIT gap policy. The series is scored in place.
+	 */
+	public Result analyze(EpochSeries epochs, ScoringProfile profile) throws ParticipantDataParseException{
+		score(epochs, profile);
+		Result result = new Result(epochs, profile);
+
+		int[] dateStarts = epochs.getDateStarts();
+		for (int d = 0; d < dateStarts.length - 1; d++){
+			int from = dateStarts[d];
+			result.naps.put(epochs.getDate(from), calculateNapData(dateStarts[d+1] - from,
+					i -> epochs.getActivityThreshold(from + i) == ACTIVITY_LEVEL.NAPPING));
+		}
+
+		result.sleepPeriods = Collections.unmodifiableList(findSleepPeriods(epochs, profile));
+		SleepPeriodIndex index = new SleepPeriodIndex(result.sleepPeriods);
+		DailyEpochCounts counts = new DailyEpochCounts(epochs);
+		for (LocalDate date : epochs.getDates()){
+			SleepPeriod onset = SleepStats.findSleepOnset(date, index);
+			SleepStats stats = new SleepStats(date, onset, SleepStats.findSleepOffset(date, index, onset));
+			stats.calculate(counts);
+			result.sleepStats.put(date, stats);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Scores each segment of one minute epochs of the sorted series with the sadeh algorithm, then sets whether
+	 * each epoch is daytime and its activity threshold.
+	 */
+	static void score(EpochSeries epochs, ScoringProfile profile) throws ParticipantDataParseException{
+		int[] activity = epochs.getActivityLevels();
+		int[] segmentStarts = epochs.getSegmentStarts();
+		if (segmentStarts.length == 2){
+			epochs.setSleepStates(SleepAnalysis.sadehBatch(profile, activity));
+		} else{
+			//Gaps (with the SPLIT gap policy) end the sadeh window, so each segment is scored on its own
+			long[] asleep = new long[(activity.length + 63) >>> 6];
+			for (int s = 0; s < segmentStarts.length - 1; s++){
+				int from = segmentStarts[s];
+				long[] segment = SleepAnalysis.sadehBatch(profile, Arrays.copyOfRange(activity, from, segmentStarts[s+1]));
+				for (int i = from; i < segmentStarts[s+1]; i++){
+					if ((segment[(i - from) >>> 6] & (1L << (i - from))) != 0)
+						asleep[i >>> 6] |= 1L << i;
+				}
+			}
+			epochs.setSleepStates(asleep);
+		}
+
+		setActivityThresholds(epochs, profile);
+	}
+
+	/**
+	 * Sets whether each epoch of a scored series is daytime, and its activity threshold.
+	 */
+	static void setActivityThresholds(EpochSeries epochs, ScoringProfile profile) throws ParticipantDataParseException{
+		for (int i = 0; i < epochs.size(); i++){
+			boolean isDaytime = profile.isDaytime(epochs.getSecondOfDay(i) / 3600);
+			epochs.setDaytime(i, isDaytime);
+			ACTIVITY_LEVEL lvl = profile.getActivityThreshold(epochs.isAsleep(i), isDaytime,
+					epochs.getActivityLevel(i), epochs.getParticipant());
+			epochs.setActivityThreshold(i, lvl);
+		}
+	}
+
+	/*
+	 * The sleep periods of each segment of the scored series, as SadehMain.getSleepPeriods finds them, without
+	 * reporting the possible sleep periods.
+	 */
+	static List<SleepPeriod> findSleepPeriods(EpochSeries epochs, ScoringProfile profile){
+		List<SleepPeriod> sleepPeriods = new ArrayList<>();
+		int[] segmentStarts = epochs.getSegmentStarts();
+		for (int s = 0; s < segmentStarts.length - 1; s++){
+			int from = segmentStarts[s];
+			SleepPeriodDetector detector = new SleepPeriodDetector(profile.getMinSleepEpochs(),
+					profile.getSuccessiveAwakeEpochs(), profile.getPrecedingAwakeEpochs(), new SleepPeriodDetector.Listener(){
+				@Override
+				public void ended(int startIndex, int endIndex, boolean preceded) {
+					if (preceded)
+						sleepPeriods.add(new SleepPeriod(epochs, from + startIndex, from + endIndex));
+				}
+
+				@Override
+				public void notEnded(int startIndex) {
+				}
+			});
+
+			for (int i = from; i < segmentStarts[s+1]; i++)
+				detector.next(epochs.isAsleep(i));
+
+			detector.finish();
+		}
+
+		return sleepPeriods;
+	}
+
+	/**
+	 * Naps of one date: runs of at least 30 napping epochs.
+	 *
+	 * @param size number of epochs of the date
+	 * @param isNapping whether the i'th epoch of the date is napping
+	 */
+	static NapData calculateNapData(int size, IntPredicate isNapping){
+		int consecutiveNappingEpochs = 0;
+		List<Integer> naps = new ArrayList<>();
+		double averageNapDurationMinutes = 0;
+		int minNapDurationMinutes = Integer.MAX_VALUE;
+		int maxNapDurationMinutes = 0;
+
+		for (int i = 0; i < size; i++){
+			boolean napping = isNapping.test(i);
+
+			if (napping){
+				consecutiveNappingEpochs++;
+			}
+
+			if ((!napping && consecutiveNappingEpochs >= 30) ||
+					(i == size-1 && consecutiveNappingEpochs >= 30)){
+				naps.add(consecutiveNappingEpochs);
+				consecutiveNappingEpochs = 0;
+			}
+
+		}
+
+		int totalNapTime = 0;
+
+		for (Integer nap : naps){
+			totalNapTime += nap;
+			if (nap < minNapDurationMinutes)
+				minNapDurationMinutes = nap;
+
+			if (nap > maxNapDurationMinutes)
+				maxNapDurationMinutes = nap;
+		}
+
+		if (minNapDurationMinutes == Integer.MAX_VALUE)
+			minNapDurationMinutes = 0;
+
+		if (naps.size() > 0)
+			averageNapDurationMinutes = totalNapTime/naps.size();
+
+		long avgNap = Math.round(averageNapDurationMinutes);
+		NapData napData = new NapData();
+		napData.setAverageNap(avgNap);
+		napData.setMaxNap(maxNapDurationMinutes);
+		napData.setMinNap(minNapDurationMinutes);
+		napData.setNumberNaps(naps.size());
+		return napData;
+	}
+}
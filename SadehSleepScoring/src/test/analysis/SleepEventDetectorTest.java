@@ -0,0 +1,186 @@
+package analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import excel.ParticipantDataParseException;
+import sadeh.EpochSeries;
+import sadeh.ScoringProfile;
+import sadeh.SleepScoringEngine;
+
+/**
+ * Checks that {@link SleepEventDetector} finds the same sleep periods, and the same sleep onset and offset for each
+ * date, as {@link SleepScoringEngine#analyze(EpochSeries, ScoringProfile)} finds after the whole recording is
+ * scored, although it reports them while the epochs arrive and forgets the sleep periods it no longer needs.
+ *
+ * @author kyle_
+ *
+ */
+public class SleepEventDetectorTest {
+	static final int MINUTES_PER_DAY = 24 * 60;
+
+	@Test
+	public void randomRecordingsMatchEngine() throws ParticipantDataParseException{
+		Random random = new Random(23);
+		int nights = 0;
+		for (int run = 0; run < 200; run++)
+			nights += assertDetectorMatches("seed run " + run, randomRecording(random, false));
+
+		assertTrue(nights > 500);
+	}
+
+	@Test
+	public void gapsAcrossTheOnsetAndOffsetWindowsMatchEngine() throws ParticipantDataParseException{
+		//Gaps that start in, or cover the ends of, the 7:30PM-11:30PM, 5:30PM-8AM, 4AM-9AM and 4AM-10AM windows
+		Random random = new Random(2023);
+		for (int run = 0; run < 200; run++)
+			assertDetectorMatches("seed run " + run, randomRecording(random, true));
+	}
+
+	/*
+	 * Days of a participant who goes to bed and wakes up at a different time every night, wakes up briefly during
+	 * the night, sometimes dozes in the early evening or goes back to sleep in the morning, and sits still now and
+	 * then during the day. The recording starts at a random time of the first day and has random gaps; with
+	 * windowGaps, most nights also have gaps around the ends of the onset and offset windows.
+	 */
+	private static EpochSeries randomRecording(Random random, boolean windowGaps){
+		int days = 2 + random.nextInt(6);
+		int first = random.nextInt(MINUTES_PER_DAY);
+		int end = days * MINUTES_PER_DAY;
+		LocalDateTime start = LocalDate.of(2017, 3, 6).atStartOfDay().plusMinutes(first);
+
+		//What the participant is doing at each minute from midnight of the first day
+		boolean[] asleep = new boolean[first + end];
+		for (int day = 0; day <= days; day++){
+			int midnight = day * MINUTES_PER_DAY;
+			int bedtime = midnight - 5 * 60 + random.nextInt(330);
+			mark(asleep, bedtime, midnight + 5 * 60 + random.nextInt(330) - bedtime, true);
+			if (random.nextInt(3) == 0)
+				mark(asleep, midnight + 17 * 60 + random.nextInt(150), 16 + random.nextInt(60), true);
+			if (random.nextInt(2) == 0)
+				mark(asleep, midnight + 8 * 60 + random.nextInt(150), 16 + random.nextInt(60), true);
+		}
+
+		for (int m = 0; m < asleep.length; m++){
+			int length = 1 + random.nextInt(asleep[m] ? 8 : 20);
+			if (random.nextInt(asleep[m] ? 60 : 50) == 0){
+				for (int i = m; i < m + length && i < asleep.length; i++)
+					asleep[i] = !asleep[i];
+				m += length;
+			}
+		}
+
+		boolean[] gap = new boolean[first + end];
+		for (int g = 0; g < days + 3; g++)
+			mark(gap, first + random.nextInt(end), 1 + (random.nextBoolean() ? random.nextInt(30) : random.nextInt(300)), true);
+
+		if (windowGaps){
+			int[] edges = {17 * 60 + 30, 19 * 60 + 30, 23 * 60 + 30, 28 * 60, 32 * 60, 33 * 60, 34 * 60};
+			for (int day = 0; day < days; day++){
+				int edge = day * MINUTES_PER_DAY + edges[random.nextInt(edges.length)] - random.nextInt(40);
+				mark(gap, edge, 1 + random.nextInt(80), true);
+			}
+		}
+
+		EpochSeries epochs = new EpochSeries();
+		for (int m = 0; m < end; m++){
+			if (gap[first + m])
+				continue;
+
+			LocalDateTime dateTime = start.plusMinutes(m);
+			int level = asleep[first + m] ? (random.nextInt(15) == 0 ? random.nextInt(60) : 0) : 50 + random.nextInt(600);
+			epochs.add(dateTime, level, dateTime.getDayOfWeek().getDisplayName(TextStyle.FULL, Locale.ENGLISH));
+		}
+
+		epochs.setParticipant("1001");
+		return epochs;
+	}
+
+	private static void mark(boolean[] minutes, int from, int length, boolean value){
+		for (int m = Math.max(from, 0); m < from + length && m < minutes.length; m++)
+			minutes[m] = value;
+	}
+
+	/*
+	 * Returns the number of dates with a sleep onset.
+	 */
+	private static int assertDetectorMatches(String message, EpochSeries epochs) throws ParticipantDataParseException{
+		ScoringProfile profile = ScoringProfile.DEFAULT;
+		SleepScoringEngine.Result result = new SleepScoringEngine().analyze(epochs, profile);
+
+		List<String> closed = new ArrayList<>();
+		List<LocalDate> onsetDates = new ArrayList<>();
+		List<LocalDate> offsetDates = new ArrayList<>();
+		List<String> onsets = new ArrayList<>();
+		List<String> offsets = new ArrayList<>();
+		SleepEventDetector detector = new SleepEventDetector(profile.getMinSleepEpochs(), profile.getSuccessiveAwakeEpochs(),
+				profile.getPrecedingAwakeEpochs(), new SleepEventDetector.Listener(){
+			@Override
+			public void periodClosed(SleepPeriod period){
+				closed.add(period(period));
+			}
+
+			@Override
+			public void sleepOnset(LocalDate date, SleepPeriod onset){
+				onsetDates.add(date);
+				onsets.add(date + " " + period(onset));
+			}
+
+			@Override
+			public void sleepOffset(LocalDate date, SleepPeriod onset, SleepPeriod offset){
+				offsetDates.add(date);
+				offsets.add(date + " " + period(onset) + " " + period(offset));
+			}
+		});
+
+		for (int i = 0; i < epochs.size(); i++)
+			detector.next(epochs.getDateTime(i), epochs.isAsleep(i));
+
+		detector.finish();
+
+		List<String> expectedPeriods = new ArrayList<>();
+		for (SleepPeriod sp : result.getSleepPeriods())
+			expectedPeriods.add(period(sp));
+		assertEquals(message, expectedPeriods, closed);
+
+		List<LocalDate> dates = new ArrayList<>(result.getSleepStats().keySet());
+		assertEquals(message, dates, onsetDates);
+		assertEquals(message, dates, offsetDates);
+
+		List<String> expectedOnsets = new ArrayList<>();
+		List<String> expectedOffsets = new ArrayList<>();
+		int found = 0;
+		for (Map.Entry<LocalDate, SleepStats> entry : result.getSleepStats().entrySet()){
+			LocalDate date = entry.getKey();
+			SleepPeriod onset = SleepStats.findSleepOnset(date, result.getSleepPeriods());
+			SleepPeriod offset = SleepStats.findSleepOffset(date, result.getSleepPeriods(), onset);
+			expectedOnsets.add(date + " " + period(onset));
+			expectedOffsets.add(date + " " + period(onset) + " " + period(offset));
+			found += (onset != null) ? 1 : 0;
+
+			//The statistics hold the start of the onset and the end of the offset
+			SleepStats stats = entry.getValue();
+			assertEquals(message, (onset == null) ? null : onset.getStart(), stats.getSleepOnset());
+			assertEquals(message, (offset == null) ? null : offset.getEnd(), stats.getSleepOffset());
+		}
+
+		assertEquals(message, expectedOnsets, onsets);
+		assertEquals(message, expectedOffsets, offsets);
+		return found;
+	}
+
+	private static String period(SleepPeriod sp){
+		return (sp == null) ? "none" : sp.getStart() + " - " + sp.getEnd();
+	}
+}
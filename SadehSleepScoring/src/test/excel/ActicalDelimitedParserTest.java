@@ -0,0 +1,130 @@
+package excel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sadeh.EpochSeries;
+
+/**
+ * Checks the epochs {@link ActicalDelimitedParser#parseSadehDelimitedDocument(File)} reads from .csv and .tsv
+ * exports, and that it rejects times and activity levels it cannot read.
+ *
+ * @author kyle_
+ *
+ */
+public class ActicalDelimitedParserTest {
+	static final String BOM = "\uFEFF";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/*
+	 * Monday in column 4, with its date in column 2, and Tuesday in column 7, with its date in column 5. Fields are
+	 * separated by | here, which is replaced by the delimiter of the file.
+	 */
+	static final String[] HEADER_LINES = {
+			"Synthetic participant 1001",
+			"",
+			"|\"Subject| notes\"||\"Mon| week 1\"|||Tue",
+			"", "", "", "", "", "", "", "", "", "", "", ""};
+
+	static final String[] DATA_LINES = {
+			//A fraction of a day, and a quoted date containing a comma
+			"0.5|2016-03-07||12|\"Mar 8, 2016\"||40",
+			"12:01:00 PM|||7|||",
+			"\"12:02:30 pm\"||| 3.9 |||-2",
+			"0.50208333333333333|||0|||5",
+			"12:04:00 AM|||1|||",
+			//Like a missing row in the workbook, a blank line ends the data
+			"",
+			"12:05|||99|||99"};
+
+	@Test
+	public void csvWithCrlfAndBom() throws Exception{
+		assertEpochs(parse("1001.csv", ",", "\r\n", true));
+	}
+
+	@Test
+	public void tsvWithCrlfAndBom() throws Exception{
+		assertEpochs(parse("1001.tsv", "\t", "\r\n", true));
+	}
+
+	@Test
+	public void csvAndTsvWithLf() throws Exception{
+		assertEpochs(parse("1002.csv", ",", "\n", false));
+		assertEpochs(parse("1002.tsv", "\t", "\n", false));
+	}
+
+	@Test
+	public void invalidTimes() throws Exception{
+		for (String time : new String[] {"25:00", "12:60", "12:", "abc", "1:00 XM", "13:00 PM", "0:30 AM", "-0.5", "1.5.2"}){
+			assertInvalid("1003.csv", ",", time + "|||12|||");
+			assertInvalid("1003.tsv", "\t", time + "|||12|||");
+		}
+	}
+
+	@Test
+	public void invalidActivityLevels() throws Exception{
+		for (String level : new String[] {"12a", "-", "1.2.3", ".", "1 2"}){
+			assertInvalid("1004.csv", ",", "12:00|||" + level + "|||");
+			assertInvalid("1004.tsv", "\t", "12:00|||" + level + "|||");
+		}
+	}
+
+	private static void assertEpochs(EpochSeries epochs){
+		Object[][] expected = {
+				{LocalDateTime.of(2016, 3, 7, 12, 0, 0), 12, "Monday"},
+				{LocalDateTime.of(2016, 3, 8, 12, 0, 0), 40, "Tuesday"},
+				{LocalDateTime.of(2016, 3, 7, 12, 1, 0), 7, "Monday"},
+				{LocalDateTime.of(2016, 3, 7, 12, 2, 30), 3, "Monday"},
+				{LocalDateTime.of(2016, 3, 8, 12, 2, 30), -2, "Tuesday"},
+				{LocalDateTime.of(2016, 3, 7, 12, 3, 0), 0, "Monday"},
+				{LocalDateTime.of(2016, 3, 8, 12, 3, 0), 5, "Tuesday"},
+				{LocalDateTime.of(2016, 3, 7, 0, 4, 0), 1, "Monday"}};
+
+		assertEquals(expected.length, epochs.size());
+		for (int i = 0; i < expected.length; i++){
+			assertEquals("epoch " + i, expected[i][0], epochs.getDateTime(i));
+			assertEquals("epoch " + i, expected[i][1], epochs.getActivityLevel(i));
+			assertEquals("epoch " + i, expected[i][2], epochs.getDayOfWeek(i));
+		}
+	}
+
+	private EpochSeries parse(String name, String delimiter, String lineBreak, boolean bom)
+			throws IOException, ParticipantDataParseException{
+		return ActicalDelimitedParser.parseSadehDelimitedDocument(write(name, delimiter, lineBreak, bom, DATA_LINES));
+	}
+
+	private void assertInvalid(String name, String delimiter, String line) throws IOException{
+		File file = write(name, delimiter, "\r\n", true, DATA_LINES[0], line);
+		try{
+			ActicalDelimitedParser.parseSadehDelimitedDocument(file);
+			fail("The line " + line + " of " + name + " should not be read");
+		} catch (ParticipantDataParseException e){
+			assertEquals("Invalid", e.getMessage().substring(0, 7));
+		}
+	}
+
+	private File write(String name, String delimiter, String lineBreak, boolean bom, String... dataLines)
+			throws IOException{
+		StringBuilder text = new StringBuilder(bom ? BOM : "");
+		for (String line : HEADER_LINES)
+			text.append(line.replace("|", delimiter)).append(lineBreak);
+		for (String line : dataLines)
+			text.append(line.replace("|", delimiter)).append(lineBreak);
+
+		File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,127 @@
+package sadeh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+import excel.ParticipantDataParseException;
+import sadeh.SleepAnalysis.ACTIVITY_LEVEL;
+import sadeh.SleepAnalysis.SLEEP_PROBABILITY;
+
+/**
+ * Checks that scoring epochs one at a time with {@link OnlineSadehScorer} gives every epoch the same sleep state and
+ * activity threshold as scoring the whole series with {@link SleepScoringEngine#score(EpochSeries, ScoringProfile)}.
+ *
+ * @author kyle_
+ *
+ */
+public class OnlineSadehScorerTest {
+	//Not on the minute, so the epochs are too
+	static final LocalDateTime START = LocalDateTime.of(2017, 3, 6, 20, 13, 27);
+
+	@Test
+	public void randomSeriesWithGapsMatchBatch() throws ParticipantDataParseException{
+		Random random = new Random(22);
+		Properties window = new Properties();
+		window.setProperty("window.before", "3");
+		window.setProperty("window.after", "7");
+		ScoringProfile[] profiles = {ScoringProfile.ADULT, ScoringProfile.TODDLER,
+				new ScoringProfile("window", window, ScoringProfile.ADULT)};
+
+		for (int run = 0; run < 300; run++){
+			ScoringProfile profile = profiles[run % profiles.length];
+			assertOnlineMatches("seed run " + run, profile, randomSeries(random, profile));
+		}
+	}
+
+	@Test
+	public void segmentsShorterThanTheWindowMatchBatch() throws ParticipantDataParseException{
+		//Segments of 1 to WINDOW_AFTER + 1 epochs, so each is padded at both ends
+		Random random = new Random(5);
+		EpochSeries epochs = new EpochSeries();
+		LocalDateTime dateTime = START;
+		for (int length = 1; length <= SleepAnalysis.WINDOW_AFTER + 1; length++){
+			for (int i = 0; i < length; i++){
+				add(epochs, dateTime, random.nextInt(4) == 0 ? random.nextInt(200) : 0);
+				dateTime = dateTime.plusMinutes(1);
+			}
+
+			dateTime = dateTime.plusMinutes(2 + random.nextInt(60));
+		}
+
+		assertOnlineMatches("short segments", ScoringProfile.ADULT, epochs);
+	}
+
+	/*
+	 * Segments of random lengths (some shorter than the window after an epoch) separated by gaps of whole minutes.
+	 */
+	private static EpochSeries randomSeries(Random random, ScoringProfile profile){
+		EpochSeries epochs = new EpochSeries();
+		LocalDateTime dateTime = START.plusSeconds(random.nextInt(60));
+		int segments = 1 + random.nextInt(5);
+		for (int s = 0; s < segments; s++){
+			int length = random.nextBoolean() ? 1 + random.nextInt(profile.getWindowAfter() + 1) : random.nextInt(1500);
+			int kind = 0;
+			for (int i = 0; i < length; i++){
+				if (random.nextInt(10) == 0)
+					kind = random.nextInt(4);
+
+				int level = (kind == 0) ? 0 : (kind == 1) ? random.nextInt(50) : (kind == 2) ? 50 + random.nextInt(50)
+						: random.nextInt(5000);
+				add(epochs, dateTime, level);
+				dateTime = dateTime.plusMinutes(1);
+			}
+
+			dateTime = dateTime.plusMinutes(1 + random.nextInt(600));
+		}
+
+		return epochs;
+	}
+
+	private static void add(EpochSeries epochs, LocalDateTime dateTime, int level){
+		epochs.add(dateTime, level, EpochSeries.DAYS_OF_WEEK[dateTime.getDayOfWeek().getValue() - 1]);
+	}
+
+	private static void assertOnlineMatches(String message, ScoringProfile profile, EpochSeries epochs)
+			throws ParticipantDataParseException{
+		epochs.setParticipant("1001");
+		List<ActicalEpoch> scored = new ArrayList<>();
+		List<ACTIVITY_LEVEL> levels = new ArrayList<>();
+		OnlineSadehScorer scorer = new OnlineSadehScorer(profile, (epoch, prob, level) -> {
+			assertEquals(message, epoch.isAsleep(), prob == SLEEP_PROBABILITY.ASLEEP);
+			scored.add(epoch);
+			levels.add(level);
+		});
+
+		List<ActicalEpoch> arriving = new ArrayList<>();
+		for (int i = 0; i < epochs.size(); i++){
+			ActicalEpoch epoch = new ActicalEpoch();
+			epoch.setParticipant(epochs.getParticipant());
+			epoch.setDateTime(epochs.getDateTime(i));
+			epoch.setDate(epochs.getDateTime(i).toLocalDate());
+			epoch.setActivityLevel(epochs.getActivityLevel(i));
+			arriving.add(epoch);
+			scorer.accept(epoch);
+		}
+
+		scorer.end();
+		SleepScoringEngine.score(epochs, profile);
+
+		assertEquals(message, epochs.size(), scored.size());
+		for (int i = 0; i < epochs.size(); i++){
+			String at = message + ", epoch " + i + " at " + epochs.getDateTime(i);
+			assertSame(at, arriving.get(i), scored.get(i));
+			assertEquals(at, epochs.isAsleep(i), scored.get(i).isAsleep());
+			assertEquals(at, epochs.isDaytime(i), scored.get(i).isDaytime());
+			assertEquals(at, epochs.getActivityThreshold(i), levels.get(i));
+			assertEquals(at, epochs.getActivityThreshold(i), scored.get(i).getActivityThreshold());
+		}
+	}
+}
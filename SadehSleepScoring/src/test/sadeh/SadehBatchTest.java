@@ -0,0 +1,125 @@
+package sadeh;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sadeh.SleepAnalysis.SLEEP_PROBABILITY;
+
+/**
+ * Checks that {@link SleepAnalysis#sadehBatch(ScoringProfile, int[])}, whichever scorer it uses, scores every epoch
+ * the same as the scalar kernel. With the vector profile of the build (JDK 16 or later) the tests run with the
+ * jdk.incubator.vector module, so the Vector API scorer is the one tested.
+ *
+ * @author kyle_
+ *
+ */
+public class SadehBatchTest {
+	static final int MINUTES_PER_DAY = 24 * 60;
+
+	@Test
+	public void vectorScorerIsUsedWhenExpected(){
+		//Unless the scalar kernel was asked for with -Dsadeh.vector=false
+		if (Boolean.getBoolean("sadeh.vector.expected") && Boolean.parseBoolean(System.getProperty("sadeh.vector", "true")))
+			assertNotSame(SleepAnalysis.SCALAR_SCORER, SleepAnalysis.BATCH_SCORER);
+	}
+
+	@Test
+	public void longRandomSeriesMatchScalar(){
+		Random random = new Random(16);
+		for (ScoringProfile profile : profiles()){
+			//Four weeks of minutes, and lengths that end part way through a vector and a word
+			for (int length : new int[] {28 * MINUTES_PER_DAY, 28 * MINUTES_PER_DAY + 37, 10007})
+				assertBatchMatches(profile, randomSeries(random, length));
+		}
+	}
+
+	@Test
+	public void tiledSeriesMatchScalar(){
+		Random random = new Random(1016);
+		int[] day = randomSeries(random, MINUTES_PER_DAY);
+		int[] recording = new int[day.length * 21];
+		for (int d = 0; d < 21; d++)
+			System.arraycopy(day, 0, recording, d * day.length, day.length);
+
+		for (ScoringProfile profile : profiles())
+			assertBatchMatches(profile, recording);
+	}
+
+	@Test
+	public void shortSeriesMatchScalar(){
+		Random random = new Random(7);
+		for (ScoringProfile profile : profiles()){
+			for (int length = 0; length <= 140; length++)
+				assertBatchMatches(profile, randomSeries(random, length));
+		}
+	}
+
+	@Test
+	public void scoresNearZeroMatchScalar(){
+		//Without activity every value is 0, so the score is the intercept, exactly 0 here
+		Properties properties = new Properties();
+		properties.setProperty("sadeh.intercept", "0");
+		ScoringProfile profile = new ScoringProfile("zero", properties, ScoringProfile.ADULT);
+
+		Random random = new Random(0);
+		int[] activity = randomSeries(random, 5000);
+		for (int i = 0; i < activity.length; i++){
+			if (random.nextInt(3) > 0)
+				activity[i] = 0;
+		}
+
+		assertBatchMatches(profile, activity);
+		assertBatchMatches(profile, new int[300]);
+	}
+
+	private static ScoringProfile[] profiles(){
+		Properties window = new Properties();
+		window.setProperty("window.before", "3");
+		window.setProperty("window.after", "8");
+		window.setProperty("nats.min", "0");
+		window.setProperty("nats.max", "20");
+		Properties coefficients = new Properties();
+		coefficients.setProperty("sadeh.intercept", "6.9");
+		coefficients.setProperty("sadeh.mean", "0.05");
+		coefficients.setProperty("sadeh.sd", "0.07");
+
+		return new ScoringProfile[] {ScoringProfile.ADULT, ScoringProfile.TODDLER,
+				new ScoringProfile("window", window, ScoringProfile.ADULT),
+				new ScoringProfile("coefficients", coefficients, ScoringProfile.ADULT)};
+	}
+
+	/*
+	 * Mostly still, some small movements, some NATS range values and some large ones, in runs.
+	 */
+	private static int[] randomSeries(Random random, int length){
+		int[] activity = new int[length];
+		int kind = 0;
+		for (int i = 0; i < length; i++){
+			if (random.nextInt(8) == 0)
+				kind = random.nextInt(4);
+
+			activity[i] = (kind == 0) ? 0 : (kind == 1) ? random.nextInt(50) : (kind == 2) ? 50 + random.nextInt(50)
+					: random.nextInt(5000);
+		}
+
+		return activity;
+	}
+
+	private static void assertBatchMatches(ScoringProfile profile, int[] activity){
+		SLEEP_PROBABILITY[] states = new SLEEP_PROBABILITY[activity.length];
+		SleepAnalysis.sadeh(profile, activity, states, null);
+
+		long[] expected = new long[(activity.length + 63) >>> 6];
+		for (int i = 0; i < activity.length; i++){
+			if (states[i] == SLEEP_PROBABILITY.ASLEEP)
+				expected[i >>> 6] |= 1L << i;
+		}
+
+		assertArrayEquals(profile + ", " + activity.length + " epochs", expected, SleepAnalysis.sadehBatch(profile, activity));
+	}
+}
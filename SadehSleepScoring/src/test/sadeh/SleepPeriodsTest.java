@@ -0,0 +1,280 @@
+package sadeh;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import analysis.SleepPeriod;
+import analysis.SleepPeriodDetector;
+
+/**
+ * Checks that the single pass sleep period detection finds the same sleep periods as the original algorithm,
+ * which searched forwards and backwards from each possible sleep period. A copy of the original algorithm is
+ * kept below, with its rules passed in rather than fixed.
+ *
+ * @author kyle_
+ *
+ */
+public class SleepPeriodsTest {
+	static final LocalDateTime START = LocalDateTime.of(2017, 3, 6, 12, 0);
+
+	@Test
+	public void randomSeriesMatchOriginal() throws Exception{
+		Random random = new Random(20170306);
+		for (int run = 0; run < 2000; run++){
+			boolean[] asleep = randomSeries(random, random.nextInt(600));
+			List<ActicalEpoch> epochs = epochs(asleep);
+
+			List<String> expected = original(epochs, 15, 5, 1);
+			assertEquals("seed run " + run, expected, periods(SadehMain.getSleepPeriods(epochs)));
+			assertEquals("seed run " + run, expected, periods(SadehMain.getSleepPeriods(series(asleep))));
+		}
+	}
+
+	@Test
+	public void randomSeriesMatchOriginalWithOtherRules() throws Exception{
+		Random random = new Random(42);
+		for (int run = 0; run < 2000; run++){
+			boolean[] asleep = randomSeries(random, random.nextInt(400));
+			int minSleepEpochs = 1 + random.nextInt(20);
+			int successiveAwakeEpochs = 1 + random.nextInt(8);
+			int precedingAwakeEpochs = random.nextInt(6);
+
+			assertEquals("seed run " + run, original(epochs(asleep), minSleepEpochs, successiveAwakeEpochs, precedingAwakeEpochs),
+					detect(asleep, minSleepEpochs, successiveAwakeEpochs, precedingAwakeEpochs));
+		}
+	}
+
+	@Test
+	public void overlappingSleepPeriods() throws Exception{
+		//The first period runs on through the second, which is also preceded by an awake epoch
+		boolean[] asleep = series("A15S2A15S5A");
+		List<String> expected = original(epochs(asleep), 15, 5, 1);
+		assertEquals(2, expected.size());
+		assertEquals(expected, periods(SadehMain.getSleepPeriods(epochs(asleep))));
+		assertEquals(expected, periods(SadehMain.getSleepPeriods(series(asleep))));
+	}
+
+	@Test
+	public void precedingConsecutiveAwake() throws Exception{
+		//Sleep from the first epoch is not preceded by any awake epochs
+		boolean[] asleep = series("20S5A");
+		assertEquals(0, original(epochs(asleep), 15, 5, 1).size());
+		assertEquals(0, SadehMain.getSleepPeriods(series(asleep)).size());
+
+		//Two awake epochs before the second period: enough for 2, not for 3
+		asleep = series("A15S5A2A15S5A");
+		for (int preceding = 0; preceding <= 8; preceding++){
+			assertEquals("preceding " + preceding, original(epochs(asleep), 15, 5, preceding),
+					detect(asleep, 15, 5, preceding));
+		}
+
+		//A period still waiting for its awake epochs at the end of the data is not a sleep period
+		asleep = series("A15S4A");
+		assertEquals(0, original(epochs(asleep), 15, 5, 1).size());
+		assertEquals(0, SadehMain.getSleepPeriods(series(asleep)).size());
+	}
+
+	/*
+	 * Runs of asleep and awake epochs of random lengths, with long runs as common as short ones.
+	 */
+	private static boolean[] randomSeries(Random random, int size){
+		boolean[] asleep = new boolean[size];
+		boolean state = random.nextBoolean();
+		int i = 0;
+		while (i < size){
+			int length = random.nextBoolean() ? 1 + random.nextInt(6) : 10 + random.nextInt(30);
+			for (int j = 0; j < length && i < size; j++)
+				asleep[i++] = state;
+
+			state = !state;
+		}
+
+		return asleep;
+	}
+
+	/*
+	 * A series written as counts of asleep (S) and awake (A) epochs, e.g. "A15S5A".
+	 */
+	private static boolean[] series(String runs){
+		List<Boolean> states = new ArrayList<>();
+		int count = 0;
+		for (char c : runs.toCharArray()){
+			if (Character.isDigit(c)){
+				count = count * 10 + (c - '0');
+			} else{
+				for (int i = 0; i < Math.max(count, 1); i++)
+					states.add(c == 'S');
+
+				count = 0;
+			}
+		}
+
+		boolean[] asleep = new boolean[states.size()];
+		for (int i = 0; i < asleep.length; i++)
+			asleep[i] = states.get(i);
+
+		return asleep;
+	}
+
+	private static List<ActicalEpoch> epochs(boolean[] asleep){
+		List<ActicalEpoch> epochs = new ArrayList<>();
+		for (int i = 0; i < asleep.length; i++){
+			ActicalEpoch epoch = new ActicalEpoch();
+			epoch.setDateTime(START.plusMinutes(i));
+			epoch.setDate(epoch.getDateTime().toLocalDate());
+			epoch.setAsleep(asleep[i]);
+			epochs.add(epoch);
+		}
+
+		return epochs;
+	}
+
+	private static EpochSeries series(boolean[] asleep){
+		EpochSeries series = new EpochSeries(asleep.length);
+		for (int i = 0; i < asleep.length; i++){
+			LocalDateTime dateTime = START.plusMinutes(i);
+			series.add(dateTime, 0, EpochSeries.DAYS_OF_WEEK[dateTime.getDayOfWeek().getValue() - 1]);
+		}
+
+		for (int i = 0; i < asleep.length; i++)
+			series.setAsleep(i, asleep[i]);
+
+		return series;
+	}
+
+	private static List<String> detect(boolean[] asleep, int minSleepEpochs, int successiveAwakeEpochs,
+			int precedingAwakeEpochs){
+		List<String> periods = new ArrayList<>();
+		SleepPeriodDetector detector = new SleepPeriodDetector(minSleepEpochs, successiveAwakeEpochs, precedingAwakeEpochs,
+				new SleepPeriodDetector.Listener(){
+			@Override
+			public void ended(int startIndex, int endIndex, boolean preceded){
+				if (preceded)
+					periods.add(period(START.plusMinutes(startIndex), START.plusMinutes(endIndex)));
+			}
+
+			@Override
+			public void notEnded(int startIndex){
+			}
+		});
+
+		for (boolean a : asleep)
+			detector.next(a);
+
+		detector.finish();
+		return periods;
+	}
+
+	private static List<String> periods(List<SleepPeriod> sleepPeriods){
+		List<String> periods = new ArrayList<>();
+		for (SleepPeriod sp : sleepPeriods)
+			periods.add(period(sp.getStart(), sp.getEnd()));
+
+		return periods;
+	}
+
+	private static String period(LocalDateTime start, LocalDateTime end){
+		return start + " - " + end;
+	}
+
+	/*
+	 * The original SadehMain.getSleepPeriods, returning the start and end of each sleep period.
+	 */
+	private static List<String> original(List<ActicalEpoch> epochs, int minSleepEpochs, int successiveAwakeEpochs,
+			int precedingAwakeEpochs) throws Exception{
+		List<String> sleepPeriods = new ArrayList<>();
+		List<ActicalEpoch> possibleSleepPeriod = new ArrayList<>();
+		List<PossibleSleepPeriod> psps = new ArrayList<>();
+		int sleepStartingIndex = -1;
+
+		for (int i = 0; i < epochs.size(); i++){
+			ActicalEpoch current = epochs.get(i);
+			if (current.isAsleep()){
+				if (possibleSleepPeriod.isEmpty()){
+					sleepStartingIndex = i;
+				}
+
+				possibleSleepPeriod.add(current);
+			}
+
+			if (!current.isAsleep() || i == epochs.size()-1){
+				if (possibleSleepPeriod.size() >= minSleepEpochs){
+					PossibleSleepPeriod psp = new PossibleSleepPeriod();
+					psp.epochListStartingIndex = sleepStartingIndex;
+					psp.epochs = possibleSleepPeriod;
+					psps.add(psp);
+				}
+
+				possibleSleepPeriod = new ArrayList<>();
+				sleepStartingIndex = -1;
+			}
+		}
+
+		Iterator<PossibleSleepPeriod> pspIt = psps.iterator();
+		while (pspIt.hasNext()){
+			PossibleSleepPeriod psp = pspIt.next();
+			List<ActicalEpoch> eps = psp.epochs;
+			int possibleSleepEpochDsIdx = epochs.indexOf(eps.get(eps.size()-1));
+
+			int consecutiveAwake = 0;
+			ArrayList<ActicalEpoch> additionalSleepochs = new ArrayList<>();
+			ArrayList<ActicalEpoch> tempSleepochs = new ArrayList<>();
+			boolean hasWakePeriod = false;
+
+			for (int i = possibleSleepEpochDsIdx+1; i < epochs.size(); i++){
+				ActicalEpoch epoch = epochs.get(i);
+				if (!epoch.isAsleep()){
+					consecutiveAwake++;
+					tempSleepochs.add(epoch);
+				} else{
+					consecutiveAwake = 0;
+					additionalSleepochs.addAll(tempSleepochs);
+					additionalSleepochs.add(epoch);
+					tempSleepochs = new ArrayList<>();
+				}
+
+				if (consecutiveAwake >= successiveAwakeEpochs){
+					psp.epochs.addAll(additionalSleepochs);
+					hasWakePeriod = true;
+					break;
+				}
+			}
+
+			if (!hasWakePeriod){
+				pspIt.remove();
+			}
+		}
+
+		for (PossibleSleepPeriod psp : psps){
+			int consecutiveAwake = 0;
+			for (int i = psp.epochListStartingIndex-1; i >= 0; i--){
+				ActicalEpoch epoch = epochs.get(i);
+				if (!epoch.isAsleep()){
+					consecutiveAwake++;
+				} else{
+					break;
+				}
+
+				if (consecutiveAwake >= precedingAwakeEpochs){
+					SleepPeriod sp = new SleepPeriod(psp.epochs);
+					sleepPeriods.add(period(sp.getStart(), sp.getEnd()));
+					break;
+				}
+			}
+		}
+
+		return sleepPeriods;
+	}
+
+	static class PossibleSleepPeriod{
+		List<ActicalEpoch> epochs = new ArrayList<>();
+		int epochListStartingIndex = -1;
+	}
+}
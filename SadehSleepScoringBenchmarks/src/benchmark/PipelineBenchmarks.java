@@ -0,0 +1,194 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import analysis.DailyEpochCounts;
+import analysis.SleepPeriod;
+import analysis.SleepPeriodIndex;
+import analysis.SleepStats;
+import excel.ActicalDataOutputException;
+import excel.ActicalExcelParser;
+import excel.ActicalStreamingParser;
+import excel.ActivityThresholdWorkbook;
+import excel.ParticipantDataParseException;
+import excel.ParticipantWorkbook;
+import sadeh.ActicalParticipant;
+import sadeh.Diagnostics;
+import sadeh.EpochSeries;
+import sadeh.SadehMain;
+import sadeh.SleepAnalysis;
+import sadeh.SleepAnalysis.SLEEP_PROBABILITY;
+
+/**
+ * Benchmarks of each stage of processing a participant (parsing the Actical workbook, sadeh scoring, finding the
+ * sleep periods, calculating the daily sleep statistics and writing the output workbooks) and of
+ * {@link SadehMain#process} from start to end, on workbooks made by {@link SyntheticWorkbookGenerator}.
+ *
+ * Each benchmark reports throughput and sampled times (with percentiles). Build with mvn package and run offline
+ * with, for example:
+ *
+ * java -jar target/benchmarks.jar PipelineBenchmarks -prof gc -p days=1,7 -p noise=TYPICAL,RESTLESS
+ *
+ * where -prof gc adds the allocation rate (gc.alloc.rate.norm is bytes allocated per operation). A workbook holds
+ * at most 8 days (see {@link SyntheticWorkbookGenerator}), so the scoring benchmarks are run on multi-week
+ * recordings with, for example, "score -p repeat=1,4,12". scoreBatch uses the Vector API scorer when the benchmark
+ * JVMs run on JDK 16 or later with the incubator module, i.e. with -jvmArgsAppend "--add-modules jdk.incubator.vector";
+ * otherwise it uses the scalar kernel.
+ *
+ * @author kyle_
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmarks {
+	static final String ASSESSMENT_POINT = "BL";
+
+	@Param({"7"})
+	public int days;
+
+	@Param({"TYPICAL"})
+	public SyntheticWorkbookGenerator.NOISE_PROFILE noise;
+
+	@Param({"xlsx"})
+	public String format;
+
+	// The scoring benchmarks score the parsed activity repeated this many times, as a longer recording
+	@Param({"1"})
+	public int repeat;
+
+	File folder;
+	File actical;
+	EpochSeries scored;
+	int[] activity;
+	int[] recording;
+	List<SleepPeriod> sleepPeriods;
+	List<LocalDate> dates;
+	List<ActicalParticipant> participants;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ParticipantDataParseException{
+		Diagnostics.setLevel(Diagnostics.LEVEL.OFF);
+		folder = Files.createTempDirectory("sadeh-benchmark").toFile();
+
+		SyntheticWorkbookGenerator generator = new SyntheticWorkbookGenerator();
+		generator.setDays(days);
+		generator.setNoise(noise);
+		actical = new File(folder, "1001." + format);
+		generator.writeActical(actical, 0);
+
+		scored = SadehMain.parseParticipantData(actical);
+		activity = scored.getActivityLevels();
+		recording = new int[activity.length * repeat];
+		for (int r = 0; r < repeat; r++)
+			System.arraycopy(activity, 0, recording, r * activity.length, activity.length);
+		sleepPeriods = SadehMain.getSleepPeriods(scored);
+		dates = scored.getDates();
+		ActicalParticipant participant = SadehMain.process(actical, ASSESSMENT_POINT, folder.getPath());
+		if (participant == null)
+			throw new IllegalStateException("The synthetic workbook " + actical + " was not processed");
+		participants = Collections.singletonList(participant);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		File[] files = folder.listFiles();
+		if (files != null){
+			for (File f : files)
+				f.delete();
+		}
+
+		folder.delete();
+		//process() writes its output with Windows path separators; elsewhere that is a file next to the folder
+		new File(folder.getPath() + "\\1001_" + ASSESSMENT_POINT + ".xlsx").delete();
+		Diagnostics.flush();
+	}
+
+	@Benchmark
+	public EpochSeries parseWorkbook() throws ParticipantDataParseException{
+		return ActicalExcelParser.parseSadehExcelDocument(actical);
+	}
+
+	@Benchmark
+	public EpochSeries parseStreaming() throws ParticipantDataParseException{
+		return ActicalStreamingParser.parseSadehExcelDocument(actical);
+	}
+
+	@Benchmark
+	public SLEEP_PROBABILITY[] score(){
+		SLEEP_PROBABILITY[] states = new SLEEP_PROBABILITY[recording.length];
+		SleepAnalysis.sadeh(recording, states, null);
+		return states;
+	}
+
+	@Benchmark
+	public long[] scoreBatch(){
+		return SleepAnalysis.sadehBatch(recording);
+	}
+
+	@Benchmark
+	public List<SleepPeriod> sleepPeriods(){
+		return SadehMain.getSleepPeriods(scored);
+	}
+
+	@Benchmark
+	public List<SleepStats> dailyStats(){
+		SleepPeriodIndex index = new SleepPeriodIndex(sleepPeriods);
+		DailyEpochCounts counts = new DailyEpochCounts(scored);
+		List<SleepStats> stats = new ArrayList<>(dates.size());
+
+		for (LocalDate date : dates){
+			SleepPeriod onset = SleepStats.findSleepOnset(date, index);
+			SleepStats sleep = new SleepStats(date, onset, SleepStats.findSleepOffset(date, index, onset));
+			sleep.calculate(counts);
+			stats.add(sleep);
+		}
+
+		return stats;
+	}
+
+	@Benchmark
+	public ActivityThresholdWorkbook writeActivityThresholdWorkbook() throws ActicalDataOutputException{
+		ActivityThresholdWorkbook workbook = new ActivityThresholdWorkbook(scored.asList());
+		workbook.create();
+		workbook.write(new File(folder, "activity.xlsx").getPath());
+		return workbook;
+	}
+
+	@Benchmark
+	public ParticipantWorkbook writeParticipantWorkbook() throws ActicalDataOutputException{
+		ParticipantWorkbook workbook = new ParticipantWorkbook(participants);
+		workbook.create();
+		workbook.write(new File(folder, "participantData.xlsx").getPath());
+		return workbook;
+	}
+
+	@Benchmark
+	public ActicalParticipant process(){
+		return SadehMain.process(actical, ASSESSMENT_POINT, folder.getPath());
+	}
+}
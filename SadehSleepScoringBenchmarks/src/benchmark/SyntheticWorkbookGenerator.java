@@ -0,0 +1,280 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Creates Actical and EMA workbooks laid out like the ones exported for the study, filled with made up (but
+ * realistic looking) data, so that the pipeline can be benchmarked without participant data.
+ *
+ * An Actical workbook has the sheet "Data from ActiCal" with the day of week headers on row 3 and one row per
+ * minute of the day from row 16. Each day takes columnsPerDay columns: the date of the day is in the first of them
+ * (on the first data row) and the activity levels are in the third. The participant sleeps at night and naps in
+ * the afternoon, and the noise profile decides how much they move while asleep and how often they are very active.
+ * The parser only looks for day headers in the first 26 columns, so with 3 columns per day there can be at most 8
+ * days; more days (or columns per day) than fit are rejected rather than written where the parser would ignore them.
+ *
+ * Usage: SyntheticWorkbookGenerator outputFolder [participants] [days] [NOISE_PROFILE] [columnsPerDay] [seed]
+ * writes participants Actical workbooks (1001.xlsx, 1002.xlsx, ...) and an EMA workbook (ema.xlsx) for them.
+ *
+ * @author kyle_
+ *
+ */
+public class SyntheticWorkbookGenerator {
+	public enum NOISE_PROFILE {
+		QUIET, // Almost no movement while asleep
+		TYPICAL, // Occasional movement while asleep and the odd burst of high activity
+		RESTLESS // Frequent movement while asleep, short broken naps
+	}
+
+	static final String ACTICAL_SHEET = "Data from ActiCal";
+	static final String[] DAY_HEADERS = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+	static final int HEADER_ROW_INDEX = 2;
+	static final int BEGIN_DATA_ROW_INDEX = 15;
+	static final int MINUTES_PER_DAY = 24 * 60;
+	// ActicalExcelParser.MAX_HEADER_COLUMN_INDEX: day headers in later columns are not read
+	static final int MAX_HEADER_COLUMNS = 26;
+	// An EMA prompt is sent every PROMPT_INTERVAL minutes while the participant is usually awake
+	static final int PROMPT_INTERVAL = 90;
+
+	protected int days = 7;
+	protected int columnsPerDay = 3;
+	protected NOISE_PROFILE noise = NOISE_PROFILE.TYPICAL;
+	protected LocalDate firstDay = LocalDate.of(2016, 3, 7); // A Monday
+	protected long seed = 1;
+
+	public static void main(String[] args) throws IOException{
+		File folder = new File(args[0]);
+		int participants = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		SyntheticWorkbookGenerator generator = new SyntheticWorkbookGenerator();
+
+		if (args.length > 2)
+			generator.setDays(Integer.parseInt(args[2]));
+		if (args.length > 3)
+			generator.setNoise(NOISE_PROFILE.valueOf(args[3].toUpperCase()));
+		if (args.length > 4)
+			generator.setColumnsPerDay(Integer.parseInt(args[4]));
+		if (args.length > 5)
+			generator.setSeed(Long.parseLong(args[5]));
+
+		folder.mkdirs();
+		String[] ids = new String[participants];
+		for (int p = 0; p < participants; p++){
+			ids[p] = String.valueOf(1001 + p);
+			generator.writeActical(new File(folder, ids[p] + ".xlsx"), p);
+		}
+
+		generator.writeEma(new File(folder, "ema.xlsx"), ids);
+	}
+
+	/**
+	 * Writes an Actical workbook for one participant; an .xls file name writes the old binary format.
+	 */
+	public void writeActical(File file, int participant) throws IOException{
+		try (Workbook wb = file.getName().endsWith(".xls") ? new HSSFWorkbook() : new XSSFWorkbook()){
+			Random random = new Random(seed * 31 + participant);
+			Sheet summary = wb.createSheet("Summary");
+			summary.createRow(0).createCell(0).setCellValue("Synthetic participant " + participant);
+			Sheet sheet = wb.createSheet(ACTICAL_SHEET);
+
+			Row header = sheet.createRow(HEADER_ROW_INDEX);
+			for (int d = 0; d < days; d++)
+				header.createCell(activityColumn(d)).setCellValue(DAY_HEADERS[(firstDay.getDayOfWeek().getValue() - 1 + d) % 7]);
+
+			CellStyle timeStyle = wb.createCellStyle();
+			timeStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("hh:mm:ss"));
+			CellStyle dateStyle = wb.createCellStyle();
+			dateStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("dd-mmm-yy"));
+
+			int[][] activity = new int[days][];
+			for (int d = 0; d < days; d++)
+				activity[d] = activityForDay(random);
+
+			for (int m = 0; m < MINUTES_PER_DAY; m++){
+				Row row = sheet.createRow(BEGIN_DATA_ROW_INDEX + m);
+				Cell time = row.createCell(0);
+				time.setCellValue(m / (double) MINUTES_PER_DAY);
+				time.setCellStyle(timeStyle);
+
+				for (int d = 0; d < days; d++){
+					if (m == 0){
+						Cell date = row.createCell(activityColumn(d) - 2);
+						date.setCellValue(asDate(firstDay.plusDays(d).atStartOfDay()));
+						date.setCellStyle(dateStyle);
+					}
+
+					//The device is put on during the first day and taken off during the last
+					boolean worn = !(d == 0 && m < 600) && !(d == days - 1 && m >= 1000);
+					if (worn)
+						row.createCell(activityColumn(d)).setCellValue(activity[d][m]);
+				}
+			}
+
+			try (FileOutputStream out = new FileOutputStream(file)){
+				wb.write(out);
+			}
+		}
+	}
+
+	/**
+	 * Writes an EMA workbook with prompts during the day for each of the participants, roughly a fifth of
+	 * which were not answered.
+	 */
+	public void writeEma(File file, String[] participants) throws IOException{
+		try (XSSFWorkbook wb = new XSSFWorkbook()){
+			Random random = new Random(seed * 17);
+			Sheet sheet = wb.createSheet("EMA");
+			Row header = sheet.createRow(0);
+			header.createCell(0).setCellValue("ID");
+			header.createCell(1).setCellValue("DATE_IN");
+			header.createCell(2).setCellValue("TIME_IN");
+			header.createCell(3).setCellValue("CSLEEP");
+
+			CellStyle timeStyle = wb.createCellStyle();
+			timeStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("hh:mm:ss"));
+			CellStyle dateStyle = wb.createCellStyle();
+			dateStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("dd-mmm-yy"));
+
+			int rowIdx = 1;
+			for (String participant : participants){
+				for (int d = 0; d < days; d++){
+					for (int m = 7 * 60; m < 22 * 60; m += PROMPT_INTERVAL){
+						int minute = m + random.nextInt(30);
+						Row row = sheet.createRow(rowIdx++);
+						row.createCell(0).setCellValue(Integer.parseInt(participant));
+
+						Cell date = row.createCell(1);
+						date.setCellValue(asDate(firstDay.plusDays(d).atStartOfDay()));
+						date.setCellStyle(dateStyle);
+
+						Cell time = row.createCell(2);
+						time.setCellValue(minute / (double) MINUTES_PER_DAY);
+						time.setCellStyle(timeStyle);
+
+						int response = random.nextInt(10);
+						if (response >= 2) //1 is awake, 2 is asleep, no value is no response
+							row.createCell(3).setCellValue((minute > 13 * 60 && minute < 14 * 60 && response > 6) ? 2 : 1);
+					}
+				}
+			}
+
+			try (FileOutputStream out = new FileOutputStream(file)){
+				wb.write(out);
+			}
+		}
+	}
+
+	/**
+	 * A day of activity levels, one per minute: asleep overnight (from about 9PM to about 6:30AM), a nap in the
+	 * early afternoon, and awake the rest of the time.
+	 */
+	int[] activityForDay(Random random){
+		int[] activity = new int[MINUTES_PER_DAY];
+		int bedtime = 21 * 60 + random.nextInt(180) - 90;
+		int wakeup = 6 * 60 + 40 + random.nextInt(120) - 60;
+		int napStart = 13 * 60 + random.nextInt(30);
+		int napEnd = napStart + 40 + random.nextInt(40);
+
+		int movesWhileAsleep; // 1 in this many minutes asleep have some movement
+		int bursts; // 1 in this many minutes awake are very active
+		switch (noise){
+		case QUIET:
+			movesWhileAsleep = 40;
+			bursts = 200;
+			break;
+		case RESTLESS:
+			movesWhileAsleep = 4;
+			bursts = 20;
+			break;
+		default:
+			movesWhileAsleep = 12;
+			bursts = 50;
+		}
+
+		for (int m = 0; m < MINUTES_PER_DAY; m++){
+			boolean asleep = m >= bedtime || m < wakeup || (m >= napStart && m < napEnd);
+			if (asleep){
+				activity[m] = (random.nextInt(movesWhileAsleep) == 0) ? random.nextInt(120) : 0;
+			} else if (random.nextInt(bursts) == 0){
+				activity[m] = random.nextInt(5000);
+			} else{
+				activity[m] = (random.nextInt(10) < 3) ? random.nextInt(40) : random.nextInt(400);
+			}
+		}
+
+		return activity;
+	}
+
+	int activityColumn(int day){
+		return 3 + day * columnsPerDay;
+	}
+
+	static void checkLayout(int days, int columnsPerDay){
+		if (days < 1 || 3 + (days - 1) * columnsPerDay >= MAX_HEADER_COLUMNS)
+			throw new IllegalArgumentException(days + " days of " + columnsPerDay + " columns do not fit in the first "
+					+ MAX_HEADER_COLUMNS + " columns the parser reads day headers from (at most "
+					+ ((MAX_HEADER_COLUMNS - 4) / columnsPerDay + 1) + " days)");
+	}
+
+	static Date asDate(LocalDateTime ldt){
+		return Date.from(ldt.atZone(ZoneId.systemDefault()).toInstant());
+	}
+
+	public int getDays() {
+		return days;
+	}
+
+	public void setDays(int days) {
+		checkLayout(days, columnsPerDay);
+		this.days = days;
+	}
+
+	public int getColumnsPerDay() {
+		return columnsPerDay;
+	}
+
+	public void setColumnsPerDay(int columnsPerDay) {
+		if (columnsPerDay < 3)
+			throw new IllegalArgumentException("Each day needs at least 3 columns (date, unused, activity)");
+		checkLayout(days, columnsPerDay);
+		this.columnsPerDay = columnsPerDay;
+	}
+
+	public NOISE_PROFILE getNoise() {
+		return noise;
+	}
+
+	public void setNoise(NOISE_PROFILE noise) {
+		this.noise = noise;
+	}
+
+	public LocalDate getFirstDay() {
+		return firstDay;
+	}
+
+	public void setFirstDay(LocalDate firstDay) {
+		this.firstDay = firstDay;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+}